@@ -19,6 +19,19 @@ if(!defined('WC_INDEX')){
 
 abstract class DbCore{
 
+  /** true if this request is using a persistent database connection */
+  protected $_persistent = false;
+  /** true while a pipelined statement has a transaction open on this requests connection */
+  protected $_transaction = false;
+  /** true once a pipelined statement changed autocommit on this requests connection */
+  protected $_autocommitSet = false;
+  /** undoes the prepared batch that is running, if an error ends the request */
+  private $_batchUndo = '';
+  /** the row of the prepared batch that is running, for its error message */
+  private $_batchRow = '';
+  /** true while a failed batch is being undone */
+  private $_batchUndoing = false;
+
   /**
    * Handles errors for db methods.
    *
@@ -28,23 +41,317 @@ abstract class DbCore{
    * @param mixed $query - [optional] query that caused the error (if any)
    */
   function throw_error($errcode, $errmess, $errno='', $query='') {
+    if ($this->_batchUndoing) {
+      // a failed undo mustn't hide the error that caused it
+      return;
+    }
     if($query!=''){
       $errmess .= "\n\tQUERY: " . $query;
     }
+    if ($this->_batchUndo != '') {
+      $undo = $this->_batchUndo;
+      $this->_batchUndo = '';
+      $this->_batchUndoing = true;
+      $this->query($undo);
+      $this->_batchUndoing = false;
+      $errmess .= "\n\tBATCH: row " . $this->_batchRow . " failed. Every row was rolled back.";
+    }
     WcApiCore::wcCustomHandler($errcode, $errmess, $errno);
   }
 
   /**
    * Execute a single query with result & return the
-   * rows as a .csv string.
+   * rows as a .csv string or a binary stream.
    *
    * @param mixed $sqlString
+   * @param int $wireFormat - [optional] binary result format version. 0 (zero) for .csv
+   * @param bool $withMeta - [optional] false to leave out the metadata table
+   * @param int $maxRows - [optional] the most rows to return. 0 (zero) for all rows
    * @return
    */
-  function exec_results($query) {
+  function exec_results($query, $wireFormat = 0, $withMeta = true, $maxRows = 0) {
     $sqlQuery = $this->query($query);
-    $resultSize = $this->num_rows($sqlQuery);
-    return WcApiCore::wcBuildCSV($sqlQuery, $resultSize);
+    return $this->build_results($sqlQuery, $wireFormat, $withMeta, $maxRows);
+  }
+
+  /**
+   * Open a cursor over a single SELECT & return its first window of rows.
+   * PHP can't hold a query open between requests so the cursor is kept
+   * in the session as its query and position. Each window runs the query
+   * limited to the window, so memory use is bound by the fetch size rather than the result size.
+   * Windows are only consistent with each other if the query has a unique ORDER BY.
+   * With maxRows set the last window stops at maxRows and the cursor closes there.
+   *
+   * @param string $cursorId - id chosen by the JDBC side
+   * @param mixed $query - a single SELECT
+   * @param int $fetchSize - rows per window
+   * @param int $wireFormat - [optional] binary result format version. 0 (zero) for .csv
+   * @param bool $withMeta - [optional] false to leave out the metadata table
+   * @param int $maxRows - [optional] the most rows the cursor returns. 0 (zero) for all rows
+   * @return the first window as a .csv string or a binary stream
+   */
+  function cursor_open($cursorId, $query, $fetchSize, $wireFormat = 0, $withMeta = true, $maxRows = 0) {
+    $_SESSION['cursors'][$cursorId] = array(
+      'sql' => rtrim(trim($query), "; \t\r\n"),
+      'size' => max(1, (int)$fetchSize),
+      'max' => max(0, (int)$maxRows),
+      'pos' => 0);
+
+    return $this->cursor_fetch($cursorId, $wireFormat, $withMeta);
+  }
+
+  /**
+   * Return the next window of rows for an open cursor.
+   * A window with less than fetchSize rows, or the window reaching maxRows, is the last one and closes the cursor.
+   *
+   * @param string $cursorId
+   * @param int $wireFormat - [optional] binary result format version. 0 (zero) for .csv
+   * @param bool $withMeta - [optional] false to leave out the metadata table
+   * @return a window of rows as a .csv string or a binary stream
+   */
+  function cursor_fetch($cursorId, $wireFormat = 0, $withMeta = true) {
+    if (!isset($_SESSION['cursors'][$cursorId])) {
+      $this->throw_error(WC_ERROR_DB_QRY, 'Cursor ' . $cursorId . ' is not open.');
+    }
+    $cursor = $_SESSION['cursors'][$cursorId];
+    $limit = $cursor['size'];
+    if ($cursor['max'] > 0) {
+      $limit = min($limit, $cursor['max'] - $cursor['pos']);
+    }
+
+    $sqlQuery = $this->query('SELECT * FROM (' . $cursor['sql'] . ') AS wc_cursor'
+      . ' LIMIT ' . $limit . ' OFFSET ' . $cursor['pos'] . ';');
+
+    $windowSize = $this->num_rows($sqlQuery);
+    if ($windowSize < $limit || ($cursor['max'] > 0 && $cursor['pos'] + $windowSize >= $cursor['max'])) {
+      unset($_SESSION['cursors'][$cursorId]);
+    } else {
+      $_SESSION['cursors'][$cursorId]['pos'] += $windowSize;
+    }
+    return $this->build_results($sqlQuery, $wireFormat, $withMeta);
+  }
+
+  /**
+   * Forget a cursor that wasn't read to the end.
+   *
+   * @param string $cursorId
+   */
+  function cursor_close($cursorId) {
+    unset($_SESSION['cursors'][$cursorId]);
+  }
+
+  /**
+   * Store a single statement in the session for execute_prepared_batch().
+   * The same SQL always gets the same handle.
+   * The database connection only lasts for one request, so the statement is
+   * prepared on the database once per batch request and run for every row.
+   * Single executes are sent as SQL with the parameters filled in,
+   * which costs the database one round trip instead of two.
+   * Later requests send only the handle and parameter rows.
+   *
+   * @param mixed $query - a single statement using ? parameter markers
+   * @return the statements handle
+   */
+  function prepare($query) {
+    $query = rtrim(trim($query), "; \t\r\n");
+    $handle = 'ps' . substr(md5($query), 0, 16);
+
+    if (!isset($_SESSION['prepared'][$handle])) {
+      if (isset($_SESSION['prepared']) && count($_SESSION['prepared']) >= WC_MAX_PREPARED) {
+        array_shift($_SESSION['prepared']);
+      }
+      $_SESSION['prepared'][$handle] = $query;
+    }
+    return $handle;
+  }
+
+  /**
+   * Execute a statement stored by prepare() once for each row of parameters.
+   * The statement is prepared once and every row runs in a single transaction,
+   * so the batch is applied completely or not at all.
+   * If a transaction is already open (BEGIN would commit it) the rows run under a savepoint
+   * and the transaction stays open. A failed row rolls the batch back before the error is sent.
+   *
+   * @param string $handle - from prepare()
+   * @param int $rows - number of parameter rows
+   * @param string $matrix - every rows parameters, row by row. Each value is length:value
+   * @param string $types - one type per parameter, row by row
+   * @return the rows affected by each row as a comma seperated list
+   * or WC_UNPREPARED if the handle isn't in this session.
+   */
+  function execute_prepared_batch($handle, $rows, $matrix, $types) {
+    if (!isset($_SESSION['prepared'][$handle])) {
+      return WC_UNPREPARED;
+    }
+    $query = $_SESSION['prepared'][$handle];
+
+    $params = $this->split_matrix($matrix);
+    if ($params === false || count($params) % $rows != 0) {
+      $this->throw_error(WC_ERROR_DB_QRY, 'Received a parameter matrix that doesn\'t hold ' . $rows . ' rows.', '', $query);
+    }
+    $params = $this->check_params($query, $params, $types);
+    $width = count($params) / $rows;
+
+    $rowsAffected = '';
+    if ($this->in_transaction()) {
+      $this->query('SAVEPOINT ' . WC_BATCH_SAVEPOINT . ';');
+      $this->_batchUndo = 'ROLLBACK TO SAVEPOINT ' . WC_BATCH_SAVEPOINT . ';';
+      $done = 'RELEASE SAVEPOINT ' . WC_BATCH_SAVEPOINT . ';';
+    } else {
+      $this->query('BEGIN;');
+      $this->_batchUndo = 'ROLLBACK;';
+      $done = 'COMMIT;';
+    }
+    for ($r = 0; $r < $rows; $r++) {
+      $this->_batchRow = ($r + 1) . ' of ' . $rows;
+      $result = $this->run_prepared($handle, $query, array_slice($params, $r * $width, $width), substr($types, $r * $width, $width));
+      $rowsAffected .= (is_int($result) ? $result : $this->num_rows($result)) . ',';
+    }
+    $this->_batchUndo = '';
+    $this->query($done);
+
+    return $rowsAffected;
+  }
+
+  /**
+   * Check parameter values against their types.
+   *
+   * @param mixed $query - the statement the parameters are for. Used in error messages
+   * @param array $params - parameter values
+   * @param string $types - one type per parameter
+   * @return the parameters with n (null) types set to null
+   */
+  protected function check_params($query, $params, $types) {
+    if (strlen($types) != count($params)) {
+      $this->throw_error(WC_ERROR_DB_QRY, 'Received ' . count($params) . ' parameters and ' . strlen($types) . ' parameter types.', '', $query);
+    }
+    for ($i = 0, $n = count($params); $i < $n; $i++) {
+      if ($types[$i] == 'n') {
+        $params[$i] = null;
+      } else if (($types[$i] == 'i' || $types[$i] == 'd') && !is_numeric($params[$i])) {
+        $this->throw_error(WC_ERROR_DB_QRY, 'Parameter ' . ($i+1) . ' is not a number.', '', $query);
+      }
+    }
+    return $params;
+  }
+
+  /**
+   * Split a parameter matrix into its values.
+   * Each value is sent as its length in bytes, a colon and the value
+   * so values never need escaping.
+   *
+   * @param string $matrix
+   * @return array of values or false if the matrix is malformed
+   */
+  protected function split_matrix($matrix) {
+    $values = array();
+    $pos = 0;
+    $n = strlen($matrix);
+    while ($pos < $n) {
+      $colon = strpos($matrix, ':', $pos);
+      if ($colon === false || !ctype_digit(substr($matrix, $pos, $colon - $pos))) {
+        return false;
+      }
+      $length = (int)substr($matrix, $pos, $colon - $pos);
+      if ($colon + 1 + $length > $n) {
+        return false;
+      }
+      $values[] = (string)substr($matrix, $colon + 1, $length);
+      $pos = $colon + 1 + $length;
+    }
+    return $values;
+  }
+
+  /**
+   * Run a stored statement.
+   * Backends with native prepared statements override this to prepare once
+   * per request and bind the parameters on the database.
+   * This version escapes the parameters into the SQL.
+   *
+   * @param string $handle
+   * @param mixed $query - the stored statement
+   * @param array $params - checked parameter values, null for SQL NULL
+   * @param string $types - one type per parameter
+   * @return a resultset or the number of affected rows for statements without one
+   */
+  protected function run_prepared($handle, $query, $params, $types) {
+    $pieces = $this->split_markers($query);
+    if (count($pieces) - 1 != count($params)) {
+      $this->throw_error(WC_ERROR_DB_QRY, 'Statement has ' . (count($pieces) - 1) . ' parameter markers but received ' . count($params) . ' parameters.', '', $query);
+    }
+
+    $sql = $pieces[0];
+    for ($i = 1, $n = count($pieces); $i < $n; $i++) {
+      if (is_null($params[$i-1])) {
+        $sql .= 'NULL';
+      } else if ($types[$i-1] == 's') {
+        $sql .= "'" . $this->input($params[$i-1]) . "'";
+      } else {
+        $sql .= $params[$i-1];
+      }
+      $sql .= $pieces[$i];
+    }
+
+    $result = $this->query($sql);
+    return is_bool($result) ? (int)$this->affectedRows($result) : $result;
+  }
+
+  /**
+   * Split a statement on its ? parameter markers.
+   * Markers inside quoted strings and identifiers are left alone.
+   *
+   * @param mixed $query
+   * @return array of SQL pieces. There is one more piece than markers.
+   */
+  protected function split_markers($query) {
+    $pieces = array();
+    $start = 0;
+    $quote = '';
+    for ($i = 0, $n = strlen($query); $i < $n; $i++) {
+      $c = $query[$i];
+      if ($quote != '') {
+        if ($c == '\\') {
+          $i++;
+        } else if ($c == $quote) {
+          $quote = '';
+        }
+      } else if ($c == '\'' || $c == '"' || $c == '`') {
+        $quote = $c;
+      } else if ($c == '?') {
+        $pieces[] = substr($query, $start, $i - $start);
+        $start = $i + 1;
+      }
+    }
+    $pieces[] = substr($query, $start);
+    return $pieces;
+  }
+
+  /**
+   * Stream a resultset to the JDBC side as its rows are fetched.
+   * The response is sent in WC_STREAM_CHUNK pieces (see wc_stream_start()),
+   * so the JDBC side can start reading before the last row is fetched
+   * and the whole result never has to sit in memory as one string.
+   * The query has already run, errors before the first row are sent the usual way.
+   * Streaming closes the session, so callers update it (EG: cursor positions) first.
+   *
+   * @param resultset $sqlQuery
+   * @param int $wireFormat - binary result format version. 0 (zero) for .csv
+   * @param bool $withMeta - false to leave out the metadata table
+   * @param int $maxRows - [optional] the most rows to return. 0 (zero) for all rows
+   * @return an empty string. The rows, as .csv or a binary stream, have already been sent
+   */
+  protected function build_results($sqlQuery, $wireFormat, $withMeta = true, $maxRows = 0) {
+    wc_stream_start();
+    if ($wireFormat == WC_WIRE_VERSION) {
+      wc_stream_write(WC_BIN_MAGIC);
+      WcApiCore::wcBuildBinary($sqlQuery, $withMeta, $maxRows, true);
+      wc_stream_write(WC_BIN_END);
+    } else {
+      $resultSize = $this->num_rows($sqlQuery);
+      WcApiCore::wcBuildCSV($sqlQuery, $resultSize, $withMeta, $maxRows, true);
+    }
+    wc_stream_end();
+    return '';
   }
 
   /**
@@ -109,6 +416,161 @@ abstract class DbCore{
     return $firstLine . WC_EOF . $generatedKeys . $batchResults;
   }
 
+  /**
+   * Run the statements queued by the JDBC side, in order.
+   * They share this requests connection with the action that follows them,
+   * so session settings and open transactions carry over to it.
+   *
+   * The counts header is set before each statement runs, with the failed marker in its place.
+   * A statement that fails ends the request, so its marker tells the JDBC side which one failed.
+   *
+   * @param array $statements - single statements, usually without a resultset
+   * @return array of the rows affected by each statement
+   */
+  function exec_pipeline($statements) {
+    $counts = array();
+    foreach ($statements as $sqlString) {
+      header(WC_PIPELINE_HEADER . ': ' . implode(',', array_merge($counts, array(WC_PIPELINE_FAILED))));
+      $sqlQuery = $this->query($sqlString);
+      $this->track_transaction($sqlString);
+      $counts[] = (int)$this->affectedRows($sqlQuery);
+      if (!is_bool($sqlQuery)) {
+        $this->free_result($sqlQuery);
+      }
+    }
+    return $counts;
+  }
+
+  /**
+   * Load a file of rows into a table with LOAD DATA LOCAL INFILE.
+   * Rows are one per line with tab seperated values, backslash escapes and \N for null.
+   * Needs local_infile enabled on the MySQL server.
+   *
+   * @param string $table - a checked table name
+   * @param string $columns - checked comma seperated column names. Empty for every column
+   * @param string $file - path to the uploaded rows
+   * @return the number of rows loaded
+   */
+  function bulk_load($table, $columns, $file) {
+    $this->query("LOAD DATA LOCAL INFILE '" . $this->input($file) . "' INTO TABLE " . $table
+      . " CHARACTER SET utf8 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n'"
+      . ($columns != '' ? ' (' . $columns . ')' : '') . ';');
+    return $this->affectedRows();
+  }
+
+  /**
+   * Stream the rows of a single SELECT straight to the output, one line per row.
+   * Rows are read from an unbuffered resultset where the database has one,
+   * so memory use doesn't grow with the number of rows.
+   * The stream starts with WC_EXPORT_MAGIC and ends with WC_EXPORT_END.
+   * Errors before the first row are sent the usual way.
+   *
+   * @param mixed $query - a single SELECT
+   * @param bool $csv - true for csv, false for the COPY text format. See WcApiCore::wcExportRow()
+   */
+  function export($query, $csv) {
+    $result = $this->query_unbuffered($query);
+
+    wc_stream_start(true);
+    wc_stream_write(WC_EXPORT_MAGIC . "\n");
+    while ($row = $this->fetch_row($result)) {
+      wc_stream_write(WcApiCore::wcExportRow($row, $csv));
+    }
+    if (($error = $this->fetch_error()) != '') {
+      $this->throw_error(WC_ERROR_DB_QRY, $error, 0, $query);
+    }
+    $this->free_result($result);
+
+    wc_stream_write(WC_EXPORT_END . "\n");
+    wc_stream_end();
+  }
+
+  /**
+   * Perform a database query without buffering the resultset.
+   * Rows must be read to the end before the next query.
+   * Databases without unbuffered queries use query().
+   *
+   * @param mixed $query
+   * @return A resultset
+   */
+  function query_unbuffered($query) {
+    return $this->query($query);
+  }
+
+  /**
+   * An unbuffered resultset stops on errors the same way it stops at the last row.
+   *
+   * @return the error from the last fetch or an empty string
+   */
+  protected function fetch_error() {
+    return '';
+  }
+
+  /**
+   * Local files are only allowed on connections made for a bulk load.
+   *
+   * @return true if this request is a bulk load
+   */
+  protected static function is_bulk_load() {
+    return isset($_POST[WC_ACTION]) && $_POST[WC_ACTION] == 'bulk_load';
+  }
+
+  /**
+   * Configs written before WC_DB_PERSISTENT existed don't define it.
+   *
+   * @return true if persistent database connections are turned on
+   */
+  protected static function persistent_configured() {
+    return defined('WC_DB_PERSISTENT') && WC_DB_PERSISTENT === true;
+  }
+
+  /**
+   * Follow the transaction state a pipelined statement leaves on this requests connection.
+   * COMMIT, ROLLBACK (but not ROLLBACK TO a savepoint) and turning autocommit on end a transaction.
+   *
+   * @param string $sqlString - a pipelined statement that has run
+   */
+  protected function track_transaction($sqlString) {
+    if (preg_match('/^\s*(BEGIN|START\s+TRANSACTION)\b/i', $sqlString)) {
+      $this->_transaction = true;
+    } else if (preg_match('/^\s*(COMMIT|ROLLBACK)\b/i', $sqlString) && !preg_match('/\bTO\b/i', $sqlString)) {
+      $this->_transaction = false;
+    } else if (preg_match('/^\s*SET\b.*\bAUTOCOMMIT\b/is', $sqlString)) {
+      $this->_autocommitSet = true;
+      $this->_transaction = false;
+    }
+  }
+
+  /**
+   * MySQL has no way to ask for an open transaction before 5.7,
+   * so one is assumed when a pipelined statement began one or turned autocommit off.
+   * Every request starts on a connection with autocommit on, so the server is only asked
+   * when the pipeline changed it. Backends that can ask override this.
+   *
+   * @return true if a transaction is open on this requests connection
+   */
+  protected function in_transaction() {
+    if ($this->_transaction) {
+      return true;
+    }
+    if (!$this->_autocommitSet) {
+      return false;
+    }
+    $result = $this->query('SELECT @@autocommit;');
+    $row = $this->fetch_row($result);
+    $this->free_result($result);
+    return $row !== false && $row !== null && (int)$row[0] == 0;
+  }
+
+  /**
+   * Sent to the JDBC side in the connection handshake.
+   *
+   * @return true if this request is using a persistent database connection
+   */
+  function is_persistent() {
+    return $this->_persistent;
+  }
+
   /**
    * Process a single SQL Transaction (usually consists of a batch of sql queries)
    * Can be INSERT, UPDATE, DELETE, EXECUTE.
@@ -167,6 +629,14 @@ abstract class DbCore{
    */
   abstract function thread_id();
 
+  /**
+   * Stop the query running on another connection. The connection itself stays open.
+   *
+   * @param int $threadId - from thread_id() on the other connection
+   * @return true on success
+   */
+  abstract function kill_query($threadId);
+
   /**
    * Perform a DDL or DML query
    *
@@ -191,6 +661,15 @@ abstract class DbCore{
    */
   abstract function fetch_array($query);
 
+  /**
+   * Fetch the current resultset row as a numeric array.
+   * Unlike fetch_array(), columns with the same name are all kept.
+   *
+   * @param mixed $query
+   * @return a resultset row as a numeric array
+   */
+  abstract function fetch_row($query);
+
   /**
    * Get the result of a simple query. Only 1 value from a resultset row is returned
    * or NULL if the "$row, $field" are not valid indices.
@@ -32,7 +32,8 @@ class DbMysql extends DbCore{
    */
   private function __construct($server = WC_DB_SERVER, $username = WC_DB_USERNAME, $password = WC_DB_PASSWORD, $database = WC_DB){
     $this->_dbName = $database;
-    $this->_db = mysql_connect($server, $username, $password, 'db_link');
+    // 128 is CLIENT_LOCAL_FILES, for LOAD DATA LOCAL INFILE
+    $this->_db = mysql_connect($server, $username, $password, 'db_link', self::is_bulk_load() ? 128 : 0);
     if (isset($this->_db)){
       mysql_select_db($database);
     }else{
@@ -104,6 +105,16 @@ class DbMysql extends DbCore{
     return mysql_thread_id($this->_db);
   }
 
+  /**
+   * Stop the query running on another connection. The connection itself stays open.
+   *
+   * @param int $threadId
+   * @return true on success
+   */
+  function kill_query($threadId) {
+    return mysql_query('KILL QUERY ' . (int)$threadId, $this->_db) !== false;
+  }
+
   /**
    * List tables in this database
    *
@@ -146,6 +157,25 @@ class DbMysql extends DbCore{
     return $result;
   }
 
+  /**
+   * Perform a database query without buffering the resultset.
+   *
+   * @param mixed $query
+   * @return A resultset
+   */
+  function query_unbuffered($query) {
+    $result = mysql_unbuffered_query($query, $this->_db) or $this->throw_error(WC_ERROR_DB_QRY, mysql_error(), mysql_errno(), $query);
+
+    return $result;
+  }
+
+  /**
+   * @return the error from the last fetch or an empty string
+   */
+  protected function fetch_error() {
+    return mysql_errno($this->_db) ? mysql_error($this->_db) : '';
+  }
+
   /**
    * Execute a query that expects to return a resultset.
    *
@@ -166,6 +196,16 @@ class DbMysql extends DbCore{
     return mysql_fetch_array($query, MYSQL_ASSOC);
   }
 
+  /**
+   * Fetch the current resultset row as a numeric array
+   *
+   * @param mixed $query
+   * @return a resultset row as a numeric array
+   */
+  function fetch_row($query) {
+    return mysql_fetch_row($query);
+  }
+
   /**
    * Get the result of a simple query. Only 1 value from a resultset row is returned
    * or NULL if the "$row, $field" are not valid indices.
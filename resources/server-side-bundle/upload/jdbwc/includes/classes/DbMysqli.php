@@ -20,6 +20,8 @@ class DbMysqli extends DbCore{
   private static $_singleton;
   private $_db;
   private $_dbName;
+  /** statements prepared during this request, by handle */
+  private $_stmts = array();
 
   /**
    * Create a static db connection
@@ -32,7 +34,15 @@ class DbMysqli extends DbCore{
    */
   private function __construct($server = WC_DB_SERVER, $username = WC_DB_USERNAME, $password = WC_DB_PASSWORD, $database = WC_DB){
     $this->_dbName = $database;
-    $this->_db = mysqli_connect($server, $username, $password, $database);
+    $this->_db = mysqli_init();
+    if (self::is_bulk_load()) {
+      mysqli_options($this->_db, MYSQLI_OPT_LOCAL_INFILE, true);
+    }
+    /* "p:" reuses a connection left by an earlier request. mysqli resets its session
+     * (mysqli_change_user) before handing it over, so nothing carries over between requests.
+     * Bulk loads need local files turned on, so they always get a connection of their own. */
+    $this->_persistent = self::persistent_configured() && !self::is_bulk_load();
+    mysqli_real_connect($this->_db, ($this->_persistent ? 'p:' : '') . $server, $username, $password, $database);
 
     /* check connection is open */
     if (mysqli_connect_errno()) {
@@ -80,7 +90,7 @@ class DbMysqli extends DbCore{
     if(isset($value) && preg_match("/^\d+?$/",$value)){
       return $value;
     }
-    return mysqli_real_escape_string($value);
+    return mysqli_real_escape_string($this->_db, $value);
   }
 
   /**
@@ -111,6 +121,16 @@ class DbMysqli extends DbCore{
     return mysqli_thread_id($this->_db);
   }
 
+  /**
+   * Stop the query running on another connection. The connection itself stays open.
+   *
+   * @param int $threadId
+   * @return true on success
+   */
+  function kill_query($threadId) {
+    return mysqli_query($this->_db, 'KILL QUERY ' . (int)$threadId) !== false;
+  }
+
   /**
    * List tables in this database.
    * Updated: 2012-03-11 Removed empty $databaseName placeholder
@@ -186,6 +206,74 @@ class DbMysqli extends DbCore{
     return $result;
   }
 
+  /**
+   * Perform a database query without buffering the resultset.
+   *
+   * @param mixed $query
+   * @return A resultset
+   */
+  function query_unbuffered($query) {
+    $this->cleanupQuery();
+
+    $result = mysqli_query($this->_db, $query, MYSQLI_USE_RESULT) or $this->throw_error(WC_ERROR_DB_QRY, " MYSQLI - " . mysqli_error($this->_db), mysqli_errno($this->_db), $query);
+
+    return $result;
+  }
+
+  /**
+   * @return the error from the last fetch or an empty string
+   */
+  protected function fetch_error() {
+    return mysqli_errno($this->_db) ? " MYSQLI - " . mysqli_error($this->_db) : '';
+  }
+
+  /**
+   * Run a stored statement as a native prepared statement.
+   * Each handle is prepared once per request.
+   * Reading the results of a prepared statement needs mysqlnd.
+   * Without it the parameters are escaped into the SQL instead.
+   *
+   * @param string $handle
+   * @param mixed $query - the stored statement
+   * @param array $params - checked parameter values, null for SQL NULL
+   * @param string $types - one type per parameter
+   * @return a resultset or the number of affected rows for statements without one
+   */
+  protected function run_prepared($handle, $query, $params, $types) {
+    if (!function_exists('mysqli_stmt_get_result')) {
+      return parent::run_prepared($handle, $query, $params, $types);
+    }
+    $this->cleanupQuery();
+
+    if (!isset($this->_stmts[$handle])) {
+      $stmt = mysqli_prepare($this->_db, $query) or $this->throw_error(WC_ERROR_DB_QRY, " MYSQLI - " . mysqli_error($this->_db), mysqli_errno($this->_db), $query);
+      $this->_stmts[$handle] = $stmt;
+    }
+    $stmt = $this->_stmts[$handle];
+
+    if (mysqli_stmt_param_count($stmt) != count($params)) {
+      $this->throw_error(WC_ERROR_DB_QRY, 'Statement has ' . mysqli_stmt_param_count($stmt) . ' parameter markers but received ' . count($params) . ' parameters.', '', $query);
+    }
+    if (count($params) > 0) {
+      // bind_param takes references
+      $args = array($stmt, str_replace('n', 's', $types));
+      for ($i = 0, $n = count($params); $i < $n; $i++) {
+        $args[] = &$params[$i];
+      }
+      call_user_func_array('mysqli_stmt_bind_param', $args);
+    }
+
+    if (!mysqli_stmt_execute($stmt)) {
+      $this->throw_error(WC_ERROR_DB_QRY, " MYSQLI - " . mysqli_stmt_error($stmt), mysqli_stmt_errno($stmt), $query);
+    }
+
+    $result = mysqli_stmt_get_result($stmt);
+    if ($result === false) {
+      return (int)mysqli_stmt_affected_rows($stmt);
+    }
+    return $result;
+  }
+
   /**
    * Execute a query that expects to return a resultset.
    *
@@ -206,6 +294,16 @@ class DbMysqli extends DbCore{
     return mysqli_fetch_array($query, MYSQL_ASSOC);
   }
 
+  /**
+   * Fetch the current resultset row as a numeric array
+   *
+   * @param mixed $query
+   * @return a resultset row as a numeric array
+   */
+  function fetch_row($query) {
+    return mysqli_fetch_row($query);
+  }
+
   /**
    * Get the result of a simple query. Only 1 value from a resultset row is returned
    * or NULL if the "$row, $field" are not valid indices.
@@ -19,6 +19,8 @@ class DbPostgre extends DbCore{
 
   private static $_singleton;
   private $_db;
+  /** statements prepared during this request, by handle */
+  private $_stmts = array();
 
   /**
    * Create a static db connection
@@ -30,11 +32,42 @@ class DbPostgre extends DbCore{
    * @return PostgreSQL Database Connection
    */
   private function __construct($server = WC_DB_SERVER, $username = WC_DB_USERNAME, $password = WC_DB_PASSWORD, $database = WC_DB){
-    $this->_db = pg_connect("host=$server dbname=$database user=$username password=$password");
+    $this->_persistent = self::persistent_configured();
+    if ($this->_persistent) {
+      $this->_db = pg_pconnect("host=$server dbname=$database user=$username password=$password");
+    } else {
+      $this->_db = pg_connect("host=$server dbname=$database user=$username password=$password");
+    }
 
-    if (!isset($this->_db)){
+    if (!isset($this->_db) || $this->_db === false){
       $this->throw_error(WC_ERROR_DB_CON, "Unable to connect to database DbPostgre server!");
     }
+    if ($this->_persistent) {
+      $this->reset_session();
+    }
+  }
+
+  /**
+   * A persistent connection comes with whatever the last request left on it.
+   * Roll back any open transaction, then drop session settings, temporary tables
+   * and prepared statements, so handles prepared by an earlier request can't collide with pg_prepare().
+   * DISCARD ALL needs PostgreSQL 8.3 or later.
+   */
+  private function reset_session() {
+    if (pg_connection_status($this->_db) !== PGSQL_CONNECTION_OK) {
+      pg_connection_reset($this->_db) or $this->throw_error(WC_ERROR_DB_CON, "PostgreSQL - " . pg_last_error($this->_db));
+    }
+    if (pg_transaction_status($this->_db) !== PGSQL_TRANSACTION_IDLE) {
+      pg_query($this->_db, 'ROLLBACK;');
+    }
+    pg_query($this->_db, 'DISCARD ALL;') or $this->throw_error(WC_ERROR_DB_CON, "PostgreSQL - " . pg_last_error($this->_db));
+  }
+
+  /**
+   * @return true if a transaction is open on this requests connection
+   */
+  protected function in_transaction() {
+    return pg_transaction_status($this->_db) !== PGSQL_TRANSACTION_IDLE;
   }
 
   /**
@@ -99,6 +132,17 @@ class DbPostgre extends DbCore{
     return pg_get_pid($this->_db);
   }
 
+  /**
+   * Stop the query running on another backend. The backend itself stays open.
+   *
+   * @param int $threadId - the backends pid
+   * @return true on success
+   */
+  function kill_query($threadId) {
+    $result = pg_query($this->_db, 'SELECT pg_cancel_backend(' . (int)$threadId . ');');
+    return $result !== false && pg_fetch_result($result, 0, 0) == 't';
+  }
+
   /**
    * List tables in this database
    *
@@ -121,6 +165,109 @@ class DbPostgre extends DbCore{
     return $result;
   }
 
+  /**
+   * Run a stored statement as a native prepared statement.
+   * Each handle is prepared once per request, with its ? markers
+   * numbered the way PostgreSQL expects ($1, $2, etc).
+   *
+   * @param string $handle
+   * @param mixed $query - the stored statement
+   * @param array $params - checked parameter values, null for SQL NULL
+   * @param string $types - one type per parameter
+   * @return a resultset or the number of affected rows for statements without one
+   */
+  protected function run_prepared($handle, $query, $params, $types) {
+    if (!isset($this->_stmts[$handle])) {
+      $pieces = $this->split_markers($query);
+      if (count($pieces) - 1 != count($params)) {
+        $this->throw_error(WC_ERROR_DB_QRY, 'Statement has ' . (count($pieces) - 1) . ' parameter markers but received ' . count($params) . ' parameters.', '', $query);
+      }
+      $sql = $pieces[0];
+      for ($i = 1, $n = count($pieces); $i < $n; $i++) {
+        $sql .= '$' . $i . $pieces[$i];
+      }
+
+      pg_prepare($this->_db, $handle, $sql) or $this->throw_error(WC_ERROR_DB_QRY, "PostgreSQL - " . pg_last_error($this->_db), 0, $query);
+      $this->_stmts[$handle] = count($pieces) - 1;
+    }
+
+    if ($this->_stmts[$handle] != count($params)) {
+      $this->throw_error(WC_ERROR_DB_QRY, 'Statement has ' . $this->_stmts[$handle] . ' parameter markers but received ' . count($params) . ' parameters.', '', $query);
+    }
+    $result = pg_execute($this->_db, $handle, $params) or $this->throw_error(WC_ERROR_DB_QRY, "PostgreSQL - " . pg_last_error($this->_db), 0, $query);
+
+    if (pg_num_fields($result) == 0) {
+      return (int)pg_affected_rows($result);
+    }
+    return $result;
+  }
+
+  /**
+   * Load a file of rows into a table with COPY FROM STDIN.
+   * Rows are sent to the server a line at a time so the file is never held in memory.
+   * Rows are one per line with tab seperated values, backslash escapes and \N for null.
+   *
+   * @param string $table - a checked table name
+   * @param string $columns - checked comma seperated column names. Empty for every column
+   * @param string $file - path to the uploaded rows
+   * @return the number of rows loaded
+   */
+  function bulk_load($table, $columns, $file) {
+    $copy = 'COPY ' . $table . ($columns != '' ? ' (' . $columns . ')' : '') . ' FROM STDIN;';
+    $handle = fopen($file, 'rb') or $this->throw_error(WC_ERROR_DB_QRY, 'Unable to read the bulk load rows.', 0, $copy);
+
+    $this->query($copy);
+    $rows = 0;
+    while (($line = fgets($handle)) !== false) {
+      if (substr($line, -1) != "\n") {
+        $line .= "\n";
+      }
+      pg_put_line($this->_db, $line);
+      $rows++;
+    }
+    fclose($handle);
+
+    pg_put_line($this->_db, "\\.\n");
+    pg_end_copy($this->_db) or $this->throw_error(WC_ERROR_DB_QRY, "PostgreSQL - " . pg_last_error($this->_db), 0, $copy);
+    return $rows;
+  }
+
+  /**
+   * Stream the rows of a single SELECT straight to the output.
+   * pg_query always reads the whole resultset into memory, so the rows
+   * are fetched from a cursor, WC_EXPORT_FETCH at a time.
+   * The cursor needs a transaction. An open one (from the pipeline) is used as is
+   * and left open, so BEGIN and COMMIT never commit work the JDBC side hasn't.
+   *
+   * @param mixed $query - a single SELECT
+   * @param bool $csv - true for csv, false for the COPY text format
+   */
+  function export($query, $csv) {
+    $ownTransaction = !$this->in_transaction();
+    if ($ownTransaction) {
+      $this->query('BEGIN;');
+    }
+    $this->query('DECLARE wc_export NO SCROLL CURSOR FOR ' . rtrim(trim($query), "; \t\r\n") . ';');
+
+    wc_stream_start(true);
+    wc_stream_write(WC_EXPORT_MAGIC . "\n");
+    do {
+      $result = $this->query('FETCH ' . WC_EXPORT_FETCH . ' FROM wc_export;');
+      $fetched = pg_num_rows($result);
+      while ($row = pg_fetch_row($result)) {
+        wc_stream_write(WcApiCore::wcExportRow($row, $csv));
+      }
+      pg_free_result($result);
+    } while ($fetched == WC_EXPORT_FETCH);
+    $this->query('CLOSE wc_export;');
+    if ($ownTransaction) {
+      $this->query('COMMIT;');
+    }
+
+    wc_stream_write(WC_EXPORT_END . "\n");
+    wc_stream_end();
+  }
+
   /**
    * Execute a query that expects to return a resultset.
    *
@@ -141,6 +288,16 @@ class DbPostgre extends DbCore{
     return pg_fetch_array($query, null, PGSQL_ASSOC);
   }
 
+  /**
+   * Fetch the current resultset row as a numeric array
+   *
+   * @param mixed $query
+   * @return a resultset row as a numeric array
+   */
+  function fetch_row($query) {
+    return pg_fetch_row($query);
+  }
+
   /**
    * Get the result of a simple query. Only 1 value from a resultset row is returned
    * or NULL if the "$row, $field" are not valid indices.
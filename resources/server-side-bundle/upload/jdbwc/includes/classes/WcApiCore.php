@@ -32,7 +32,7 @@ final class WcApiCore{
    */
   static function wcLogExceptions(Exception $e){
     LogWriter::write($e->getMessage() .' in ' . $e->getFile() . ' on line ' . $e->getLine(), WC_EX_STR . $e->getCode());
-    echo WC_ERROR . WC_EX_STR . $e->getCode() . ' - ' . $e->getMessage() .' in ' . $e->getFile() . ' on line ' . $e->getLine();
+    self::wcRelay(WC_ERROR . WC_EX_STR . $e->getCode() . ' - ' . $e->getMessage() .' in ' . $e->getFile() . ' on line ' . $e->getLine());
     WcApiCore::wcKillConnection();
   }
 
@@ -51,20 +51,20 @@ final class WcApiCore{
       case E_USER_ERROR:
         $message = WC_ERROR . "$errstr\n\tFatal error on line $errline in file $errfile\nAborting...";
         LogWriter::write($message, 'PHP E_USER_ERROR: '.$errno);
-        echo "$message\n";
+        self::wcRelay("$message\n");
         WcApiCore::wcKillConnection();
         break;
 
       case E_USER_WARNING:
         $message = WC_ERROR . $errstr;
         LogWriter::write($message, 'PHP E_USER_WARNING: '.$errno);
-        echo "$message\n";
+        self::wcRelay("$message\n");
         break;
 
       case E_USER_NOTICE:
         $message = WC_ERROR . $errstr;
         LogWriter::write($message, 'PHP E_USER_NOTICE: '.$errno);
-        echo "$message\n";
+        self::wcRelay("$message\n");
         break;
 
       case E_NOTICE:
@@ -77,7 +77,7 @@ final class WcApiCore{
       default:
         $message = WC_ERROR . $errstr;
         LogWriter::write($message, 'PHP Unknown error: '.$errno);
-        echo "$message\n";
+        self::wcRelay("$message\n");
         break;
     }
 
@@ -95,6 +95,11 @@ final class WcApiCore{
    * @param int $db_error_code [optional] For database error codes
    */
   static function wcCustomHandler($errno, $errstr, $db_error_code=0){
+    if ($errno == WC_ERROR_DB_QRY && ($reason = self::wcQueryCancelled()) !== false) {
+      $errno = WC_ERROR_CANCEL;
+      $db_error_code = $reason;
+    }
+
     switch ($errno) {
       case WC_ERROR_HACK:
         $message = WC_ERROR . WC_ERROR_HACK_STR.$errno . ' - '.$errstr;
@@ -126,6 +131,11 @@ final class WcApiCore{
         LogWriter::write(WC_ERROR . $errstr, WC_ERROR_SESS_STR.$errno);
         break;
 
+      case WC_ERROR_CANCEL:
+        $message = WC_ERROR . WC_ERROR_CANCEL_STR.$db_error_code . ' - '.$errstr;
+        LogWriter::write(WC_ERROR . $errstr, WC_ERROR_CANCEL_STR.$db_error_code);
+        break;
+
 
       default:
         $message = WC_ERROR . WC_ERROR_UNKNOWN_STR.$errno . ' - '.$errstr;
@@ -133,10 +143,100 @@ final class WcApiCore{
         break;
     }
     //close sessions & bail out. Avoids retaining old session data
-    echo("$message\n");//relay the error back to the JDBC side
+    self::wcRelay("$message\n");//relay the error back to the JDBC side
+    if ($errno == WC_ERROR_CANCEL) {
+      //the JDBC side asked for this one, the session is still good
+      WcApiCore::wcCleanUp();
+      exit(0);
+    }
     WcApiCore::wcKillConnection();
   }
 
+  /**
+   * Record the database thread running this request so kill_query can stop it.
+   * Registrations are files in WC_FILE_SESSIONS holding the thread id, database and user.
+   * They are removed when the request ends.
+   *
+   * @param string $queryId - checked id from the JDBC side
+   */
+  static function wcRegisterQuery($queryId) {
+    global $dbHandler, $wc_queryFile;
+
+    $wc_queryFile = WC_FILE_SESSIONS . '/' . WC_QUERY_FILE . $queryId;
+    if (@file_put_contents($wc_queryFile, $dbHandler->thread_id() . '|' . WC_DB . '|' . WC_DB_USERNAME) === false) {
+      $wc_queryFile = null;
+      return;
+    }
+    register_shutdown_function(array('WcApiCore', 'wcUnregisterQuery'));
+  }
+
+  /**
+   * Remove this requests query registration. Must run before the database connection closes
+   * so a killer can't reach a thread id that has been handed to someone else.
+   */
+  static function wcUnregisterQuery() {
+    global $wc_queryFile;
+
+    if (isset($wc_queryFile)) {
+      @unlink($wc_queryFile . '.kill');
+      @unlink($wc_queryFile);
+      $wc_queryFile = null;
+    }
+  }
+
+  /**
+   * Stop the query running for another request.
+   * Only queries on the same database, run by the same database user, can be stopped.
+   *
+   * @param string $queryId - checked id of the request to stop
+   * @param string $reason - timeout or cancel
+   * @return true if a running query was found and stopped.
+   */
+  static function wcKillQuery($queryId, $reason) {
+    global $dbHandler;
+
+    $file = WC_FILE_SESSIONS . '/' . WC_QUERY_FILE . $queryId;
+    $entry = @file_get_contents($file);
+    if ($entry === false) {
+      return false;
+    }
+    $entry = explode('|', $entry, 3);
+    if (count($entry) != 3 || $entry[1] !== WC_DB || $entry[2] !== WC_DB_USERNAME) {
+      return false;
+    }
+
+    // tells the killed request its error was asked for
+    @file_put_contents($file . '.kill', $reason);
+    return $dbHandler->kill_query((int)$entry[0]);
+  }
+
+  /**
+   * @return why this requests query was killed, or false if it wasn't.
+   */
+  private static function wcQueryCancelled() {
+    global $wc_queryFile;
+
+    if (!isset($wc_queryFile) || !file_exists($wc_queryFile . '.kill')) {
+      return false;
+    }
+    return @file_get_contents($wc_queryFile . '.kill') == 'timeout' ? 'timeout' : 'cancel';
+  }
+
+  /**
+   * Relay a message back to the JDBC side.
+   * Once an export is streaming, rows have already been sent,
+   * so the message is marked with WC_STREAM_ERROR to tell it apart from a row.
+   * Streamed resultsets need no mark, a message can't be mistaken for a binary frame.
+   *
+   * @param string $message
+   */
+  static function wcRelay($message) {
+    if (defined('WC_STREAM_EXPORT')) {
+      echo WC_STREAM_ERROR;
+    }
+    echo $message;
+  }
+
   /**
    *
    * @param string $userName - value should be verified first
@@ -205,16 +305,84 @@ final class WcApiCore{
     return null;
   }
 
+  /**
+   * Configs written before stateless tokens existed don't define WC_TOKEN_SECRET.
+   *
+   * @return boolean. true if a token secret is set and stateless requests are allowed.
+   */
+  static function wcStatelessConfigured() {
+    return defined('WC_TOKEN_SECRET') && is_string(WC_TOKEN_SECRET) && WC_TOKEN_SECRET != '';
+  }
+
+  /**
+   * @return int seconds a stateless token lasts. An hour if the config doesn't set $WC_TOKEN_LIFE.
+   */
+  static function wcTokenLife() {
+    global $WC_TOKEN_LIFE;
+
+    return (isset($WC_TOKEN_LIFE) && (int)$WC_TOKEN_LIFE > 0) ? (int)$WC_TOKEN_LIFE : 3600;
+  }
+
+  /**
+   * Sign a stateless token for the logged in user.
+   * The token is the expiry time and an HMAC over the user and expiry.
+   * It stands in for the login only. Each request still picks its database
+   * with its own credentials (see wcFindDataBase()), as session requests do,
+   * so a connection can change databases without a new token.
+   *
+   * @return string token
+   */
+  static function wcIssueToken() {
+    $expires = time() + self::wcTokenLife();
+    return $expires . '-' . self::wcSignToken($expires);
+  }
+
+  /**
+   * Check a stateless token was signed by this gateway and hasn't expired.
+   *
+   * @param string $token - from the JDBC side, unchecked
+   * @return boolean. true if the token is good.
+   */
+  static function wcVerifyToken($token) {
+    if (!self::wcStatelessConfigured() || !preg_match('/^([0-9]{1,12})-([0-9a-f]{64})$/', $token, $parts)) {
+      return false;
+    }
+    if ((int)$parts[1] < time()) {
+      return false;
+    }
+
+    //compare every character so the time taken doesn't give the signature away
+    $expected = self::wcSignToken($parts[1]);
+    $diff = 0;
+    for ($i = 0; $i < 64; $i++) {
+      $diff |= ord($expected[$i]) ^ ord($parts[2][$i]);
+    }
+    return $diff === 0;
+  }
+
+  /**
+   * @param string $expires
+   * @return string hex HMAC for a stateless token
+   */
+  static function wcSignToken($expires) {
+    return hash_hmac('sha256', WC_USER . '|' . $expires, WC_TOKEN_SECRET);
+  }
+
   /**
    * Terminate the current session and any handles relating to it.
+   * Stateless requests have no session to end.
+   * A streaming request has already closed its session (see wc_stream_start()), so it's left as is.
    */
   static function wcKillConnection() {
     global $dbHandler;
 
-    //log session ends
-    LogWriter::write(session_name() . '=' . session_id(), 'SESSION ENDED');
-    session_destroy();
+    if (session_id() != '' && !defined('WC_STREAMING')) {
+      //log session ends
+      LogWriter::write(session_name() . '=' . session_id(), 'SESSION ENDED');
+      session_destroy();
+    }
 
+    self::wcUnregisterQuery();
     if(isset($dbHandler)) $dbHandler->close();
     exit(0);
   }
@@ -225,7 +393,10 @@ final class WcApiCore{
   static function wcCleanUp() {
     global $dbHandler;
 
-    session_write_close();
+    if (session_id() != '' && !defined('WC_STREAMING')) {
+      session_write_close();
+    }
+    self::wcUnregisterQuery();
     if(isset($dbHandler)) $dbHandler->close();
   }
 
@@ -278,9 +449,12 @@ final class WcApiCore{
    *
    * @param mixed $sqlQuery
    * @param mixed $cvsRowCnt
-   * @return An SQL query as a .csv String
+   * @param bool $withMeta - [optional] false to send an empty metadata table
+   * @param int $maxRows - [optional] stop fetching after this many rows. 0 (zero) for all rows
+   * @param bool $stream - [optional] true to write each row to the streamed output as it's fetched
+   * @return An SQL query as a .csv String. An empty string when streaming
    */
-  static function wcBuildCSV($sqlQuery, $cvsRowCnt) {
+  static function wcBuildCSV($sqlQuery, $cvsRowCnt, $withMeta = true, $maxRows = 0, $stream = false) {
     global $dbHandler, $dbType;
 
     $csvString = "";
@@ -288,10 +462,11 @@ final class WcApiCore{
     $headerRow = "";
     $dataRows = "";
     $colCnt = 0;
+    $rowCnt = 0;
 
     /* data */
     $headerRow = WC_DATA . WC_EOL;
-    while ($sqlResults = $dbHandler->fetch_array($sqlQuery)) {
+    while (($maxRows < 1 || $rowCnt++ < $maxRows) && $sqlResults = $dbHandler->fetch_array($sqlQuery)) {
       $colIdx = 0;
       if ($headersSet===false) {
         $colCnt = count($sqlResults);
@@ -301,21 +476,29 @@ final class WcApiCore{
           $colIdx++;
         }
         $headersSet = true;
+        if ($stream) {
+          wc_stream_write($headerRow);
+          $headerRow = "";
+        }
       } else {
         foreach ($sqlResults as $key => $val) {
           $dataRows .= self::wcFinaliseVal($val) . ($colIdx < $colCnt - 1 ? "," : WC_EOL);
           $colIdx++;
         }
       }
+      if ($stream) {
+        wc_stream_write($dataRows);
+        $dataRows = "";
+      }
     }
-    $csvString = $headerRow . $dataRows . WC_EOF;
+    $csvString = self::wcEmit($headerRow . $dataRows . WC_EOF, $stream);
 
   	/* metadata */
     $headerRow = WC_META . WC_EOL;
     $dataRows = "";
     $colCnt = ($dbType <= 1 && !class_exists('mysqli')) ? 13 : 11;
     $headersSet = false;
-    while ($metaInfo = $dbHandler->fetch_fields($sqlQuery)) {
+    while ($withMeta && $metaInfo = $dbHandler->fetch_fields($sqlQuery)) {
       $colIdx = 0;
       if ($headersSet===false) {
         foreach ($metaInfo as $key => $val) {
@@ -347,13 +530,173 @@ final class WcApiCore{
        ==========================================
        */
     }
-    $csvString .= $headerRow . $dataRows . WC_EOF;
+    $csvString .= self::wcEmit($headerRow . $dataRows . WC_EOF, $stream);
 
     $dbHandler->free_result($sqlQuery);
 
     return $csvString;
   }
 
+  /**
+   * Binary equivalent of wcBuildCSV.
+   * Every value is length prefixed and NULLs are flagged in a per row bitmap
+   * so nothing needs escaping on this side or unescaping on the JDBC side.
+   * See com.jdbwc.core.util.BinaryFrameReader for the layout.
+   *
+   * @param mixed $sqlQuery
+   * @param bool $withMeta - [optional] false to leave out the metadata table
+   * @param int $maxRows - [optional] stop fetching after this many rows. 0 (zero) for all rows
+   * @param bool $stream - [optional] true to write each frame to the streamed output as it's built
+   * @return A data table and a metadata table (if the db supplies one) as a binary string. An empty string when streaming
+   */
+  static function wcBuildBinary($sqlQuery, $withMeta = true, $maxRows = 0, $stream = false) {
+    global $dbHandler;
+
+    /* data */
+    $frames = '';
+    $colCnt = -1;
+    $rowCnt = 0;
+    while (($maxRows < 1 || $rowCnt++ < $maxRows) && $sqlResults = $dbHandler->fetch_array($sqlQuery)) {
+      if ($colCnt < 0) {
+        $colCnt = count($sqlResults);
+        $frames .= self::wcEmit(self::wcBinaryHeader(WC_BIN_TABLE, array_keys($sqlResults)), $stream);
+      }
+      $frames .= self::wcEmit(self::wcBinaryRow($sqlResults, $colCnt), $stream);
+    }
+    if ($colCnt < 0) {
+      $frames .= self::wcEmit(self::wcBinaryHeader(WC_BIN_TABLE, array()), $stream);
+    }
+
+    /* metadata */
+    $colCnt = -1;
+    while ($withMeta && $metaInfo = $dbHandler->fetch_fields($sqlQuery)) {
+      if (is_object($metaInfo)) {
+        $metaInfo = get_object_vars($metaInfo);
+      }
+      if ($colCnt < 0) {
+        $colCnt = count($metaInfo);
+        $frames .= self::wcEmit(self::wcBinaryHeader(WC_BIN_META, array_keys($metaInfo)), $stream);
+      }
+      $frames .= self::wcEmit(self::wcBinaryRow($metaInfo, $colCnt), $stream);
+    }
+
+    $dbHandler->free_result($sqlQuery);
+
+    return $frames;
+  }
+
+  /**
+   * Result builder output.
+   *
+   * @param string $data
+   * @param bool $stream - true to write $data to the streamed output
+   * @return $data, or an empty string once it's been streamed
+   */
+  private static function wcEmit($data, $stream) {
+    if ($stream) {
+      wc_stream_write($data);
+      return '';
+    }
+    return $data;
+  }
+
+  /**
+   * An export row as one line of text.
+   * The text format is PostgreSQL's COPY text format: tab seperated,
+   * \N for null and backslash escapes for backslash, tab, newline and carriage return.
+   * The csv format quotes values holding a comma, double quote or line break,
+   * or starting with a backslash. Null is left empty and an empty string is sent as "".
+   *
+   * @param array $row - a numeric resultset row
+   * @param bool $csv - true for csv, false for text
+   * @return string
+   */
+  static function wcExportRow($row, $csv) {
+    $line = '';
+    $colIdx = 0;
+    foreach ($row as $val) {
+      if ($colIdx++ > 0) {
+        $line .= $csv ? ',' : "\t";
+      }
+      if ($val === null) {
+        $line .= $csv ? '' : '\\N';
+      } elseif ($csv) {
+        $val = (string)$val;
+        if ($val === '' || $val[0] == '\\' || strpbrk($val, ",\"\r\n") !== false) {
+          $val = '"' . str_replace('"', '""', $val) . '"';
+        }
+        $line .= $val;
+      } else {
+        $line .= strtr((string)$val, array('\\' => '\\\\', "\t" => '\\t', "\n" => '\\n', "\r" => '\\r'));
+      }
+    }
+    return $line . "\n";
+  }
+
+  /**
+   * A binary table header. Holds the column count and column labels.
+   *
+   * @param string $tag - WC_BIN_TABLE or WC_BIN_META
+   * @param array $labels
+   * @return string
+   */
+  private static function wcBinaryHeader($tag, $labels) {
+    $header = $tag . self::wcBinaryLength(count($labels));
+    foreach ($labels as $label) {
+      $header .= self::wcBinaryValue($label);
+    }
+    return $header;
+  }
+
+  /**
+   * A binary row. A null bitmap followed by each non null value.
+   *
+   * @param array $row
+   * @param int $colCnt
+   * @return string
+   */
+  private static function wcBinaryRow($row, $colCnt) {
+    $bitmap = array_fill(0, ($colCnt + 7) >> 3, 0);
+    $values = '';
+    $colIdx = 0;
+    foreach ($row as $val) {
+      if ($val === null) {
+        $bitmap[$colIdx >> 3] |= 1 << ($colIdx & 7);
+      } else {
+        $values .= self::wcBinaryValue($val);
+      }
+      $colIdx++;
+    }
+
+    $bits = '';
+    foreach ($bitmap as $byte) {
+      $bits .= chr($byte);
+    }
+    return WC_BIN_ROW . $bits . $values;
+  }
+
+  /**
+   * A length prefixed value.
+   * Uses the same utf8_encode as the .csv format so both formats return identical strings.
+   *
+   * @param mixed $value
+   * @return string
+   */
+  private static function wcBinaryValue($value) {
+    $value = utf8_encode((string)$value);
+    return self::wcBinaryLength(strlen($value)) . $value;
+  }
+
+  /**
+   * 1 byte for lengths up to 254, otherwise 0xFF followed by a 4 byte big-endian length.
+   *
+   * @param int $len
+   * @return string
+   */
+  private static function wcBinaryLength($len) {
+    return ($len < 255) ? chr($len) : chr(255) . pack('N', $len);
+  }
+
   /**
    * == evaluates spaces and null's as true.<br />
    * === only evaluates null's as true.<br />
@@ -27,6 +27,12 @@ define('WC_PASS', 'xxxxxxxxxxxxxx');
 define('WC_WSITE_DIR', '/'); // absolute public web path (without domain part) with trailing /
 define('WC_STORE_SESSIONS', 'files'); //'files' or 'sqlite' (please make sure the one you use is a registered save handler in phpinfo())
 
+/* Stateless connections (the JDBC "stateless" property) get a signed token
+* instead of a session, so their requests don't wait on each other for the session lock.
+* Set this to a long random string to allow them. Leave it empty to turn them off.
+*/
+define('WC_TOKEN_SECRET', '');
+
 /* This affects JDBC date handling.
 * To set your timezone use an entry from the following chart:
 * http://php.net/manual/en/timezones.php
@@ -44,6 +50,7 @@ define('WC_FILE_SESSIONS', realpath('./includes/sessions')); // absolute file pa
 
 $WC_SESS_LIMIT=0; //(int)max sessions. 0 to remove limits
 $WC_SESS_LIFE=14400;//(int)in seconds
+$WC_TOKEN_LIFE=3600;//(int)seconds a stateless token is valid for
 
 
 
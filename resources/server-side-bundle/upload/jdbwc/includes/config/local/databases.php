@@ -41,6 +41,12 @@ if(!defined('WC_INDEX')){
 
 define('WC_DB_SERVER', 'localhost'); // usually localhost
 
+/* true to reuse database connections between requests (mysqli and pgsql only).
+ * Saves a database connect and login on every request.
+ * Each request still starts with a clean database session.
+ */
+define('WC_DB_PERSISTENT', false);
+
 $database_array = array();
 
 $database_array[] = array('wc_database' => 'xxxxxxxxxxxxxx',
@@ -26,12 +26,17 @@ ob_start("wc_compress_output");
  * @return string - the contents from the servers output buffer.
  */
 function wc_compress_output($buffer) {
+  // streamed output sets its own headers, see wc_stream_start()
+  if(defined('WC_STREAMING')){
+    return $buffer;
+  }
+
   $power = 'JDBWC';//header tracking
   $buffer = trim($buffer);
 
   $compress_me = FALSE;
 
-  if(extension_loaded('zlib') && (!ini_get('zlib.output_compression') || strtolower(ini_get('zlib.output_compression'))=='off') && ini_get('output_handler') != 'ob_gzhandler'){
+  if(wc_compression_allowed()){
     if(find_match(getenv("HTTP_ACCEPT_ENCODING"), 'gzip') || find_match(getenv("HTTP_ACCEPT_ENCODING"), 'x-gzip')){
       $buffer = gzencode($buffer, 3, FORCE_GZIP);
       $compress_me = 'gzip';
@@ -56,6 +61,121 @@ function wc_compress_output($buffer) {
   return $buffer;
 }
 
+/**
+ * Switch to streamed output for responses too large to buffer.
+ * Anything already buffered is sent first (leading whitespace trimmed as usual),
+ * then wc_stream_write() sends the output every WC_STREAM_CHUNK bytes.
+ * Streamed output has no Content-Length so the web server sends it chunked.
+ * Output can't be trimmed once streaming starts.
+ * The session is closed first, so session state must be written before calling this.
+ *
+ * Each chunk is compressed as it goes through one deflate context (deflate_init, PHP 7+)
+ * when the client accepts gzip or deflate. Older PHP versions use ob_gzhandler.
+ *
+ * @param bool $export - [optional] true for an export stream.
+ * Server messages sent after the first row are then marked with WC_STREAM_ERROR.
+ */
+function wc_stream_start($export = false) {
+  if(defined('WC_STREAMING')){
+    return;
+  }
+  define('WC_STREAMING', true);
+  if($export){
+    define('WC_STREAM_EXPORT', true);
+  }
+
+  // The session is saved before the first row goes out. Holding its lock while the
+  // JDBC side reads the rows would block that sessions next request until this one ends.
+  // Session changes made after this point are not saved.
+  if(session_id() != ''){
+    session_write_close();
+  }
+
+  $buffered = ob_get_clean();
+
+  header('X-Powered-By: JDBWC');
+  header('Content-Type: text/html; charset=utf-8');
+  // stops proxies such as nginx holding the stream back until it ends
+  header('X-Accel-Buffering: no');
+
+  $encoding = wc_compression_allowed() ? wc_accepted_encoding() : false;
+  if($encoding!==false && function_exists('deflate_init')){
+    header('Vary: Accept-Encoding', TRUE);
+    header('Content-Encoding: ' . $encoding, TRUE);
+    ob_start('wc_stream_compress');
+  }elseif($encoding!==false){
+    ob_start('ob_gzhandler');
+  }else{
+    ob_start();
+  }
+
+  if($buffered!==false){
+    echo ltrim($buffered);
+  }
+}
+
+/**
+ * Add to a streamed response.
+ * The output is sent once WC_STREAM_CHUNK bytes are waiting.
+ *
+ * @param string $data
+ */
+function wc_stream_write($data) {
+  echo $data;
+  if(ob_get_length() >= WC_STREAM_CHUNK){
+    ob_flush();
+    flush();
+  }
+}
+
+/**
+ * Send whatever is waiting in a streamed response.
+ * The stream stays open so anything echo'd afterwards is still compressed,
+ * it's finished when the script ends.
+ */
+function wc_stream_end() {
+  ob_flush();
+  flush();
+}
+
+/**
+ * Callback function for ob_start() while streaming.
+ * Every chunk is sync flushed so the client can read it as soon as it arrives.
+ *
+ * @param string $buffer - the next chunk of output
+ * @param int $phase - PHP_OUTPUT_HANDLER_* flags
+ * @return string - the compressed chunk
+ */
+function wc_stream_compress($buffer, $phase) {
+  static $context = null;
+
+  if($context===null){
+    $context = deflate_init(wc_accepted_encoding()=='gzip' ? ZLIB_ENCODING_GZIP : ZLIB_ENCODING_DEFLATE, array('level' => 3));
+  }
+  return deflate_add($context, $buffer, ($phase & PHP_OUTPUT_HANDLER_FINAL) ? ZLIB_FINISH : ZLIB_SYNC_FLUSH);
+}
+
+/**
+ * @return string - gzip or deflate, whichever the client accepts (gzip first). false for neither.
+ */
+function wc_accepted_encoding() {
+  $accepted = getenv("HTTP_ACCEPT_ENCODING");
+  if(find_match($accepted, 'gzip') || find_match($accepted, 'x-gzip')){
+    return 'gzip';
+  }
+  if(find_match($accepted, 'deflate')){
+    return 'deflate';
+  }
+  return false;
+}
+
+/**
+ * @return boolean - true if zlib is available and PHP isn't already compressing the output.
+ */
+function wc_compression_allowed() {
+  return extension_loaded('zlib') && (!ini_get('zlib.output_compression') || strtolower(ini_get('zlib.output_compression'))=='off') && ini_get('output_handler') != 'ob_gzhandler';
+}
+
 /**
  * Find a value in a delimited string
  *
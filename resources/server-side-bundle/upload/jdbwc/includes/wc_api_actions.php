@@ -33,8 +33,56 @@ if ($authState==true) {
     $getGeneratedKeys = true;
   }
 
+  /* binary result format. Only used when the JDBC side asks for a version we support */
+  $wireFormat = 0;
+  if (isset($_POST[WC_WIRE]) && (int)$_POST[WC_WIRE] == WC_WIRE_VERSION) {
+    $wireFormat = WC_WIRE_VERSION;
+  }
+
   $sqlString = isset($_POST['sql']) ? $_POST['sql'] : "";
 
+  /* cursor paging. Ids are short alphanumeric strings from the JDBC side */
+  $cursorId = '';
+  if (isset($_POST[WC_CURSOR]) && preg_match('/^[A-Za-z0-9_-]{1,32}$/', $_POST[WC_CURSOR])) {
+    $cursorId = $_POST[WC_CURSOR];
+  }
+  $fetchSize = isset($_POST[WC_FETCH_SIZE]) ? (int)$_POST[WC_FETCH_SIZE] : 0;
+
+  /* prepared statements. Handles are short alphanumeric strings from prepare() */
+  $handle = '';
+  if (isset($_POST[WC_HANDLE]) && preg_match('/^[A-Za-z0-9_-]{1,32}$/', $_POST[WC_HANDLE])) {
+    $handle = $_POST[WC_HANDLE];
+  }
+  $paramTypes = '';
+  if (isset($_POST[WC_PARAM_TYPES]) && preg_match('/^[idsn]*$/', $_POST[WC_PARAM_TYPES])) {
+    $paramTypes = $_POST[WC_PARAM_TYPES];
+  }
+  $paramRows = isset($_POST[WC_ROWS]) ? (int)$_POST[WC_ROWS] : 0;
+  $paramMatrix = isset($_POST[WC_MATRIX]) ? $_POST[WC_MATRIX] : '';
+
+  /* registers this requests database thread so kill_query can stop it. Ids are random strings from the JDBC side */
+  $queryId = '';
+  if (isset($_POST[WC_QUERY_ID]) && preg_match('/^[A-Za-z0-9]{16,40}$/', $_POST[WC_QUERY_ID])) {
+    $queryId = $_POST[WC_QUERY_ID];
+    if (!isset($_POST[WC_ACTION]) || $_POST[WC_ACTION] != 'kill_query') {
+      WcApiCore::wcRegisterQuery($queryId);
+    }
+  }
+
+  /* Statement.setMaxRows(). Rows past the limit are never fetched or sent */
+  $maxRows = isset($_POST[WC_MAX_ROWS]) ? max(0, (int)$_POST[WC_MAX_ROWS]) : 0;
+
+  /* hot queries can skip building the metadata table */
+  $withMeta = true;
+  if (isset($_POST[WC_NO_META]) && $_POST[WC_NO_META] == '1') {
+    $withMeta = false;
+  }
+
+  /* statements queued by the JDBC side run first, in order, on the same database connection as the action */
+  if (isset($_POST[WC_PIPELINE]) && is_array($_POST[WC_PIPELINE])) {
+    header(WC_PIPELINE_HEADER . ': ' . implode(',', $dbHandler->exec_pipeline(array_values($_POST[WC_PIPELINE]))));
+  }
+
   /* Handle setting and getting data to and from database */
   if(isset($_POST[WC_ACTION])){
     switch ($_POST[WC_ACTION]) {
@@ -42,7 +90,8 @@ if ($authState==true) {
        * No resultset will be returned for execute, savepoint or release savepoint */
       case 'query':
         if (!empty($sqlString)) {
-          echo $dbHandler->query($sqlString);
+          $result = $dbHandler->query($sqlString);
+          echo $getRowsAffected ? $dbHandler->affectedRows($result) : $result;
         }
         break;
 
@@ -77,7 +126,65 @@ if ($authState==true) {
         /* this caters for single resultsets */
       case 'resultset':
         if (!empty($sqlString)) {
-          echo $dbHandler->exec_results($sqlString);
+          echo $dbHandler->exec_results($sqlString, $wireFormat, $withMeta, $maxRows);
+        }
+        break;
+
+        /* opens a cursor over a single select and returns the first window of rows */
+      case 'cursor_open':
+        if (!empty($sqlString) && $cursorId != '' && $fetchSize > 0) {
+          echo $dbHandler->cursor_open($cursorId, $sqlString, $fetchSize, $wireFormat, $withMeta, $maxRows);
+        }
+        break;
+
+        /* the next window of rows for an open cursor */
+      case 'cursor_fetch':
+        if ($cursorId != '') {
+          echo $dbHandler->cursor_fetch($cursorId, $wireFormat, $withMeta);
+        }
+        break;
+
+        /* releases a cursor that wasn't read to the end */
+      case 'cursor_close':
+        if ($cursorId != '') {
+          $dbHandler->cursor_close($cursorId);
+        }
+        break;
+
+        /* stores a single statement in the session and returns its handle */
+      case 'prepare':
+        if (!empty($sqlString)) {
+          echo $dbHandler->prepare($sqlString);
+        }
+        break;
+
+        /* runs a stored statement once per parameter row in one transaction */
+      case 'batch_prepared':
+        if ($handle != '' && $paramRows > 0) {
+          echo $dbHandler->execute_prepared_batch($handle, $paramRows, $paramMatrix, $paramTypes);
+        }
+        break;
+
+        /* loads uploaded rows with LOAD DATA LOCAL INFILE (MySQL) or COPY FROM STDIN (PostgreSQL) */
+      case 'bulk_load':
+        $loadTable = isset($_POST[WC_TABLE]) ? $_POST[WC_TABLE] : '';
+        $loadColumns = isset($_POST[WC_COLUMNS]) ? $_POST[WC_COLUMNS] : '';
+        if (!preg_match('/^[A-Za-z_][A-Za-z0-9_$]*(\.[A-Za-z_][A-Za-z0-9_$]*)?$/', $loadTable)
+          || !preg_match('/^([A-Za-z_][A-Za-z0-9_$]*(,[A-Za-z_][A-Za-z0-9_$]*)*)?$/', $loadColumns)) {
+          $dbHandler->throw_error(WC_ERROR_DB_QRY, 'Invalid table or column name for bulk load: ' . $loadTable . ' (' . $loadColumns . ')');
+        }
+        if (!isset($_FILES[WC_LOAD_FILE]) || $_FILES[WC_LOAD_FILE]['error'] != UPLOAD_ERR_OK
+          || !is_uploaded_file($_FILES[WC_LOAD_FILE]['tmp_name'])) {
+          $dbHandler->throw_error(WC_ERROR_DB_QRY, 'Bulk load rows were not received. Upload error: '
+            . (isset($_FILES[WC_LOAD_FILE]) ? $_FILES[WC_LOAD_FILE]['error'] : 'none') . '. Check upload_max_filesize and post_max_size.');
+        }
+        echo $dbHandler->bulk_load($loadTable, $loadColumns, $_FILES[WC_LOAD_FILE]['tmp_name']);
+        break;
+
+        /* streams the rows of a single select as text or csv */
+      case 'export':
+        if (!empty($sqlString)) {
+          $dbHandler->export($sqlString, isset($_POST[WC_EXPORT_FORMAT]) && $_POST[WC_EXPORT_FORMAT] == 'csv');
         }
         break;
 
@@ -88,6 +195,19 @@ if ($authState==true) {
         }
         break;
 
+        /* stops the query running for another request. Sent on a session of its own, which ends here */
+      case 'kill_query':
+        if ($queryId != '') {
+          $killReason = (isset($_POST[WC_KILL_REASON]) && $_POST[WC_KILL_REASON] == 'timeout') ? 'timeout' : 'cancel';
+          echo WcApiCore::wcKillQuery($queryId, $killReason) ? 'true' : 'false';
+        }
+        WcApiCore::wcKillConnection();
+        break;
+
+        /* sends queued statements on their own. They have already run above */
+      case 'pipeline':
+        break;
+
         /* responds to JDBC pings for Connection.isValid() and Connection.isClosed() */
       case 'ping':
         echo 'true';
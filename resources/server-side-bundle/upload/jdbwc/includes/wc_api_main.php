@@ -70,20 +70,29 @@ require_once (WC_PRI_INC . 'classes/LogWriter.php');//events & errors
 require_once (WC_PRI_INC . 'wc_static_vars.php');
 require_once (WC_PRI_INC . 'classes/WcApiCore.php');
 
-register_shutdown_function('session_write_close');
-// session life seems buggy. Ive noticed comments in the php5 docs (user notes) about this as well.
-// its not needed as the server will let the JDBC driver know what its session is anyway.
-//session_set_cookie_params($WC_SESS_LIFE, WC_WSITE_DIR, getenv('HTTP_HOST'), false, true);
-session_name(WC_SESSION);
-if(session_start()){
-  if(!isset($_SESSION['user'])){
-    //archive the logfile if its getting too big
-    if(filesize(WC_LOG) > 10000000){
-      LogWriter::archive();
+/* Stateless requests carry a signed token (or ask for one when logging in) and never start a session.
+ * $_SESSION only lives for the request, so nothing waits on a session lock or session file.
+ */
+$wcStateless = (WcApiCore::wcStatelessConfigured() && (isset($_SERVER[WC_TOKEN_SERVER]) || isset($_POST[WC_TOKEN_REQUEST])));
+if($wcStateless){
+  $_SESSION = array();
+  $_SESSION['DEBUG_MODE'] = false;
+}else{
+  register_shutdown_function('session_write_close');
+  // session life seems buggy. Ive noticed comments in the php5 docs (user notes) about this as well.
+  // its not needed as the server will let the JDBC driver know what its session is anyway.
+  //session_set_cookie_params($WC_SESS_LIFE, WC_WSITE_DIR, getenv('HTTP_HOST'), false, true);
+  session_name(WC_SESSION);
+  if(session_start()){
+    if(!isset($_SESSION['user'])){
+      //archive the logfile if its getting too big
+      if(filesize(WC_LOG) > 10000000){
+        LogWriter::archive();
+      }
+      LogWriter::write(session_name() . '=' . session_id() . ' | Handler=' . WC_STORE_SESSIONS, 'SESSION-STARTED');
+      $_SESSION['DEBUG_MODE'] = (isset($_POST[WC_DEBUG_TAG]) && $_POST[WC_DEBUG_TAG]=='true') ? true:false;
+      if($_SESSION['DEBUG_MODE']===true) $wc_startTime = microtime(true);
     }
-    LogWriter::write(session_name() . '=' . session_id() . ' | Handler=' . WC_STORE_SESSIONS, 'SESSION-STARTED');
-    $_SESSION['DEBUG_MODE'] = (isset($_POST[WC_DEBUG_TAG]) && $_POST[WC_DEBUG_TAG]=='true') ? true:false;
-    if($_SESSION['DEBUG_MODE']===true) $wc_startTime = microtime(true);
   }
 }
 
@@ -115,8 +124,15 @@ if(( function_exists("get_magic_quotes_gpc") && get_magic_quotes_gpc() )
 
 /* Primary PHP authentication.
  * This eliminates the need for apache authentication.
+ * A stateless token stands in for the login on every request after the first.
  */
-if(!isset($_SESSION['user']) || !WcApiCore::verifyUser()){
+if($wcStateless && isset($_SERVER[WC_TOKEN_SERVER])){
+  if(!isset($_POST['auth']) || !WcApiCore::wcVerifyToken($_SERVER[WC_TOKEN_SERVER])){
+    WcApiCore::wcCustomHandler(WC_ERROR_CREDS, 'Invalid or expired stateless token. Reconnect to get a new one.');
+  }
+  //only the login request gets the server versions
+  $_SESSION[WC_AUTH] = $_POST['auth'];
+}elseif(!isset($_SESSION['user']) || !WcApiCore::verifyUser()){
   if(isset($_POST['su']) && isset($_POST['sp']) && preg_match('/[a-z0-9]+/ui', $_POST['su'].$_POST['sp']) && WcApiCore::verifyLogin($_POST['su'], $_POST['sp'])){
     LogWriter::write('Access has been granted for this user. Connection uses '.((getenv('HTTPS')=='on') ? 'SSL':'NONSSL'), 'ACCESS-GRANTED');
   }else{
@@ -157,6 +173,12 @@ if ($requested_database != null && count($requested_database) == 3) {
   if (!isset($_SESSION[WC_AUTH])) {
     $_SESSION[WC_AUTH] = $safe_auth;
 
+    /* a stateless login gets its token in place of a session cookie */
+    if ($wcStateless) {
+      header(WC_TOKEN_HEADER . ': ' . WcApiCore::wcIssueToken());
+      header(WC_TOKEN_LIFE_HEADER . ': ' . WcApiCore::wcTokenLife());
+    }
+
     /* SQLite: LIMIT SESSIONS. Checks once per new session. */
     if (WC_STORE_SESSIONS=='sqlite' && $WC_SESS_LIMIT > 0) {
 
@@ -185,14 +207,14 @@ if ($requested_database != null && count($requested_database) == 3) {
 
     switch ($dbType) {
       case 2: // type 2 is PostgreSQL.
-        $initResult = $dbHandler->query("SELECT textcat(version(), " . "'|PHP-" . phpversion() . "|JDBWC " . WC_VERSION . "|".date_default_timezone_get()."|".getenv('SERVER_PROTOCOL')."|0') as server_versions;");
+        $initResult = $dbHandler->query("SELECT textcat(version(), " . "'|PHP-" . phpversion() . "|JDBWC " . WC_VERSION . "|".date_default_timezone_get()."|".getenv('SERVER_PROTOCOL')."|0|" . WC_WIRE_VERSION . "|" . WC_PIPELINE_VERSION . "|" . ($dbHandler->is_persistent() ? 1:0) . "') as server_versions;");
         LogWriter::write('This user has PostgreSQL as the db type.', 'DB-TYPE');
         break;
 
       case 0:
       case 1: // types "0 & 1 & default" are MySQL".
       default:
-        $initResult = $dbHandler->query("SELECT CONCAT('MySQL-', VERSION(), " . "'|PHP-" . phpversion() . "|JDBWC " . WC_VERSION . "|".date_default_timezone_get()."|".getenv('SERVER_PROTOCOL')."|".(class_exists('mysqli') ? 1:0)."') as server_versions;");
+        $initResult = $dbHandler->query("SELECT CONCAT('MySQL-', VERSION(), " . "'|PHP-" . phpversion() . "|JDBWC " . WC_VERSION . "|".date_default_timezone_get()."|".getenv('SERVER_PROTOCOL')."|".(class_exists('mysqli') ? 1:0)."|".WC_WIRE_VERSION."|".WC_PIPELINE_VERSION."|".($dbHandler->is_persistent() ? 1:0)."') as server_versions;");
         LogWriter::write('This user has MySQL as the db type.', 'DB-TYPE');
         break;
     }
@@ -36,6 +36,7 @@ define('WC_ERROR_CREDS', 3);
 define('WC_ERROR_SESS', 4);
 define('WC_ERROR_DB_CON', 5);
 define('WC_ERROR_DB_QRY', 6);
+define('WC_ERROR_CANCEL', 7);
 //custom error strings (for error handling)
 define('WC_ERROR_HACK_STR', 'ERROR-HACK: ');
 define('WC_ERROR_PATH_STR', 'ERROR-PATH: ');
@@ -43,6 +44,7 @@ define('WC_ERROR_CREDS_STR', 'ERROR-BAD-CREDENTIALS: ');
 define('WC_ERROR_SESS_STR', 'ERROR-SESSION: ');
 define('WC_ERROR_DB_CON_STR', 'ERROR-DB-CONNECTION: ');
 define('WC_ERROR_DB_QRY_STR', 'ERROR-DB-QUERY: ');
+define('WC_ERROR_CANCEL_STR', 'ERROR-CANCELLED: ');
 define('WC_ERROR_UNKNOWN_STR', 'ERROR-Unknown: ');
 define('WC_EX_STR', 'PHP EXCEPTION: ');
 
@@ -73,4 +75,89 @@ define('WC_META', '__JDBWC-METADATA__');
 
 /** data flag */
 define('WC_DATA', '__JDBWC-DATA__');
+
+/** post key requesting the binary result format */
+define('WC_WIRE', 'wire');
+/** binary result format version. Advertised to the JDBC side in the connection handshake */
+define('WC_WIRE_VERSION', 1);
+/** binary stream header */
+define('WC_BIN_MAGIC', 'JDBWC/B1');
+/** binary data table header */
+define('WC_BIN_TABLE', 'T');
+/** binary metadata table header */
+define('WC_BIN_META', 'M');
+/** binary row frame */
+define('WC_BIN_ROW', 'D');
+/** binary end of stream */
+define('WC_BIN_END', 'Z');
+
+/** post key holding a cursor id. Ids are chosen by the JDBC side */
+define('WC_CURSOR', 'cursor');
+/** post key holding the number of rows per cursor window */
+define('WC_FETCH_SIZE', 'fetchSize');
+/** post key asking for results without the metadata table */
+define('WC_NO_META', 'noMeta');
+/** post key holding the most rows a resultset can return. 0 (zero) or missing for no limit */
+define('WC_MAX_ROWS', 'maxRows');
+
+/** pipelining version. Advertised to the JDBC side in the connection handshake */
+define('WC_PIPELINE_VERSION', 1);
+/** post key holding statements queued by the JDBC side, in order. They run before the action */
+define('WC_PIPELINE', 'pipe');
+/** response header holding the rows affected by each pipelined statement, comma seperated */
+define('WC_PIPELINE_HEADER', 'X-JDBWC-Pipeline');
+/** marks the pipelined statement that was running when a request failed. It follows the counts of the statements before it */
+define('WC_PIPELINE_FAILED', 'E');
+
+/** savepoint a prepared batch runs under when a transaction is already open */
+define('WC_BATCH_SAVEPOINT', 'wc_batch');
+
+/** post key holding a prepared statement handle. Handles are chosen by the gateway */
+define('WC_HANDLE', 'handle');
+/** post key holding one type per parameter: i (integer), d (decimal), s (string) or n (null) */
+define('WC_PARAM_TYPES', 'types');
+/** response telling the JDBC side a handle isn't in the session and must be prepared again */
+define('WC_UNPREPARED', '_UNPREPARED__');
+/** prepared statements kept per session. The oldest is dropped to make room */
+define('WC_MAX_PREPARED', 100);
+/** post key holding the number of parameter rows in a prepared batch */
+define('WC_ROWS', 'rows');
+/** post key holding a prepared batches parameters, row by row. Each value is sent as length:value */
+define('WC_MATRIX', 'matrix');
+
+/** post key holding the table for a bulk load */
+define('WC_TABLE', 'table');
+/** post key holding the comma seperated columns for a bulk load. Empty for every column */
+define('WC_COLUMNS', 'columns');
+/** upload holding bulk load rows. One row per line, tab seperated, \N for null */
+define('WC_LOAD_FILE', 'data');
+
+/** post key holding the export format: text (COPY text format) or csv */
+define('WC_EXPORT_FORMAT', 'format');
+/** first line of an export stream */
+define('WC_EXPORT_MAGIC', 'JDBWC/X1');
+/** last line of a complete export stream */
+define('WC_EXPORT_END', '\\.');
+/** starts an error line once an export is streaming. No row can start with it */
+define('WC_STREAM_ERROR', '\\!');
+/** bytes buffered (and compressed) before streamed output is sent */
+define('WC_STREAM_CHUNK', 32768);
+/** rows fetched at a time when a database can't stream a resultset */
+define('WC_EXPORT_FETCH', 1000);
+
+/** post key holding the id the JDBC side gave a request. kill_query uses it to find the requests database thread */
+define('WC_QUERY_ID', 'queryId');
+/** post key holding why kill_query was sent: timeout or cancel */
+define('WC_KILL_REASON', 'killReason');
+/** file name prefix for running query registrations. Stored in WC_FILE_SESSIONS */
+define('WC_QUERY_FILE', 'wcq_');
+
+/** post key on the login request asking for a stateless token instead of a session */
+define('WC_TOKEN_REQUEST', 'stateless');
+/** header holding a stateless token. Sent by the login response and on every request after it */
+define('WC_TOKEN_HEADER', 'X-JDBWC-Token');
+/** WC_TOKEN_HEADER as PHP sees it in $_SERVER */
+define('WC_TOKEN_SERVER', 'HTTP_X_JDBWC_TOKEN');
+/** response header holding the seconds a new stateless token is valid for */
+define('WC_TOKEN_LIFE_HEADER', 'X-JDBWC-Token-Life');
 ?>
\ No newline at end of file
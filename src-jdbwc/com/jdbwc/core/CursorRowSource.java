@@ -0,0 +1,106 @@
+/* ********************************************************************
+ * Copyright (C) 2012 Oz-DevWorX (Tim Gall)
+ * ********************************************************************
+ * This file is part of JDBWC.
+ *
+ * JDBWC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JDBWC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JDBWC.  If not, see <http://www.gnu.org/licenses/>.
+ * ********************************************************************
+ */
+package com.jdbwc.core;
+
+import java.sql.SQLException;
+
+import com.ozdevworx.dtype.DataHandler;
+
+/**
+ * Reads the rows of a server-side cursor one window at a time.<br />
+ * <br />
+ * Each window holds up to fetchSize rows and is read on demand
+ * the same as any other forward-only response.
+ * The next window is only requested once the current one is exhausted.
+ * A window with less than fetchSize rows, or the window reaching maxRows,
+ * is the last one; the server forgets the cursor when it sends it.
+ *
+ * @author Tim Gall
+ * @version 2012-04-09
+ */
+class CursorRowSource implements RowSource {
+
+	private final transient WCStatement myStatement;
+	private final transient WCResultSet myResult;
+	private final transient String myCursorId;
+	private final transient int myFetchSize;
+	private final transient int myMaxRows;
+
+	private transient RowSource myWindow;
+	private transient int myWindowRows = 0;
+	private transient int myRows = 0;
+	private transient boolean isDone = false;
+	private transient boolean isClosed = false;
+
+	/**
+	 * @param statement WCStatement - requests each window.
+	 * @param result WCResultSet - the resultset the rows are for.
+	 * @param cursorId String - the cursors id on the server.
+	 * @param fetchSize int - the number of rows per window.
+	 * @param maxRows int - the most rows the cursor returns. 0 (zero) or less for no limit.
+	 * @param firstWindow RowSource - the window returned when the cursor was opened.
+	 */
+	CursorRowSource(final WCStatement statement, final WCResultSet result, final String cursorId, final int fetchSize, final int maxRows, final RowSource firstWindow){
+		myStatement = statement;
+		myResult = result;
+		myCursorId = cursorId;
+		myFetchSize = fetchSize;
+		myMaxRows = maxRows;
+		myWindow = firstWindow;
+	}
+
+	public DataHandler nextRow() throws SQLException{
+		while(!isDone && myWindow!=null){
+			final DataHandler row = myWindow.nextRow();
+			if(row!=null){
+				myWindowRows++;
+				myRows++;
+				return row;
+			}
+
+			if(myWindowRows < myFetchSize || (myMaxRows > 0 && myRows >= myMaxRows)){
+				//the last window. The server has already closed the cursor
+				isDone = true;
+			}else{
+				myWindowRows = 0;
+				myWindow = myStatement.fetchCursorWindow(myCursorId, myResult);
+			}
+		}
+		isDone = true;
+		return null;
+	}
+
+	public void close(){
+		if(!isClosed){
+			isClosed = true;
+			if(myWindow!=null){
+				myWindow.close();
+			}
+			if(!isDone){
+				isDone = true;
+				try {
+					myStatement.closeCursor(myCursorId);
+				} catch (SQLException e) {
+					// the cursor is dropped with the session anyway
+				}
+			}
+		}
+	}
+}
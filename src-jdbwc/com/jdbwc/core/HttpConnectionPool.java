@@ -0,0 +1,222 @@
+/* ********************************************************************
+ * Copyright (C) 2012 Oz-DevWorX (Tim Gall)
+ * ********************************************************************
+ * This file is part of JDBWC.
+ *
+ * JDBWC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JDBWC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JDBWC.  If not, see <http://www.gnu.org/licenses/>.
+ * ********************************************************************
+ */
+package com.jdbwc.core;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+
+/**
+ * A HTTP connection pool shared by every Connection to the same gateway.<br />
+ * <br />
+ * Pools are keyed on the gateway scheme, host and port, the proxy (if any)
+ * and the SSL verification setting. Keep-alive sockets and SSL sessions
+ * are reused by every Connection holding the pool, so only the first
+ * Connection to a gateway pays for the TCP and SSL handshakes.<br />
+ * <br />
+ * Each Connection keeps its own HttpClient, and so its own cookies,
+ * on top of the shared pool. Server sessions are never shared.<br />
+ * <br />
+ * Pools are reference counted. <code>acquire()</code> adds a reference,
+ * <code>release()</code> drops it and the last release shuts the pool down.
+ * Each reference adds its Connections socket limits to the pool, so a Connection
+ * gets the sockets it asked for however many other Connections share the pool.
+ * The idle timeout of the Connection that creates a pool is used for as long as the pool is open.<br />
+ * <br />
+ * Query kills go out on a few sockets of their own, so <code>cancel()</code>
+ * and query timeouts still reach the server when every pooled socket is busy.
+ *
+ * @author Tim Gall
+ * @version 2012-04-10
+ */
+final class HttpConnectionPool {
+
+	/**
+	 * Builds the scheme registry for a new pool.
+	 * Only called when no pool exists for the key.
+	 */
+	interface SchemeSource {
+		SchemeRegistry getSchemes() throws SQLException;
+	}
+
+	/** Log object for this class. */
+	private static final Log LOG = LogFactory.getLog("jdbwc.core.ConnectionPool");
+
+	/** sockets set aside for query kills */
+	private static final int MY_KILL_SOCKETS = 2;
+
+	/** open pools by key */
+	private static final Map<String, HttpConnectionPool> POOLS = new HashMap<String, HttpConnectionPool>();
+
+	/** closes idle and expired sockets for every pool. Only runs while a pool is open */
+	private static ScheduledExecutorService evictor = null;
+
+	private final transient String myKey;
+	private final transient ThreadSafeClientConnManager myManager;
+	/** sockets for query kills only */
+	private final transient ThreadSafeClientConnManager myKillManager;
+	private final transient ScheduledFuture<?> myEviction;
+	private final transient int myIdleTimeout;
+	/** guarded by POOLS */
+	private transient int myReferences = 0;
+	/** sum of every references limits. guarded by POOLS */
+	private transient int myMaxPerRoute = 0;
+	private transient int myMaxTotal = 0;
+
+	private HttpConnectionPool(final String key, final SchemeRegistry schemes, final int idleTimeout){
+		myKey = key;
+		myManager = new ThreadSafeClientConnManager(schemes);
+		myKillManager = new ThreadSafeClientConnManager(schemes);
+		myKillManager.setMaxTotal(MY_KILL_SOCKETS);
+		myKillManager.setDefaultMaxPerRoute(MY_KILL_SOCKETS);
+		myIdleTimeout = idleTimeout;
+
+		final long period = Math.max(1, idleTimeout / 2);
+		myEviction = getEvictor().scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				myManager.closeExpiredConnections();
+				myManager.closeIdleConnections(idleTimeout, TimeUnit.SECONDS);
+				myKillManager.closeExpiredConnections();
+				myKillManager.closeIdleConnections(idleTimeout, TimeUnit.SECONDS);
+			}
+		}, period, period, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Gets the pool for a gateway, creating it if needed,
+	 * and adds a reference to it. The pool grows by maxPerRoute and maxTotal.
+	 *
+	 * @param key identifies the gateway. See <code>getKey()</code>.
+	 * @param schemes builds the scheme registry if the pool has to be created.
+	 * @param maxPerRoute maximum open sockets to the gateway.
+	 * @param maxTotal maximum open sockets in the pool.
+	 * @param idleTimeout seconds a socket can sit idle before it's closed.
+	 * @return the shared pool. Must be released by the caller, with the same limits.
+	 * @throws SQLException if the scheme registry can't be built.
+	 */
+	static HttpConnectionPool acquire(final String key, final SchemeSource schemes, final int maxPerRoute, final int maxTotal, final int idleTimeout) throws SQLException{
+		synchronized(POOLS){
+			HttpConnectionPool pool = POOLS.get(key);
+			if(pool==null){
+				pool = new HttpConnectionPool(key, schemes.getSchemes(), idleTimeout);
+				POOLS.put(key, pool);
+			}else if(idleTimeout!=pool.myIdleTimeout && LOG.isWarnEnabled()){
+				LOG.warn("The connection pool for " + key + " closes idle sockets after " + pool.myIdleTimeout
+						+ " seconds. The poolIdleTimeout of " + idleTimeout + " is ignored while the pool is open.");
+			}
+			pool.myReferences++;
+			pool.resize(maxPerRoute, Math.max(maxTotal, maxPerRoute));
+			return pool;
+		}
+	}
+
+	/**
+	 * @param scheme gateway scheme
+	 * @param domain gateway host
+	 * @param port gateway port
+	 * @param proxy proxy URL or null
+	 * @param nonVerifiedSSL SSL verification setting
+	 * @return the pool key for a gateway.
+	 */
+	static String getKey(final String scheme, final String domain, final int port, final String proxy, final boolean nonVerifiedSSL){
+		return new StringBuilder()
+			.append(scheme).append("://").append(domain.toLowerCase(Locale.ENGLISH)).append(':').append(port)
+			.append(" via ").append(proxy)
+			.append(nonVerifiedSSL ? " non-verified" : "")
+			.toString();
+	}
+
+	/**
+	 * @return the shared connection manager.
+	 */
+	ClientConnectionManager getManager(){
+		return myManager;
+	}
+
+	/**
+	 * @return the connection manager for query kills.
+	 */
+	ClientConnectionManager getKillManager(){
+		return myKillManager;
+	}
+
+	/**
+	 * Drops a reference and the limits it added. The last release shuts the pool down.
+	 * Each Connection must release a pool once only.
+	 *
+	 * @param maxPerRoute the maxPerRoute given to <code>acquire()</code>.
+	 * @param maxTotal the maxTotal given to <code>acquire()</code>.
+	 */
+	void release(final int maxPerRoute, final int maxTotal){
+		synchronized(POOLS){
+			if(myReferences > 0 && --myReferences==0){
+				POOLS.remove(myKey);
+				myEviction.cancel(false);
+				myManager.shutdown();
+				myKillManager.shutdown();
+
+				if(POOLS.isEmpty() && evictor!=null){
+					evictor.shutdown();
+					evictor = null;
+				}
+			}else if(myReferences > 0){
+				resize(-maxPerRoute, -Math.max(maxTotal, maxPerRoute));
+			}
+		}
+	}
+
+	/**
+	 * Callers hold POOLS.
+	 */
+	private void resize(final int perRoute, final int total){
+		myMaxPerRoute += perRoute;
+		myMaxTotal += total;
+		myManager.setMaxTotal(myMaxTotal);
+		myManager.setDefaultMaxPerRoute(myMaxPerRoute);
+	}
+
+	/**
+	 * Callers hold POOLS.
+	 */
+	private static ScheduledExecutorService getEvictor(){
+		if(evictor==null){
+			evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "jdbwc-pool-evictor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return evictor;
+	}
+}
@@ -19,12 +19,19 @@
  */
 package com.jdbwc.core;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.http.client.methods.HttpPost;
+
+import com.jdbwc.core.util.BinaryFrameReader;
+import com.jdbwc.core.util.ColumnStore;
 import com.jdbwc.core.util.MySQLTypes;
 import com.jdbwc.core.util.SQLField;
+import com.jdbwc.core.util.TextFrameReader;
 import com.jdbwc.util.Util;
 import com.ozdevworx.dtype.DataHandler;
 
@@ -36,6 +43,9 @@ import com.ozdevworx.dtype.DataHandler;
  */
 public class ResultsProcessor {
 
+	private static final String DATA_TAG = "__JDBWC-DATA__";
+	private static final String META_TAG = "__JDBWC-METADATA__";
+
 	public ResultsProcessor(){
 
 	}
@@ -98,9 +108,9 @@ public class ResultsProcessor {
 
 				}else{
 					if(statement==null){
-						results[resNum] = new WCResultSet(connection, statement, "", Util.getCaseSafeHandler(caseSafety));
+						results[resNum] = new WCResultSet(connection, statement, "", new ColumnStore(caseSafety));
 					}else{
-						results[resNum] = new WCResultSet(connection, statement, aQuery, Util.getCaseSafeHandler(caseSafety));
+						results[resNum] = new WCResultSet(connection, statement, aQuery, new ColumnStore(caseSafety));
 					}
 
 					//get data [if any]
@@ -180,7 +190,7 @@ public class ResultsProcessor {
 					if("".equals(aQuery))
 						aQuery = batchQueries[resNum] + ";";
 
-					res = new WCResultSet(connection, statement, aQuery, Util.getCaseSafeHandler(caseSafety));
+					res = new WCResultSet(connection, statement, aQuery, new ColumnStore(caseSafety));
 
 					//get data [if any]
 					if(webResultFiles[fIdx].startsWith("__JDBWC-DATA___EOL__")){
@@ -191,11 +201,9 @@ public class ResultsProcessor {
 
 //					System.err.println("results row size = " + results[rowNum].getFetchSize());
 
-					//get metadata. Only add metadata, not nulls.
-					//Allows DB's that dont produce PHP metadata sets to fetch metadata using backup metadata classes/methods.
-					WCResultSetMetaData metadata = getMetaData(connection, webResultFiles[fIdx+1]);
-					if(metadata!=null){
-						res.addMetaData(getMetaData(connection, webResultFiles[fIdx+1]));
+					//keep the metadata section. It's only decoded if the resultset needs it.
+					if(fIdx+1 < limit){
+						res.setRawMetaData(webResultFiles[fIdx+1]);
 					}
 
 					resultList.add(res);
@@ -208,49 +216,296 @@ public class ResultsProcessor {
 		return resultList.toArray(new WCResultSet[resultList.size()]);
 	}
 
+	/**
+	 * Processes a binary format server response.
+	 * See <code>BinaryFrameReader</code> for details about the format.<br />
+	 * If the server responded with text instead (an older server or a server message)
+	 * the response is checked for errors and handed to <code>processRawResults()</code>.
+	 *
+	 * @param connection WCConnection - parent connection.
+	 * @param statement WCStatement - related to this response.
+	 * @param query String - the query/ies related to this response.
+	 * @param input InputStream - the servers response body.
+	 * @return a WCResultSet[] containing all resultsets from the processed data.
+	 * @throws SQLException - if something goes wrong.
+	 * @throws IOException - if the stream can't be read.
+	 */
+	protected WCResultSet[] processBinaryResults(final WCConnection connection, final WCStatement statement, final String query, final InputStream input) throws SQLException, IOException{
+		final BinaryFrameReader reader = new BinaryFrameReader(input);
+
+		if(!reader.readMagic()){
+			return processTextResults(connection, statement, query, reader.getRemainingStream());
+		}
+
+		final List<WCResultSet> resultList = new ArrayList<WCResultSet>();
+		final String[] batchQueries = query.split(";");
+		final int caseSafety = connection.getCaseSensitivity();
+
+		WCResultSet res = null;
+		WCResultSet metaRes = null;
+		WCResultSet target = null;
+		String[] labels = {};
+		String[] row = {};
+
+		int tag = reader.nextTag();
+		while(tag != BinaryFrameReader.TAG_END){
+			switch(tag){
+			case BinaryFrameReader.TAG_TABLE:
+				addMetaData(res, metaRes);
+				metaRes = null;
+
+				res = new WCResultSet(connection, statement, getQuery(query, batchQueries, resultList.size()), new ColumnStore(caseSafety));
+				resultList.add(res);
+				target = res;
+
+				labels = reader.readHeader();
+				row = new String[labels.length];
+				break;
+
+			case BinaryFrameReader.TAG_META:
+				metaRes = new WCResultSet(connection);
+				target = metaRes;
+
+				labels = reader.readHeader();
+				row = new String[labels.length];
+				break;
+
+			case BinaryFrameReader.TAG_ROW:
+				if(target==null)
+					throw new SQLException("Row received before a table header in the binary result stream.", "08S01");
+
+				reader.readRow(row);
+				target.addRow(labels, row);
+				break;
+
+			default:
+				//a server message interrupted the stream
+				Util.checkForExceptions(reader.readRemainingText());
+				throw new SQLException("Unrecognised data in the binary result stream.", "08S01");
+			}
+			tag = reader.nextTag();
+		}
+		addMetaData(res, metaRes);
+
+		return resultList.toArray(new WCResultSet[resultList.size()]);
+	}
+
+	/**
+	 * Processes a text format server response as it arrives.
+	 * Produces the same resultsets as <code>processRawResults()</code>
+	 * without holding the whole response in memory.
+	 *
+	 * @param connection WCConnection - parent connection.
+	 * @param statement WCStatement - related to this response.
+	 * @param query String - the query/ies related to this response.
+	 * @param input InputStream - the servers response body.
+	 * @return a WCResultSet[] containing all resultsets from the processed data.
+	 * @throws SQLException - if something goes wrong or the server sent an error.
+	 * @throws IOException - if the stream can't be read.
+	 */
+	protected WCResultSet[] processTextResults(final WCConnection connection, final WCStatement statement, final String query, final InputStream input) throws SQLException, IOException{
+		final TextFrameReader reader = new TextFrameReader(input);
+
+		final List<WCResultSet> resultList = new ArrayList<WCResultSet>();
+		final String[] batchQueries = query.split(";");
+		final int caseSafety = connection.getCaseSensitivity();
+
+		WCResultSet res = null;
+
+		while(reader.nextFile()){
+			final String[] tagRow = reader.nextRow();
+			if(tagRow==null)
+				continue;
+
+			final String tag = tagRow[0].trim();
+			if("_".equals(tag)){
+				//empty batch result
+				resultList.add(new WCResultSet(connection));
+				res = null;
+
+			}else if(DATA_TAG.equals(tag)){
+				res = new WCResultSet(connection, statement, getQuery(query, batchQueries, resultList.size()), new ColumnStore(caseSafety));
+				readTable(reader, res);
+				resultList.add(res);
+
+			}else if(META_TAG.equals(tag)){
+				final WCResultSet metaRes = new WCResultSet(connection);
+				readTable(reader, metaRes);
+				addMetaData(res, metaRes);
+				res = null;
+			}
+		}
+
+		return resultList.toArray(new WCResultSet[resultList.size()]);
+	}
+
+	/**
+	 * Starts reading a single resultset from the servers response
+	 * and returns a RowSource that reads the rows on demand.<br />
+	 * Rows are not retained once they've been read, so memory use doesn't grow
+	 * with the size of the result.<br />
+	 * <br />
+	 * The RowSource owns the response until its last row is read
+	 * or it is closed. Any metadata the server sends after the rows is added to result
+	 * once the rows are exhausted. Only the first resultset in the response is read.
+	 *
+	 * @param connection WCConnection - parent connection.
+	 * @param result WCResultSet - the resultset the rows are for.
+	 * @param input InputStream - the servers response body.
+	 * @param pmethod HttpPost - the request for this response. Aborted if the RowSource is closed early.
+	 * @param binary boolean - true if the binary result format was requested.
+	 * @return the rows of the response.
+	 * @throws SQLException - if something goes wrong or the server sent an error.
+	 * @throws IOException - if the stream can't be read.
+	 */
+	protected RowSource openRowSource(final WCConnection connection, final WCResultSet result, final InputStream input, final HttpPost pmethod, final boolean binary) throws SQLException, IOException{
+		StreamedRows rows = null;
+		if(binary){
+			final BinaryFrameReader reader = new BinaryFrameReader(input);
+			if(reader.readMagic()){
+				rows = new BinaryRows(connection, result, reader, input, pmethod);
+			}else{
+				rows = new TextRows(connection, result, new TextFrameReader(reader.getRemainingStream()), input, pmethod);
+			}
+		}else{
+			rows = new TextRows(connection, result, new TextFrameReader(input), input, pmethod);
+		}
+		rows.open();
+
+		return rows;
+	}
+
+	/**
+	 * Reads the rest of the current file into result.
+	 * The first row contains column names.
+	 */
+	private void readTable(final TextFrameReader reader, final WCResultSet result) throws SQLException, IOException{
+		final String[] columns = reader.nextRow();
+		if(columns==null)
+			return;
+
+		for(int j = 0; j < columns.length; j++){
+			columns[j] = columns[j].trim();
+		}
+
+		String[] row;
+		while((row = reader.nextRow()) != null){
+			final int limit = Math.min(row.length, columns.length);
+			for(int j = 0; j < limit; j++){
+				row[j] = Util.csvUnFormat(row[j]);
+			}
+			if(limit > 0){
+				result.addRow(columns, row);
+			}
+		}
+	}
+
+	/**
+	 * @return a row built from column labels and their values.
+	 * Values are stored as given.
+	 */
+	private DataHandler getRow(final String[] labels, final String[] values, final int caseSafety){
+		final DataHandler aResult = Util.getCaseSafeHandler(caseSafety);
+		for(int i = 0; i < labels.length; i++){
+			aResult.addData(labels[i], values[i]);
+		}
+		return aResult;
+	}
+
+	/**
+	 * Find the query that produced a resultset
+	 * for later use with ResultSetMetaData.
+	 *
+	 * @param query the complete query/ies
+	 * @param batchQueries query split into statements
+	 * @param resNum the resultsets position in the response
+	 * @return the statement for resNum
+	 */
+	private String getQuery(final String query, final String[] batchQueries, final int resNum){
+		return (resNum < batchQueries.length) ? batchQueries[resNum] + ";" : query;
+	}
+
+	/**
+	 * Keeps the metadata table with its resultset.
+	 * It's only decoded if the resultset needs it.
+	 */
+	private void addMetaData(final WCResultSet res, final WCResultSet metaRes){
+		if(res!=null && metaRes!=null){
+			res.setRawMetaData(metaRes);
+		}
+	}
+
+	/**
+	 * Decodes metadata kept by a resultset.
+	 * Returns null rather than empty metadata.
+	 * Allows DB's that dont produce PHP metadata sets to fetch metadata using backup metadata classes/methods.
+	 *
+	 * @param connection WCConnection - parent connection.
+	 * @param rawMetaData String - a .csv metadata section or null.
+	 * @param metaRows WCResultSet - a metadata table or null.
+	 * @return WCResultSetMetaData or null if there is no metadata.
+	 * @throws SQLException
+	 */
+	protected WCResultSetMetaData decodeMetaData(final WCConnection connection, final String rawMetaData, final WCResultSet metaRows) throws SQLException{
+		if(rawMetaData!=null){
+			return getMetaData(connection, rawMetaData);
+		}else if(metaRows!=null){
+			return getMetaData(connection, metaRows);
+		}
+		return null;
+	}
+
 	private WCResultSetMetaData getMetaData(final WCConnection connection, String webResultFile) throws SQLException{
 		WCResultSetMetaData metadata = null;
 
-		if(webResultFile.trim().startsWith("__JDBWC-METADATA___EOL__")){
+		webResultFile = webResultFile.trim();
+		if(webResultFile.startsWith("__JDBWC-METADATA___EOL__")){
 			webResultFile = webResultFile.substring("__JDBWC-METADATA___EOL__".length());
 
-			final WCResultSet metaRes = getResult(connection, null, webResultFile, connection.getCaseSensitivity());
-			final SQLField[] metaFields = new SQLField[metaRes.myRows.length()];
-			final int dbtype = connection.getDbType();
-			boolean baseServer = connection.isBaseServer();
-
-			int mrow = 0;
-
-			while(metaRes.next()){
-				switch (dbtype){
-				case Util.ID_POSTGRESQL:
-					//for now Postgres gets its metadata via alternate means
-					//so we return null from this method to trigger
-					//the alternate metadata generation.
-					break;
-
-				case Util.ID_MYSQL:
-				case Util.ID_DEFAULT:
-
-					SQLField field = null;
-					if(baseServer){
-						field = getFromMySql(connection.getCatalog(), metaRes, dbtype);
-					} else {
-						field = getFromMySqli(connection.getCatalog(), metaRes, dbtype);
-					}
+			metadata = getMetaData(connection, getResult(connection, null, webResultFile, connection.getCaseSensitivity()));
+		}
+
+		return metadata;
+	}
+
+	private WCResultSetMetaData getMetaData(final WCConnection connection, final WCResultSet metaRes) throws SQLException{
+		WCResultSetMetaData metadata = null;
+
+		final SQLField[] metaFields = new SQLField[metaRes.myRows.length()];
+		final int dbtype = connection.getDbType();
+		boolean baseServer = connection.isBaseServer();
+
+		int mrow = 0;
 
-					if(field!=null)
-						metaFields[mrow++] = field;
+		while(metaRes.next()){
+			switch (dbtype){
+			case Util.ID_POSTGRESQL:
+				//for now Postgres gets its metadata via alternate means
+				//so we return null from this method to trigger
+				//the alternate metadata generation.
+				break;
 
-					break;
+			case Util.ID_MYSQL:
+			case Util.ID_DEFAULT:
+
+				SQLField field = null;
+				if(baseServer){
+					field = getFromMySql(connection.getCatalog(), metaRes, dbtype);
+				} else {
+					field = getFromMySqli(connection.getCatalog(), metaRes, dbtype);
 				}
-			}
 
-			metaRes.close();
-			if(metaFields.length > 0)
-				metadata = new WCResultSetMetaData(metaFields);
+				if(field!=null)
+					metaFields[mrow++] = field;
+
+				break;
+			}
 		}
 
+		metaRes.close();
+		if(metaFields.length > 0)
+			metadata = new WCResultSetMetaData(metaFields);
+
 		return metadata;
 	}
 
@@ -466,4 +721,197 @@ public class ResultsProcessor {
 			return null;
 		}
 	}
+
+	//----------------------------------------------------------row sources
+
+	/**
+	 * Common handling for rows read on demand from a server response.
+	 * Subclasses read the format specific frames.
+	 */
+	private abstract class StreamedRows implements RowSource {
+
+		protected final WCConnection myConnection;
+		protected final WCResultSet myResult;
+		protected final int myCaseSafety;
+		private final InputStream myInput;
+		private final HttpPost myMethod;
+		private boolean isDone = false;
+		private boolean isClosed = false;
+
+		StreamedRows(final WCConnection connection, final WCResultSet result, final InputStream input, final HttpPost pmethod){
+			myConnection = connection;
+			myResult = result;
+			myCaseSafety = connection.getCaseSensitivity();
+			myInput = input;
+			myMethod = pmethod;
+		}
+
+		/** Reads up to the first row. */
+		abstract void open() throws SQLException, IOException;
+
+		/** @return the next row or null after the last row. */
+		abstract DataHandler readRow() throws SQLException, IOException;
+
+		/** Reads anything sent after the last row, such as metadata. */
+		abstract void readTrailer() throws SQLException, IOException;
+
+		public DataHandler nextRow() throws SQLException{
+			if(isDone)
+				return null;
+
+			DataHandler row = null;
+			try {
+				row = readRow();
+				if(row==null){
+					isDone = true;
+					readTrailer();
+					close();
+				}
+			} catch (SQLException e) {
+				close();
+				throw e;
+			} catch (IOException e) {
+				close();
+				Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+			}
+			return row;
+		}
+
+		public void close(){
+			if(!isClosed){
+				isClosed = true;
+				if(isDone){
+					try {
+						//fully read, so the connection can be reused
+						myInput.close();
+					} catch (IOException e) {
+						myMethod.abort();
+					}
+				}else{
+					isDone = true;
+					myMethod.abort();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rows from a text format response.
+	 */
+	private class TextRows extends StreamedRows {
+
+		private final TextFrameReader myReader;
+		private String[] myColumns = null;
+
+		TextRows(final WCConnection connection, final WCResultSet result, final TextFrameReader reader, final InputStream input, final HttpPost pmethod){
+			super(connection, result, input, pmethod);
+			myReader = reader;
+		}
+
+		void open() throws SQLException, IOException{
+			if(myReader.nextFile()){
+				final String[] tagRow = myReader.nextRow();
+				if(tagRow!=null && DATA_TAG.equals(tagRow[0].trim())){
+					myColumns = myReader.nextRow();
+					if(myColumns!=null){
+						for(int j = 0; j < myColumns.length; j++){
+							myColumns[j] = myColumns[j].trim();
+						}
+					}
+				}
+			}
+		}
+
+		DataHandler readRow() throws SQLException, IOException{
+			if(myColumns==null)
+				return null;
+
+			String[] row;
+			while((row = myReader.nextRow()) != null){
+				final DataHandler aResult = Util.getCaseSafeHandler(myCaseSafety);
+				final int limit = Math.min(row.length, myColumns.length);
+				for(int j = 0; j < limit; j++){
+					aResult.addData(myColumns[j], Util.csvUnFormat(row[j]));
+				}
+				if(!aResult.isEmpty()){
+					return aResult;
+				}
+			}
+			return null;
+		}
+
+		void readTrailer() throws SQLException, IOException{
+			if(myColumns!=null && myReader.nextFile()){
+				final String[] tagRow = myReader.nextRow();
+				if(tagRow!=null && META_TAG.equals(tagRow[0].trim())){
+					final WCResultSet metaRes = new WCResultSet(myConnection);
+					readTable(myReader, metaRes);
+					addMetaData(myResult, metaRes);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rows from a binary format response.
+	 */
+	private class BinaryRows extends StreamedRows {
+
+		private final BinaryFrameReader myReader;
+		private String[] myLabels = null;
+		private String[] myValues = null;
+		private int myLastTag = -1;
+
+		BinaryRows(final WCConnection connection, final WCResultSet result, final BinaryFrameReader reader, final InputStream input, final HttpPost pmethod){
+			super(connection, result, input, pmethod);
+			myReader = reader;
+		}
+
+		void open() throws SQLException, IOException{
+			if(nextTag()==BinaryFrameReader.TAG_TABLE){
+				myLabels = myReader.readHeader();
+				myValues = new String[myLabels.length];
+			}
+		}
+
+		DataHandler readRow() throws SQLException, IOException{
+			if(myLabels==null || nextTag()!=BinaryFrameReader.TAG_ROW)
+				return null;
+
+			myReader.readRow(myValues);
+			return getRow(myLabels, myValues, myCaseSafety);
+		}
+
+		void readTrailer() throws SQLException, IOException{
+			if(myLastTag!=BinaryFrameReader.TAG_META)
+				return;
+
+			final WCResultSet metaRes = new WCResultSet(myConnection);
+			final String[] labels = myReader.readHeader();
+			final String[] values = new String[labels.length];
+			while(nextTag()==BinaryFrameReader.TAG_ROW){
+				myReader.readRow(values);
+				metaRes.addRow(getRow(labels, values, myCaseSafety));
+			}
+			addMetaData(myResult, metaRes);
+		}
+
+		/**
+		 * @return the next frame tag. Server messages are thrown.
+		 */
+		private int nextTag() throws SQLException, IOException{
+			myLastTag = myReader.nextTag();
+			switch(myLastTag){
+			case BinaryFrameReader.TAG_TABLE:
+			case BinaryFrameReader.TAG_META:
+			case BinaryFrameReader.TAG_ROW:
+			case BinaryFrameReader.TAG_END:
+				return myLastTag;
+			default:
+				//a server message interrupted the stream
+				Util.checkForExceptions(myReader.readRemainingText());
+				throw new SQLException("Unrecognised data in the binary result stream.", "08S01");
+			}
+		}
+	}
 }
@@ -0,0 +1,50 @@
+/* ********************************************************************
+ * Copyright (C) 2012 Oz-DevWorX (Tim Gall)
+ * ********************************************************************
+ * This file is part of JDBWC.
+ *
+ * JDBWC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JDBWC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JDBWC.  If not, see <http://www.gnu.org/licenses/>.
+ * ********************************************************************
+ */
+package com.jdbwc.core;
+
+import java.sql.SQLException;
+
+import com.ozdevworx.dtype.DataHandler;
+
+/**
+ * Supplies the rows of a forward-only ResultSet on demand.<br />
+ * <br />
+ * A RowSource owns the server response it reads from.
+ * Rows are handed out one at a time and are not retained
+ * so the ResultSet only holds the current row.
+ *
+ * @author Tim Gall
+ * @version 2012-04-08
+ */
+interface RowSource {
+
+	/**
+	 * @return the next row or null when there are no more rows.
+	 * The response is released once the last row has been read.
+	 * @throws SQLException if the response can't be read or the server sent an error.
+	 */
+	DataHandler nextRow() throws SQLException;
+
+	/**
+	 * Releases the server response.
+	 * Any unread rows are discarded. Safe to call more than once.
+	 */
+	void close();
+}
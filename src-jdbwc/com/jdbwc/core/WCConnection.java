@@ -22,6 +22,7 @@ package com.jdbwc.core;
 import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.sql.Array;
@@ -38,11 +39,26 @@ import java.sql.SQLXML;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -64,19 +80,21 @@ import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.params.ConnManagerPNames;
 import org.apache.http.conn.params.ConnRoutePNames;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.HttpContext;
 
+import com.jdbwc.core.util.BinaryFrameReader;
 import com.jdbwc.exceptions.NotImplemented;
 import com.jdbwc.iface.Connection;
 import com.jdbwc.util.GzipStreamReader;
@@ -119,17 +137,65 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 
     /** default connection timeout value */
 	private static final int MY_TIME_OUT = 60000;//milliseconds
-	private static final long MY_IDLE_CLOSE = 100L;//seconds
+	/** default seconds a pooled socket can sit idle */
+	private static final int MY_IDLE_CLOSE = 100;//seconds
+	/** default pool sizes */
+	private static final int MY_MAX_PER_ROUTE = 10;
+	private static final int MY_MAX_TOTAL = 50;
+	/** default size of each request sent for a batch */
+	private static final int MY_BATCH_BYTES = 1024 * 1024;
+	/** characters in the random part of a query id */
+	private static final int MY_QUERY_ID_LENGTH = 20;
+	private static final String MY_QUERY_ID_CHARS = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+	private static final SecureRandom MY_QUERY_ID_SOURCE = new SecureRandom();
+	/** ms to wait before trying a failed stateless token renewal again */
+	private static final long MY_TOKEN_RETRY = 30000L;
 
 	/** actual connection timeout value. Can be over-ridden by the user in the connection params. Must be > 10ms */
 	private transient int myTimeOut;
 	private transient boolean isReadOnly = false;
+	/** auto-commit as last set or read by this connection. null if not known */
+	private transient volatile Boolean myAutoCommit = null;
+	/** isolation level as last set or read by this connection. -1 if not known */
+	private transient volatile int myIsolation = -1;
+	/** ask the server for session state every time instead of using the values above */
+	private transient boolean verifySession;
 
 	private transient boolean sessLimit = false;
-	private transient boolean connectionClosed = true;
-
+	private transient volatile boolean connectionClosed = true;
+	/** false once a ping fails. Set again by the next request that gets a response */
+	private transient volatile boolean isAlive = true;
+	/** when this connection last got a response from the server, in ms */
+	private transient volatile long myLastContact = 0;
+	/** requests waiting on a response from the server. Nothing needs pinging while any are */
+	private final transient AtomicInteger myRequests = new AtomicInteger();
+	/** true while a keep-alive ping is queued or running */
+	private final transient AtomicBoolean isPinging = new AtomicBoolean(false);
+	/** pings the server when it hasn't been contacted for this many seconds. 0 (zero) for never */
+	private transient int myKeepAlive = 0;
+	private transient ScheduledFuture<?> myKeepAliveTask = null;
+
+	/** ask the server for a stateless token when logging in */
+	private transient boolean useStateless;
+	/** stateless token sent with every request. null while the connection uses a server session */
+	private transient volatile String myToken = null;
+	/** when the token should be replaced, in ms. Guarded by myTokenLock */
+	private transient long myTokenRenewal = 0;
+	private final transient Object myTokenLock = new Object();
+
+	/** runs keep-alive pings for every connection. Created on first use */
+	private static ScheduledExecutorService keepAlives = null;
+
+	/** guards creation of the http client objects. Private to this instance so unrelated connections never contend. */
+	private final transient Object myConnLock = new Object();
+	/** runs the async execute methods of this connections statements. Created on first use, guarded by myConnLock */
+	private transient ThreadPoolExecutor myAsyncRequests = null;
 	private transient HttpClient myClient;
-	private transient ThreadSafeClientConnManager myCMan;
+	/** shared with every Connection to the same gateway. null once released */
+	private transient HttpConnectionPool myPool;
+	private transient int poolMaxPerRoute = MY_MAX_PER_ROUTE;
+	private transient int poolMaxTotal = MY_MAX_TOTAL;
+	private transient int poolIdleTimeout = MY_IDLE_CLOSE;
 	private transient HttpHost host;
 
 	/** full http/s url */
@@ -154,9 +220,26 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 	private transient boolean useDummyUA;
 	private transient boolean useDebug;
 	private transient boolean useProxy;
+	/** run PreparedStatement batches as server-side prepared statements */
+	private transient boolean useServerPrepare;
+	/** send batched single row INSERTs as multi-row INSERTs */
+	private transient boolean useRewriteBatch;
+	private transient int myBatchBytes = MY_BATCH_BYTES;
+	/** queue statements that don't return results until the next request */
+	private transient boolean usePipeline;
+	/** read forward-only SELECTs with a fetch size a window per request */
+	private transient boolean useCursorFetch;
+	/** statements waiting for the next request, in order. Guarded by itself */
+	private final transient List<Pipelined> myPipeline = new ArrayList<Pipelined>();
+	/** server-side prepared statement handles by SQL. Only valid for this connections server session */
+	private final transient Map<String, String> myPreparedHandles = new HashMap<String, String>();
 
 	private transient Map<String, Class<?>> typeMap = new HashMap<String, Class<?>>();
 
+	/** query ids are this connections random prefix and a counter */
+	private final transient String myQueryIdPrefix = newQueryIdPrefix();
+	private final transient AtomicLong myQueryIds = new AtomicLong();
+
 	protected SQLWarning warnings = null;
 
 
@@ -221,6 +304,17 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 	 * @param proxyScheme Proxy protocol scheme. Can be http or https
 	 * @param proxyDomain Proxy domain or IP
 	 * @param proxyPort Proxy port
+	 * @param maxPerRoute Maximum pooled sockets to the server. 0 (zero) for the default.
+	 * @param maxTotal Maximum sockets in the pool. 0 (zero) for the default.
+	 * @param idleTimeout Seconds a pooled socket can sit idle before it's closed. 0 (zero) for the default.
+	 * @param serverPrepare If true, PreparedStatement batches are prepared on the server.
+	 * @param rewriteBatch If true, batched single row INSERTs are sent as multi-row INSERTs.
+	 * @param batchBytes Rough size of each request sent for a batch. 0 (zero) for the default.
+	 * @param pipeline If true, statements that don't return results are sent with the next request.
+	 * @param verifySession If true, session state getters always ask the server.
+	 * @param keepAlive Seconds without contacting the server before a background ping. 0 (zero) for none.
+	 * @param stateless If true, ask the server for a signed token instead of a session.
+	 * @param cursorFetch If true, SELECTs with a fetch size are read a window per request.
 	 * @throws SQLException
 	 */
 	protected WCConnection(
@@ -246,51 +340,78 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 
 			String proxyScheme,
 			String proxyDomain,
-			int proxyPort
+			int proxyPort,
+
+			int maxPerRoute,
+			int maxTotal,
+			int idleTimeout,
+
+			boolean serverPrepare,
+			boolean rewriteBatch,
+			int batchBytes,
+			boolean pipeline,
+			boolean verifySession,
+			int keepAlive,
+			boolean stateless,
+			boolean cursorFetch
 
 			) throws SQLException{
 		super();
 
 		this.myfullJdbcUrl = fullJdbcUrl;
 		this.myUserName = hostUser;
-		synchronized(this.myfullJdbcUrl){
-
-			this.hostScheme = hostScheme;
-			this.hostDomain = hostDomain;// domain part only EG: localhost, example.com, etc.
-			this.hostPort = hostPort;
-			this.hostUrl = hostScheme + "://" + hostDomain + ":" + hostPort + hostPath;
-			this.hostPath = hostPath;
-
-			//stored as random cipher hashes.
-			this.hostUser = com.jdbwc.util.Security.getSecureString(hostUser); // serverside-api username
-			this.hostPass = com.jdbwc.util.Security.getSecureString(hostPass); // serverside-api passsword
-			this.dbCredentials = com.jdbwc.util.Security.getSecureString(dbName + dbUser + dbPass); // database (name + user + password)
-
-			this.myDbType = dbType;
-			this.myCaseSensitivity = (dbType==Util.ID_POSTGRESQL) ? -1 : 0;//lowercase for Postgres
-			this.currentDatabase = dbName;
-			this.databaseUser = dbUser;
-			this.databasePass = dbPass;
-
-			this.useNonVerifiedSSL = nonVerifiedSSL;
-			this.myTimeOut = (timeout==0) ? MY_TIME_OUT : timeout;
-			this.useDebug = debug;
-			this.useDummyUA = dummyUA;
-
-			this.useProxy = (proxyScheme!=null && proxyDomain!=null && proxyPort>0);
-			this.proxyScheme = proxyScheme;
-			this.proxyDomain = proxyDomain;
-			this.proxyPort = proxyPort;
-
-			/*
-			 * prepare sockets, schemes, params and start a new http connection with a manager.
-			 */
-			prepConnection();
 
+		this.hostScheme = hostScheme;
+		this.hostDomain = hostDomain;// domain part only EG: localhost, example.com, etc.
+		this.hostPort = hostPort;
+		this.hostUrl = hostScheme + "://" + hostDomain + ":" + hostPort + hostPath;
+		this.hostPath = hostPath;
+
+		//stored as random cipher hashes.
+		this.hostUser = com.jdbwc.util.Security.getSecureString(hostUser); // serverside-api username
+		this.hostPass = com.jdbwc.util.Security.getSecureString(hostPass); // serverside-api passsword
+		this.dbCredentials = com.jdbwc.util.Security.getSecureString(dbName + dbUser + dbPass); // database (name + user + password)
+
+		this.myDbType = dbType;
+		this.myCaseSensitivity = (dbType==Util.ID_POSTGRESQL) ? -1 : 0;//lowercase for Postgres
+		this.currentDatabase = dbName;
+		this.databaseUser = dbUser;
+		this.databasePass = dbPass;
+
+		this.useNonVerifiedSSL = nonVerifiedSSL;
+		this.myTimeOut = (timeout==0) ? MY_TIME_OUT : timeout;
+		this.useDebug = debug;
+		this.useDummyUA = dummyUA;
+
+		this.useProxy = (proxyScheme!=null && proxyDomain!=null && proxyPort>0);
+		this.proxyScheme = proxyScheme;
+		this.proxyDomain = proxyDomain;
+		this.proxyPort = proxyPort;
+
+		if(maxPerRoute > 0) this.poolMaxPerRoute = maxPerRoute;
+		if(maxTotal > 0) this.poolMaxTotal = maxTotal;
+		if(idleTimeout > 0) this.poolIdleTimeout = idleTimeout;
+
+		this.useServerPrepare = serverPrepare;
+		this.useRewriteBatch = rewriteBatch;
+		if(batchBytes > 0) this.myBatchBytes = batchBytes;
+		this.usePipeline = pipeline;
+		this.verifySession = verifySession;
+		if(keepAlive > 0) this.myKeepAlive = keepAlive;
+		this.useStateless = stateless;
+		this.useCursorFetch = cursorFetch;
+
+		/*
+		 * prepare sockets, schemes, params and start a new http connection with a manager.
+		 */
+		prepConnection();
+
+		try {
 			if(authorise()){
 				/* populate the DB version vars for "versionMeetsMinimum(i,i2,i3)" */
 				getDatabaseInfo();
 
+				startKeepAlive();
 
 			}else{
 				// we should never get to this exception.
@@ -298,6 +419,10 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 						"Connection Failed.",
 						"08004");
 			}
+		} catch (SQLException e) {
+			// this Connection won't be used so it mustn't hold the shared pool open
+			releasePool();
+			throw e;
 		}
 	}
 
@@ -387,9 +512,17 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 	 * @see java.sql.Connection#close()
 	 */
 	public void close() throws SQLException {
+		SQLException pipelineError = null;
+		try {
+			flushPipeline();
+		} catch (SQLException e) {
+			pipelineError = e;
+		}
+
 		final HttpPost pmethod = getHttpPost();
 
 		DataHandler nvpArray = Util.getCaseSafeHandler(Util.CASE_MIXED);
+		nvpArray.addData(Util.TAG_AUTH, dbCredentials);
 		nvpArray.addData(Util.TAG_DBTYPE, myDbType);
 		nvpArray.addData(Util.TAG_ACTION, "cleanup");
 		pmethod.setEntity(Util.prepareForWeb(nvpArray));
@@ -410,10 +543,14 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 			//ignore
 		}finally{
 			pmethod.abort();
-			myCMan.closeIdleConnections(MY_IDLE_CLOSE, TimeUnit.SECONDS);
-			myClient.getConnectionManager().shutdown();
+			stopKeepAlive();
+			stopAsyncRequests();
+			releasePool();
 			connectionClosed = true;
 		}
+		if(pipelineError!=null){
+			throw pipelineError;
+		}
 	}
 
 	/**
@@ -468,6 +605,11 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 	 * @see java.sql.Connection#getAutoCommit()
 	 */
 	public boolean getAutoCommit() throws SQLException {
+		final Boolean known = myAutoCommit;
+		if(known!=null && !verifySession){
+			return known.booleanValue();
+		}
+
 		Statement stmnt = new WCStatement(this, this.currentDatabase);
 		boolean autocommit = true;
 
@@ -492,6 +634,7 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 		results.close();
 		stmnt.close();
 
+		myAutoCommit = Boolean.valueOf(autocommit);
 		return autocommit;
 	}
 
@@ -563,63 +706,59 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 	}
 
 	/**
+	 * Answers from what this connection already knows, the server is not contacted.
+	 * A connection that failed its last ping (see <code>isValid()</code> and the
+	 * <code>keepAliveInterval</code> property) is reported as closed.
+	 *
 	 * @see java.sql.Connection#isClosed()
 	 */
 	public boolean isClosed() throws SQLException {
-		if(!connectionClosed){
-			return !isValid(1000);
-		}
-
-		return connectionClosed;
+		return isClosedLocally();
 	}
 
 	/**
 	 * @see java.sql.Connection#isReadOnly()
 	 */
 	public boolean isReadOnly() throws SQLException {
+		if(verifySession){
+			Statement stmnt = new WCStatement(this, this.currentDatabase);
+
+			java.sql.ResultSet results = null;
+			switch (this.myDbType){
+			case Util.ID_POSTGRESQL:
+				results = stmnt.executeQuery("show default_transaction_read_only;");
+				if(results.next()){
+					this.isReadOnly = "on".equals(results.getString(1));
+				}
+				break;
+
+			case Util.ID_MYSQL:
+			case Util.ID_DEFAULT:
+				results = stmnt.executeQuery("SELECT @@GLOBAL.read_only;");
+				if(results.next()){
+					this.isReadOnly = results.getInt(1)!=0;
+				}
+				break;
+			}
+
+			results.close();
+			stmnt.close();
+		}
 		return this.isReadOnly;
 	}
 
 	/**
+	 * Pings the server. The timeout only applies to the ping,
+	 * this connections own timeout is not changed.
+	 *
+	 * @param timeout seconds to wait for the ping. 0 (zero) to wait as long as the connection timeout.
 	 * @see java.sql.Connection#isValid(int)
 	 */
 	public boolean isValid(int timeout) throws SQLException {
-		boolean isValid = false;
-		setTimeOut(timeout);
-		final HttpPost pmethod = getHttpPost();
-
-		DataHandler nvpArray = Util.getCaseSafeHandler(Util.CASE_MIXED);
-		nvpArray.addData(Util.TAG_AUTH, dbCredentials);
-		nvpArray.addData(Util.TAG_DBTYPE, myDbType);
-		nvpArray.addData(Util.TAG_ACTION, "ping");
-
-		pmethod.setEntity(Util.prepareForWeb(nvpArray));
-
-		try {
-			HttpResponse response = getHttpResponse(pmethod);
-			if (response != null) {
-				final String contents = Util.parseResponse(response);
-
-//				System.out.println("isValid = "+contents);
-
-				isValid = Boolean.parseBoolean(contents);
-			}
-		} catch (ClientProtocolException e) {
-			isValid = false;
-		} catch (IOException e) {
-			isValid = false;
-		}finally{
-			pmethod.abort();
-			if(!isValid){
-				myCMan.closeIdleConnections(MY_IDLE_CLOSE, TimeUnit.SECONDS);
-				myClient.getConnectionManager().shutdown();
-				connectionClosed = true;
-			}else{
-				connectionClosed = false;
-			}
+		if(timeout < 0){
+			throw new SQLException("isValid() timeout can't be negative: " + timeout, "S1009");
 		}
-
-		return isValid;
+		return ping((timeout==0) ? myTimeOut : timeout * 1000);
 	}
 
 	/**
@@ -639,6 +778,7 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 	 */
 	public void setAutoCommit(boolean autoCommit) throws SQLException {
 		WCStatement stmnt = new WCStatement(this, this.currentDatabase);
+		myAutoCommit = null;
 
 		switch(myDbType){
 		case Util.ID_POSTGRESQL:
@@ -651,12 +791,17 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 		}
 
 		stmnt.close();
+		myAutoCommit = Boolean.valueOf(autoCommit);
 	}
 
 	/**
 	 * @see java.sql.Connection#setCatalog(java.lang.String)
 	 */
 	public void setCatalog(String catalog) throws SQLException {
+		//queued statements run on the database they were queued for
+		if(catalog!=null && !catalog.equals(this.currentDatabase)){
+			flushPipeline();
+		}
 		//the server will change databases (if its already authorised)
 		//when the next query is run.
 		this.currentDatabase = catalog;
@@ -747,6 +892,11 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 	 * @see java.sql.Connection#getTransactionIsolation()
 	 */
 	public int getTransactionIsolation() throws SQLException {
+		final int known = myIsolation;
+		if(known > -1 && !verifySession){
+			return known;
+		}
+
 		int isolationType = 0;
 		String isolation = "";
 		Statement stmnt = new WCStatement(this, this.currentDatabase);
@@ -786,7 +936,7 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 		else
 			isolationType = Connection.TRANSACTION_NONE;
 
-
+		myIsolation = isolationType;
 		return isolationType;
 	}
 
@@ -957,6 +1107,7 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 			throw new SQLException("Isolation Level " + level + " not supported.");
 		}
 		Statement stmnt = new WCStatement(this, this.currentDatabase);
+		myIsolation = -1;
 
 		switch(myDbType){
 		case Util.ID_POSTGRESQL:
@@ -969,6 +1120,7 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 		}
 
 		stmnt.close();
+		myIsolation = level;
 	}
 
 	/**
@@ -1019,6 +1171,23 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 
 
 
+	/**
+	 * Sends any queued statements now, on a request of their own.
+	 * Nothing is sent if the queue is empty.
+	 *
+	 * @see com.jdbwc.iface.Connection#flushPipeline()
+	 */
+	public void flushPipeline() throws SQLException {
+		synchronized(myPipeline){
+			if(myPipeline.isEmpty()){
+				return;
+			}
+		}
+		WCStatement stmnt = createInternalStatement();
+		stmnt.sendPipeline();
+		stmnt.close();
+	}
+
 	//---------------------------------------------------------------- protected methods
 
 	/**
@@ -1034,6 +1203,287 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 		return hostUrl;
 	}
 
+	/**
+	 * A single execute is sent as SQL with its parameters filled in.
+	 * Preparing it on the server would cost an extra round trip to the database
+	 * (and one to the server the first time) that nothing is saved against.
+	 *
+	 * @return true if PreparedStatement batches should be prepared on the server.
+	 */
+	protected boolean useServerPrepare(){
+		return useServerPrepare && !isStateless();
+	}
+
+	/**
+	 * Cursor windows are kept in the server session, so stateless connections never use them.
+	 *
+	 * @return true if forward-only SELECTs with a fetch size should be read a window per request.
+	 */
+	protected boolean useCursorFetch(){
+		return useCursorFetch && !isStateless();
+	}
+
+	/**
+	 * Stateless connections have no server session, so nothing
+	 * (prepared statements, cursors) is kept on the server between requests.
+	 *
+	 * @return true if this connection authenticates each request with a token.
+	 */
+	protected boolean isStateless(){
+		return myToken!=null;
+	}
+
+	/**
+	 * Turns server-side prepared statements off for this connection.
+	 * Used when the server doesn't support them.
+	 */
+	protected void disableServerPrepare(){
+		useServerPrepare = false;
+	}
+
+	/**
+	 * @return true if batched single row INSERTs should be sent as multi-row INSERTs.
+	 */
+	protected boolean useRewriteBatch(){
+		return useRewriteBatch;
+	}
+
+	/**
+	 * Forgets the session state this connection has recorded
+	 * if sql looks like it changes it. Called for SQL sent from Statements,
+	 * so plain <code>SET autocommit</code> and the like are picked up by the getters.
+	 *
+	 * @param sql SQL about to be sent, comments removed.
+	 */
+	protected void checkSessionSql(final String sql){
+		for(String statement : sql.toUpperCase(Locale.ENGLISH).split(";")){
+			statement = statement.trim();
+			if(statement.startsWith("SET")){
+				if(statement.contains("AUTOCOMMIT")){
+					myAutoCommit = null;
+				}
+				if(statement.contains("ISOLATION")){
+					myIsolation = -1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Async executes run on at most poolMaxPerRoute threads, the most requests
+	 * the http pool can have open to the gateway at once. Calls past that wait
+	 * in the queue rather than each holding a thread blocked on the pool.
+	 * Idle threads end after a minute.
+	 *
+	 * @return the executor for this connections async execute methods.
+	 */
+	protected ExecutorService getAsyncRequests(){
+		synchronized(myConnLock){
+			if(myAsyncRequests==null){
+				myAsyncRequests = new ThreadPoolExecutor(poolMaxPerRoute, poolMaxPerRoute,
+						60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+						new ThreadFactory() {
+							public Thread newThread(final Runnable r) {
+								final Thread thread = new Thread(r, "jdbwc-async");
+								thread.setDaemon(true);
+								return thread;
+							}
+						});
+				myAsyncRequests.allowCoreThreadTimeOut(true);
+			}
+			return myAsyncRequests;
+		}
+	}
+
+	/**
+	 * @return true if statements that don't return results are queued until the next request.
+	 */
+	protected boolean isPipelining(){
+		return usePipeline && myPipelineVersion > 0;
+	}
+
+	/**
+	 * Queues a statement to run on the server at the start of the next request
+	 * from any Statement on this connection. The server runs queued statements in order,
+	 * on the same database connection as the request they go out with.
+	 *
+	 * @param sql a single statement that doesn't return a resultset.
+	 * @param owner the Statement to give the rows affected to, or null.
+	 * @return false if this connection doesn't pipeline. sql has to be sent now.
+	 */
+	protected boolean queueStatement(final String sql, final WCStatement owner){
+		if(!isPipelining()){
+			return false;
+		}
+		synchronized(myPipeline){
+			myPipeline.add(new Pipelined(sql, owner));
+		}
+		return true;
+	}
+
+	/**
+	 * @return the queued statements, which are removed from the queue.
+	 * null if there are none.
+	 */
+	protected Pipelined[] takePipeline(){
+		synchronized(myPipeline){
+			if(myPipeline.isEmpty()){
+				return null;
+			}
+			final Pipelined[] taken = myPipeline.toArray(new Pipelined[myPipeline.size()]);
+			myPipeline.clear();
+			return taken;
+		}
+	}
+
+	/**
+	 * Puts statements taken with <code>takePipeline()</code> back at the front of the queue,
+	 * ahead of any queued since. Used when they were never run on the server.
+	 *
+	 * @param taken the statements to queue again, in order.
+	 */
+	protected void requeuePipeline(final Pipelined[] taken){
+		if(taken==null || taken.length==0){
+			return;
+		}
+		synchronized(myPipeline){
+			myPipeline.addAll(0, Arrays.asList(taken));
+		}
+	}
+
+	/**
+	 * Gives the rows affected by each pipelined statement to the Statement that queued it.
+	 * A response without the counts (the request failed before they ran) leaves them at -1.
+	 *
+	 * @param sent the statements sent with the request.
+	 * @param response the requests response.
+	 */
+	protected static void pipelineDone(final Pipelined[] sent, final HttpResponse response){
+		final Header header = (response==null) ? null : response.getFirstHeader(Util.PIPELINE_HEADER);
+		final String[] counts = (header==null) ? new String[0] : header.getValue().split(",");
+
+		for(int i = 0; i < sent.length; i++){
+			if(sent[i].myOwner!=null){
+				int count = -1;
+				if(i < counts.length){
+					try {
+						count = Integer.parseInt(counts[i].trim());
+					} catch (NumberFormatException e) {
+						count = -1;
+					}
+				}
+				sent[i].myOwner.pipelineDone(count);
+			}
+		}
+	}
+
+	/**
+	 * The server marks the pipelined statement it was running when a request failed.
+	 * Statements before it ran, statements after it didn't.
+	 *
+	 * @param response the requests response.
+	 * @return the failed statements position in the pipeline, or -1 if none failed.
+	 */
+	protected static int pipelineFailedAt(final HttpResponse response){
+		final Header header = (response==null) ? null : response.getFirstHeader(Util.PIPELINE_HEADER);
+		if(header==null){
+			return -1;
+		}
+		final String[] counts = header.getValue().split(",");
+		for(int i = 0; i < counts.length; i++){
+			if(Util.PIPELINE_FAILED.equals(counts[i].trim())){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return rough size in bytes of each request sent for a batch.
+	 */
+	protected int getBatchBytes(){
+		return myBatchBytes;
+	}
+
+	/**
+	 * @param sql a PreparedStatements SQL
+	 * @return the servers handle for sql or null if it hasn't been prepared.
+	 */
+	protected String getPreparedHandle(final String sql){
+		synchronized(myPreparedHandles){
+			return myPreparedHandles.get(sql);
+		}
+	}
+
+	/**
+	 * Handles are shared by every PreparedStatement using the same SQL.
+	 *
+	 * @param sql a PreparedStatements SQL
+	 * @param handle the servers handle for sql or null to forget it.
+	 */
+	protected void setPreparedHandle(final String sql, final String handle){
+		synchronized(myPreparedHandles){
+			if(handle==null)
+				myPreparedHandles.remove(sql);
+			else
+				myPreparedHandles.put(sql, handle);
+		}
+	}
+
+	/**
+	 * Never contacts the server.
+	 *
+	 * @return true if this connection has been closed
+	 * or failed its last validity check.
+	 */
+	protected boolean isClosedLocally(){
+		return connectionClosed || !isAlive;
+	}
+
+	/**
+	 * Sends a ping to the server and records the result for <code>isClosed()</code>.
+	 * A failed ping leaves the connection open. A later request that gets
+	 * a response from the server marks it as alive again.
+	 *
+	 * @param timeout ms to wait for the ping. Only used for this request.
+	 * @return true if the server answered the ping.
+	 */
+	protected boolean ping(final int timeout){
+		if(connectionClosed){
+			return false;
+		}
+
+		boolean isValid = false;
+		final HttpPost pmethod = getHttpPost();
+		pmethod.getParams().setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, timeout);
+		pmethod.getParams().setParameter(CoreConnectionPNames.SO_TIMEOUT, timeout);
+
+		DataHandler nvpArray = Util.getCaseSafeHandler(Util.CASE_MIXED);
+		nvpArray.addData(Util.TAG_AUTH, dbCredentials);
+		nvpArray.addData(Util.TAG_DBTYPE, myDbType);
+		nvpArray.addData(Util.TAG_ACTION, "ping");
+
+		pmethod.setEntity(Util.prepareForWeb(nvpArray));
+
+		try {
+			HttpResponse response = getHttpResponse(pmethod);
+			if (response != null) {
+				isValid = Boolean.parseBoolean(Util.parseResponse(response).trim());
+			}
+		} catch (SQLException e) {
+			isValid = false;
+		} catch (ClientProtocolException e) {
+			isValid = false;
+		} catch (IOException e) {
+			isValid = false;
+		}finally{
+			pmethod.abort();
+			isAlive = isValid;
+		}
+
+		return isValid;
+	}
+
 
 
 	/**
@@ -1051,6 +1501,11 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 		pmethod.getParams().setParameter("http.tcp.nodelay", true);
 		pmethod.getParams().setParameter("http.connection.timeout", myTimeOut);
 
+		if(myToken!=null){
+			renewToken();
+			pmethod.setHeader(Util.TOKEN_HEADER, myToken);
+		}
+
 		return pmethod;
 	}
 
@@ -1063,18 +1518,117 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 	 * @return A HttpResponse from executing a HttpPost request.
 	 * @throws ClientProtocolException
 	 * @throws IOException
+	 * @throws SQLException 08001 if no pooled socket came free within the connection timeout.
 	 */
-	protected HttpResponse getHttpResponse(HttpPost post) throws ClientProtocolException, IOException {
-		if(!useProxy && hostPort==80 || hostPort==443)
-			return getClient().execute(post);//saves up to 7ms per request
-		else
-			return getClient().execute(getHttpHost(), post);
+	protected HttpResponse getHttpResponse(HttpPost post) throws ClientProtocolException, IOException, SQLException {
+		return getHttpResponse(post, null);
+	}
+
+	/**
+	 * As <code>getHttpResponse(HttpPost)</code>, executed in context.
+	 * After a failure the context tells whether the request reached the server.
+	 *
+	 * @param post a HttpPost request to execute
+	 * @param context the context to execute in, or null for a new one
+	 * @return A HttpResponse from executing a HttpPost request.
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 * @throws SQLException 08001 if no pooled socket came free within the connection timeout.
+	 */
+	protected HttpResponse getHttpResponse(HttpPost post, HttpContext context) throws ClientProtocolException, IOException, SQLException {
+		myRequests.incrementAndGet();
+		try {
+			final HttpResponse response = getHttpResponse(getClient(), post, context);
+			myLastContact = System.currentTimeMillis();
+			isAlive = true;
+			return response;
+		} finally {
+			myRequests.decrementAndGet();
+		}
+	}
+
+	/**
+	 * A query id is sent with each statement request. The server records the
+	 * database thread running the request under it, for <code>killQuery()</code>.
+	 * Ids can't be guessed, so only this connection can kill its own queries.
+	 *
+	 * @return a new query id.
+	 */
+	protected String nextQueryId(){
+		return myQueryIdPrefix + Long.toString(myQueryIds.incrementAndGet(), 36);
+	}
+
+	/**
+	 * Stops the query running for a request from this connection.<br />
+	 * The request still holds this connections server session,
+	 * so the kill is sent on a new session of its own which the server ends straight away.
+	 *
+	 * @param queryId the id sent with the request. See <code>nextQueryId()</code>.
+	 * @param timeout true if the query ran past its timeout, false for a cancel.
+	 * @return true if the server found and stopped the query.
+	 * @throws SQLException
+	 */
+	protected boolean killQuery(final String queryId, final boolean timeout) throws SQLException{
+		final HttpClient client;
+		synchronized(myConnLock){
+			if(myPool==null){
+				return false;
+			}
+			// sockets of its own so a full pool can't hold up the kill, empty cookie store
+			client = getHttpClient(myPool.getKillManager(), myClient.getParams());
+		}
+
+		final HttpPost pmethod = getHttpPost();
+		DataHandler nvpArray = Util.getCaseSafeHandler(Util.CASE_MIXED);
+		nvpArray.addData(Util.TAG_USER, hostUser);
+		nvpArray.addData(Util.TAG_PASS, hostPass);
+		nvpArray.addData(Util.TAG_AUTH, dbCredentials);
+		nvpArray.addData(Util.TAG_DBTYPE, myDbType);
+		nvpArray.addData(Util.TAG_ACTION, "kill_query");
+		nvpArray.addData(Util.TAG_QUERY_ID, queryId);
+		nvpArray.addData(Util.TAG_KILL_REASON, timeout ? "timeout" : "cancel");
+		pmethod.setEntity(Util.prepareForWeb(nvpArray));
+
+		try {
+			HttpResponse response = getHttpResponse(client, pmethod, null);
+			if (response != null) {
+				// a new session starts with the server versions
+				return Util.parseResponse(response).trim().endsWith("true");
+			}
+		} catch (ClientProtocolException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		} catch (IOException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		}finally{
+			pmethod.abort();
+		}
+		return false;
 	}
 
 
 
 	//---------------------------------------------------------------- private methods
 
+	private HttpResponse getHttpResponse(HttpClient client, HttpPost post, HttpContext context) throws ClientProtocolException, IOException, SQLException {
+		try {
+			if(!useProxy && hostPort==80 || hostPort==443)
+				return client.execute(post, context);//saves up to 7ms per request
+			else
+				return client.execute(getHttpHost(), post, context);
+		} catch (ConnectionPoolTimeoutException e) {
+			throw new SQLException("No pooled socket to the server came free within " + myTimeOut
+					+ "ms. Raise poolMaxPerRoute or close unused ResultSets and Statements.", "08001", e);
+		}
+	}
+
+	private static String newQueryIdPrefix(){
+		final StringBuilder prefix = new StringBuilder(MY_QUERY_ID_LENGTH);
+		for(int i = 0; i < MY_QUERY_ID_LENGTH; i++){
+			prefix.append(MY_QUERY_ID_CHARS.charAt(MY_QUERY_ID_SOURCE.nextInt(MY_QUERY_ID_CHARS.length())));
+		}
+		return prefix.toString();
+	}
+
 
 
 	/**
@@ -1183,35 +1737,41 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 	/**
 	 * Prepares the httpClient connection objects for use.
 	 * This only gets run once per connection so most of the work gets offloaded here to reduce
-	 * data exchange times.
+	 * data exchange times.<br />
+	 * <br />
+	 * Sockets come from a pool shared with every other Connection to the same server.
+	 * The HttpClient, and so the server session cookie, belongs to this Connection.
 	 *
 	 * @throws SQLException
 	 */
 	private void prepConnection() throws SQLException{
 
-		if(myCMan==null || myClient==null){
-			synchronized(hostUrl){
+		if(myPool==null || myClient==null){
+			synchronized(myConnLock){
 
 				HttpParams params = new BasicHttpParams();
 				params.setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, myTimeOut);
+				// waiting on a pooled socket ends like a connect that timed out
+				params.setParameter(ConnManagerPNames.TIMEOUT, Long.valueOf(myTimeOut));
 				HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
 		        HttpProtocolParams.setContentCharset(params, "UTF-8");
 		        HttpProtocolParams.setUseExpectContinue(params, false);
 		        if(useDummyUA) HttpProtocolParams.setUserAgent(params, Util.CUSTOM_AGENT);
 
-		        SchemeRegistry schemes = getSchemeRegistry(null, hostScheme, hostPort);
-		        if(useProxy && !hostScheme.equals(proxyScheme))
-		        	schemes = getSchemeRegistry(schemes, proxyScheme, proxyPort);
-
+				final String proxyUrl = useProxy ? proxyScheme + "://" + proxyDomain + ":" + proxyPort : null;
+				final String poolKey = HttpConnectionPool.getKey(hostScheme, hostDomain, hostPort, proxyUrl, useNonVerifiedSSL);
 
-				myCMan = new ThreadSafeClientConnManager(schemes);
-				// Increase max total connections
-				myCMan.setMaxTotal(50);
-				// Increase default max connections
-				myCMan.setDefaultMaxPerRoute(10);
+				myPool = HttpConnectionPool.acquire(poolKey, new HttpConnectionPool.SchemeSource() {
+					public SchemeRegistry getSchemes() throws SQLException {
+				        SchemeRegistry schemes = getSchemeRegistry(null, hostScheme, hostPort);
+				        if(useProxy && !hostScheme.equals(proxyScheme))
+				        	schemes = getSchemeRegistry(schemes, proxyScheme, proxyPort);
+				        return schemes;
+					}
+				}, poolMaxPerRoute, poolMaxTotal, poolIdleTimeout);
 
 
-				myClient = getHttpClient(myCMan, params);
+				myClient = getHttpClient(myPool.getManager(), params);
 				host = new HttpHost(hostDomain, hostPort, hostScheme);
 
 				if(useProxy){
@@ -1223,6 +1783,146 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 		}
 	}
 
+	/**
+	 * Keeps the stateless token the server sent with a login.
+	 * Servers that don't allow stateless connections don't send one,
+	 * and the connection carries on with its server session.
+	 *
+	 * @param response the login response
+	 */
+	private void setToken(final HttpResponse response){
+		final Header token = response.getFirstHeader(Util.TOKEN_HEADER);
+		final Header life = response.getFirstHeader(Util.TOKEN_LIFE_HEADER);
+		if(token==null || life==null){
+			myToken = null;
+			return;
+		}
+
+		long seconds;
+		try {
+			seconds = Long.parseLong(life.getValue().trim());
+		} catch (NumberFormatException e) {
+			seconds = 0;
+		}
+		synchronized(myTokenLock){
+			// renewed at half its life, so a slow renewal never leaves requests with an expired token
+			myTokenRenewal = System.currentTimeMillis() + seconds * 500L;
+			myToken = token.getValue().trim();
+		}
+	}
+
+	/**
+	 * Logs in again for a new token once the current one is half way to expiring.
+	 * If that fails the current token is kept and a request made a little later tries again.
+	 */
+	private void renewToken(){
+		synchronized(myTokenLock){
+			final long renewal = myTokenRenewal;
+			if(connectionClosed || System.currentTimeMillis() < renewal){
+				return;
+			}
+			// the login makes a request of its own
+			myTokenRenewal = Long.MAX_VALUE;
+			try {
+				authorise();
+			} catch (SQLException e) {
+				myTokenRenewal = System.currentTimeMillis() + MY_TOKEN_RETRY;
+				if(LOG.isWarnEnabled()){
+					LOG.warn("Stateless token renewal failed: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Schedules the keep-alive ping if the keepAliveInterval property is set.
+	 * The ping is only sent when nothing else has contacted the server within the interval
+	 * and no request is waiting on the server. A long query would otherwise be pinged
+	 * while it runs, and the ping would wait on the server session behind it.<br />
+	 * The shared keep-alive thread only hands the ping to this connections async threads,
+	 * so a slow ping never holds up the keep-alives of other connections.
+	 */
+	private void startKeepAlive(){
+		if(myKeepAlive < 1){
+			return;
+		}
+
+		final long interval = myKeepAlive * 1000L;
+		synchronized(myConnLock){
+			myKeepAliveTask = getKeepAlives().scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					if(connectionClosed || System.currentTimeMillis() - myLastContact < interval || myRequests.get() > 0
+							|| !isPinging.compareAndSet(false, true)){
+						return;
+					}
+					try {
+						getAsyncRequests().execute(new Runnable() {
+							public void run() {
+								try {
+									if(myRequests.get()==0){
+										ping(myTimeOut);
+									}
+								} finally {
+									isPinging.set(false);
+								}
+							}
+						});
+					} catch (RejectedExecutionException e) {
+						// the connection closed
+						isPinging.set(false);
+					}
+				}
+			}, myKeepAlive, myKeepAlive, TimeUnit.SECONDS);
+		}
+	}
+
+	private void stopKeepAlive(){
+		synchronized(myConnLock){
+			if(myKeepAliveTask!=null){
+				myKeepAliveTask.cancel(false);
+				myKeepAliveTask = null;
+			}
+		}
+	}
+
+	/**
+	 * Queued async calls still run, and fail on the closed connection.
+	 */
+	private void stopAsyncRequests(){
+		synchronized(myConnLock){
+			if(myAsyncRequests!=null){
+				myAsyncRequests.shutdown();
+				myAsyncRequests = null;
+			}
+		}
+	}
+
+	private static synchronized ScheduledExecutorService getKeepAlives(){
+		if(keepAlives==null){
+			keepAlives = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "jdbwc-keep-alive");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return keepAlives;
+	}
+
+	/**
+	 * Gives this Connections reference to the shared pool back.
+	 * Safe to call more than once.
+	 */
+	private void releasePool(){
+		synchronized(myConnLock){
+			if(myPool!=null){
+				myPool.release(poolMaxPerRoute, poolMaxTotal);
+				myPool = null;
+			}
+		}
+	}
+
 	/**
 	 * Authorise the connection.<br />
 	 * Handles logging in to remote API, triggering cookie generation
@@ -1267,8 +1967,13 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 			//trigger for serverside debugging based on user debug param.
 			nvpArray.addData(Util.TAG_DEBUG, useDebug);
 			nvpArray.addData(Util.TAG_DBTYPE, myDbType);
+			if(useStateless){
+				nvpArray.addData(Util.TAG_STATELESS, "1");
+			}
 
 			pmethod.setEntity(Util.prepareForWeb(nvpArray));
+			//a login is never made with an old token
+			pmethod.removeHeaders(Util.TOKEN_HEADER);
 		}
 		try {
 			//if this fails: we will end up in the IOException or HttpException in that order.
@@ -1334,6 +2039,33 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 					myServerProtocol = versionSet[4];
 					isBaseServer = "0".equals(versionSet[5]);
 
+					//servers without a binary result format don't send this field
+					myWireProtocol = 0;
+					if(versionSet.length > 6){
+						try {
+							myWireProtocol = Math.min(Integer.parseInt(versionSet[6].trim()), BinaryFrameReader.VERSION);
+						} catch (NumberFormatException e) {
+							myWireProtocol = 0;
+						}
+					}
+
+					//servers without pipelining don't send this field
+					myPipelineVersion = 0;
+					if(versionSet.length > 7){
+						try {
+							myPipelineVersion = Integer.parseInt(versionSet[7].trim());
+						} catch (NumberFormatException e) {
+							myPipelineVersion = 0;
+						}
+					}
+
+					//servers without persistent connections don't send this field
+					isPersistentDb = versionSet.length > 8 && "1".equals(versionSet[8].trim());
+
+					if(useStateless){
+						setToken(response);
+					}
+
 					sessLimit = false;
 					authorised = true;
 					connectionClosed = false;
@@ -1356,6 +2088,10 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 					LOG.debug("Server Database  = " + myDatabaseVersion);
 					LOG.debug("Server Scripting = " + myScriptingVersion);
 					LOG.debug("Server Protocol  = " + myServerProtocol);
+					LOG.debug("Result Format    = " + ((myWireProtocol > 0) ? "binary v" + myWireProtocol : "text"));
+					LOG.debug("Pipelining       = " + (isPipelining() ? "on" : "off"));
+					LOG.debug("Server Session   = " + (isStateless() ? "none, stateless token" : "yes"));
+					LOG.debug("DB Connections   = " + (isPersistentDb() ? "persistent" : "one per request"));
 					LOG.debug("JDBWC Server Version = " + myJDBWCScriptVersion);
 					LOG.debug("JDBWC Driver Version = " + getDriverName() + " " + getDriverVersion());
 					LOG.debug("CORE DATA DRIVER = " + DataHandler.class + " " + DataHandler.VERSION);//interface
@@ -1410,4 +2146,20 @@ public class WCConnection extends WCConnectionInfo implements Connection {
 		return authorised;
 	}
 
+	//---------------------------------------------------------------- inner classes
+
+	/**
+	 * A statement queued for the next request.
+	 */
+	static final class Pipelined {
+
+		protected final transient String mySql;
+		/** the Statement that queued it, or null */
+		protected final transient WCStatement myOwner;
+
+		Pipelined(final String sql, final WCStatement owner){
+			mySql = sql;
+			myOwner = owner;
+		}
+	}
 }
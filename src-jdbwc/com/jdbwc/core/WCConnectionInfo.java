@@ -43,6 +43,12 @@ public class WCConnectionInfo {
 	protected transient String myTimeZone = "";
 	protected transient String myServerProtocol = "";
 	protected transient boolean isBaseServer = false;
+	/** binary result format version supported by the server. 0 = text format only */
+	protected transient int myWireProtocol = 0;
+	/** pipelining version supported by the server. 0 = no pipelining */
+	protected transient int myPipelineVersion = 0;
+	/** true if the server reuses database connections between requests */
+	protected transient boolean isPersistentDb = false;
 
 	/** The Database type this class is designed to work with */
 	protected transient int myDbType = -1;
@@ -195,6 +201,34 @@ public class WCConnectionInfo {
 		return isBaseServer;
 	}
 
+	/**
+	 * @return the binary result format version agreed with the server
+	 * or 0 (zero) if only the text format is available.
+	 */
+	public final int getWireProtocol() {
+		return myWireProtocol;
+	}
+
+	/**
+	 * @return the pipelining version supported by the server
+	 * or 0 (zero) if it doesn't run pipelined statements.
+	 */
+	public final int getPipelineVersion() {
+		return myPipelineVersion;
+	}
+
+	/**
+	 * Persistent or not, the server starts each request with a clean database session.
+	 * Session state set with SQL (SET statements, open transactions, temporary tables)
+	 * only lasts for the request it was sent in. Pipelining sends it with the statements that need it.
+	 *
+	 * @return true if the server reuses database connections between requests
+	 * instead of connecting to the database for each one.
+	 */
+	public final boolean isPersistentDb() {
+		return isPersistentDb;
+	}
+
 	public boolean versionMeetsMinimum(int majorVersion, int minorVersion, int microVersion) throws SQLException {
 		boolean meetsMin = false;
 
@@ -0,0 +1,415 @@
+/* ********************************************************************
+ * Copyright (C) 2012 Oz-DevWorX (Tim Gall)
+ * ********************************************************************
+ * This file is part of JDBWC.
+ *
+ * JDBWC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JDBWC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JDBWC.  If not, see <http://www.gnu.org/licenses/>.
+ * ********************************************************************
+ */
+package com.jdbwc.core;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.DataSource;
+import javax.sql.PooledConnection;
+
+/**
+ * javax.sql.DataSource and javax.sql.ConnectionPoolDataSource implementation.<br />
+ * <br />
+ * <code>getConnection()</code> hands out Connections from a pool of open,
+ * authenticated WCConnections. Closing a Connection resets its session
+ * (see <code>WCPooledConnection</code>) and puts it back in the pool,
+ * so the login request and the HTTP and SSL handshakes are only paid
+ * the first time a physical connection is opened.<br />
+ * <br />
+ * A pooled connection that was used within the last <code>validationInterval</code>
+ * seconds is handed straight back out. Older connections are pinged first
+ * and dropped if the ping fails. At most <code>maxIdle</code> connections
+ * are kept open while not in use.<br />
+ * <br />
+ * The connection properties are the same as the ones used with
+ * <code>DriverManager</code> (see <code>WCDriverPropertiesInfo</code>).
+ * <code>getPooledConnection()</code> opens a new physical connection every time,
+ * for use with an application servers own pool.
+ *
+ * @author Tim Gall
+ * @version 2012-04-10
+ */
+public class WCDataSource implements DataSource, ConnectionPoolDataSource {
+
+	//--------------------------------------------------------- fields
+
+	private static final int MY_MAX_IDLE = 8;
+	private static final int MY_VALIDATION_INTERVAL = 30;
+
+	private transient String myUrl = "jdbc:jdbwc:mysql//";
+	private final transient Properties myProps = new Properties();
+
+	private transient int myMaxIdle = MY_MAX_IDLE;
+	private transient int myValidationInterval = MY_VALIDATION_INTERVAL;
+	private transient int myLoginTimeout = 0;
+	private transient PrintWriter myLogWriter = null;
+
+	/** idle connections, most recently used first. Guarded by itself */
+	private final transient Deque<WCPooledConnection> myIdle = new ArrayDeque<WCPooledConnection>();
+	/** guarded by myIdle */
+	private transient boolean myClosed = false;
+
+	/** returns closed logical connections to the pool */
+	private final transient ConnectionEventListener myReturns = new ConnectionEventListener() {
+		public void connectionClosed(final ConnectionEvent event) {
+			final WCPooledConnection pooled = (WCPooledConnection)event.getSource();
+			synchronized(myIdle){
+				if(!myClosed && myIdle.size() < myMaxIdle){
+					myIdle.push(pooled);
+					return;
+				}
+			}
+			discard(pooled);
+		}
+
+		public void connectionErrorOccurred(final ConnectionEvent event) {
+			discard((WCPooledConnection)event.getSource());
+		}
+	};
+
+	//--------------------------------------------------------- constructors
+
+	/**
+	 * Create a new DataSource. Set the connection properties before use.
+	 */
+	public WCDataSource() {
+		super();
+	}
+
+	//--------------------------------------------------------- public methods
+
+	/**
+	 * @see javax.sql.DataSource#getConnection()
+	 */
+	public Connection getConnection() throws SQLException {
+		WCPooledConnection pooled;
+		while((pooled = takeIdle())!=null){
+			if(pooled.validate(myValidationInterval * 1000L, getPingTimeout())){
+				return pooled.getConnection();
+			}
+			discard(pooled);
+		}
+
+		pooled = new WCPooledConnection(openConnection(myProps));
+		pooled.addConnectionEventListener(myReturns);
+		return pooled.getConnection();
+	}
+
+	/**
+	 * Connections for a different user are not pooled.
+	 *
+	 * @see javax.sql.DataSource#getConnection(java.lang.String, java.lang.String)
+	 */
+	public Connection getConnection(final String username, final String password) throws SQLException {
+		if(isConfiguredUser(username, password)){
+			return getConnection();
+		}
+		return openConnection(getProps(username, password));
+	}
+
+	/**
+	 * Opens a new physical connection. It is not added to this DataSources pool.
+	 *
+	 * @see javax.sql.ConnectionPoolDataSource#getPooledConnection()
+	 */
+	public PooledConnection getPooledConnection() throws SQLException {
+		return new WCPooledConnection(openConnection(myProps));
+	}
+
+	/**
+	 * Opens a new physical connection. It is not added to this DataSources pool.
+	 *
+	 * @see javax.sql.ConnectionPoolDataSource#getPooledConnection(java.lang.String, java.lang.String)
+	 */
+	public PooledConnection getPooledConnection(final String username, final String password) throws SQLException {
+		return new WCPooledConnection(openConnection(getProps(username, password)));
+	}
+
+	/**
+	 * Closes every idle connection and stops pooling.
+	 * Connections in use are closed when they are returned.
+	 */
+	public void close() {
+		synchronized(myIdle){
+			myClosed = true;
+		}
+
+		WCPooledConnection pooled;
+		while((pooled = takeIdle())!=null){
+			discard(pooled);
+		}
+	}
+
+	/**
+	 * @return the number of open connections waiting in the pool.
+	 */
+	public int getIdleCount() {
+		synchronized(myIdle){
+			return myIdle.size();
+		}
+	}
+
+	/* *****************************************************
+	 * connection properties
+	 ***************************************************** */
+
+	/**
+	 * @param url the JDBWC url. EG: jdbc:jdbwc:mysql// or jdbc:jdbwc:postgresql//
+	 */
+	public void setUrl(final String url) {
+		myUrl = url;
+	}
+
+	/**
+	 * @return the JDBWC url.
+	 */
+	public String getUrl() {
+		return myUrl;
+	}
+
+	/**
+	 * Sets a connection property. See <code>WCDriverPropertiesInfo</code>
+	 * for the property names.
+	 *
+	 * @param key property name
+	 * @param value property value. null removes the property.
+	 */
+	public void setProperty(final String key, final String value) {
+		synchronized(myProps){
+			if(value==null)
+				myProps.remove(key);
+			else
+				myProps.setProperty(key, value);
+		}
+	}
+
+	/**
+	 * @param key property name
+	 * @return the property value or null if it isn't set.
+	 */
+	public String getProperty(final String key) {
+		return myProps.getProperty(key);
+	}
+
+	/**
+	 * Adds every property in props to the connection properties.
+	 *
+	 * @param props connection properties
+	 */
+	public void setProperties(final Properties props) {
+		synchronized(myProps){
+			myProps.putAll(props);
+		}
+	}
+
+	/** @param serverUrl the servers absolute url. EG: https://myserver.ext:443/[myfolder/] */
+	public void setServerUrl(final String serverUrl) {
+		setProperty(WCDriver.KEY_URL, serverUrl);
+	}
+
+	/** @param user the server username */
+	public void setUser(final String user) {
+		setProperty(WCDriver.KEY_USER, user);
+	}
+
+	/** @param password the server password */
+	public void setPassword(final String password) {
+		setProperty(WCDriver.KEY_PASS, password);
+	}
+
+	/** @param databaseName the database name */
+	public void setDatabaseName(final String databaseName) {
+		setProperty(WCDriver.KEY_DB_NAME, databaseName);
+	}
+
+	/** @param databaseUser the database username */
+	public void setDatabaseUser(final String databaseUser) {
+		setProperty(WCDriver.KEY_DB_USER, databaseUser);
+	}
+
+	/** @param databasePassword the database password */
+	public void setDatabasePassword(final String databasePassword) {
+		setProperty(WCDriver.KEY_DB_PASS, databasePassword);
+	}
+
+	/* *****************************************************
+	 * pool settings
+	 ***************************************************** */
+
+	/**
+	 * @param maxIdle maximum connections kept open while not in use. Defaults to 8.
+	 */
+	public void setMaxIdle(final int maxIdle) {
+		myMaxIdle = Math.max(0, maxIdle);
+	}
+
+	/**
+	 * @return maximum connections kept open while not in use.
+	 */
+	public int getMaxIdle() {
+		return myMaxIdle;
+	}
+
+	/**
+	 * @param seconds an idle connection used within this many seconds is
+	 * handed out without a ping. 0 (zero) pings every time. Defaults to 30.
+	 */
+	public void setValidationInterval(final int seconds) {
+		myValidationInterval = Math.max(0, seconds);
+	}
+
+	/**
+	 * @return seconds an idle connection is trusted without a ping.
+	 */
+	public int getValidationInterval() {
+		return myValidationInterval;
+	}
+
+	/* *****************************************************
+	 * CommonDataSource methods
+	 ***************************************************** */
+
+	/**
+	 * @see javax.sql.CommonDataSource#getLogWriter()
+	 */
+	public PrintWriter getLogWriter() throws SQLException {
+		return myLogWriter;
+	}
+
+	/**
+	 * Logging is configured with the debug properties, the writer is only stored.
+	 *
+	 * @see javax.sql.CommonDataSource#setLogWriter(java.io.PrintWriter)
+	 */
+	public void setLogWriter(final PrintWriter out) throws SQLException {
+		myLogWriter = out;
+	}
+
+	/**
+	 * Used as the ping timeout when validating idle connections.
+	 *
+	 * @see javax.sql.CommonDataSource#setLoginTimeout(int)
+	 */
+	public void setLoginTimeout(final int seconds) throws SQLException {
+		myLoginTimeout = seconds;
+	}
+
+	/**
+	 * @see javax.sql.CommonDataSource#getLoginTimeout()
+	 */
+	public int getLoginTimeout() throws SQLException {
+		return myLoginTimeout;
+	}
+
+	/**
+	 * Required for jre >= 7 compilation
+	 */
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException("getParentLogger()");
+	}
+
+	/**
+	 * @see java.sql.Wrapper#isWrapperFor(java.lang.Class)
+	 */
+	public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+
+	/**
+	 * @see java.sql.Wrapper#unwrap(java.lang.Class)
+	 */
+	public <T> T unwrap(final Class<T> iface) throws SQLException {
+		try {
+			return iface.cast(this);
+		} catch (ClassCastException e) {
+			throw new SQLException("Not a wrapper for " + iface.getName());
+		}
+	}
+
+	//--------------------------------------------------------- private methods
+
+	private WCPooledConnection takeIdle() {
+		synchronized(myIdle){
+			return myIdle.poll();
+		}
+	}
+
+	private void discard(final WCPooledConnection pooled) {
+		pooled.removeConnectionEventListener(myReturns);
+		try {
+			pooled.close();
+		} catch (SQLException e) {
+			// ignore, its being thrown away
+		}
+	}
+
+	private WCConnection openConnection(final Properties props) throws SQLException {
+		final Properties info;
+		synchronized(myProps){
+			info = (Properties)props.clone();
+		}
+
+		final WCConnection connection = (WCConnection)new WCDriver().connect(myUrl, info);
+		if(connection==null){
+			throw new SQLException("Invalid JDBWC url: " + myUrl, "08001");
+		}
+		return connection;
+	}
+
+	private Properties getProps(final String username, final String password) {
+		synchronized(myProps){
+			final Properties props = (Properties)myProps.clone();
+			props.setProperty(WCDriver.KEY_USER, username==null ? "" : username);
+			props.setProperty(WCDriver.KEY_PASS, password==null ? "" : password);
+			return props;
+		}
+	}
+
+	private boolean isConfiguredUser(final String username, final String password) {
+		synchronized(myProps){
+			return username!=null && username.equals(myProps.getProperty(WCDriver.KEY_USER))
+				&& password!=null && password.equals(myProps.getProperty(WCDriver.KEY_PASS));
+		}
+	}
+
+	/**
+	 * @return ping timeout in ms. The login timeout if set, otherwise the connection timeout.
+	 */
+	private int getPingTimeout() {
+		if(myLoginTimeout > 0)
+			return myLoginTimeout * 1000;
+
+		try {
+			return Integer.parseInt(myProps.getProperty(WCDriver.KEY_TIMEOUT));
+		} catch (NumberFormatException e) {
+			return 30000;
+		}
+	}
+}
@@ -86,6 +86,19 @@ public class WCDriver {
 	protected static final String KEY_TIMEOUT = "timeout";
 	protected static final String KEY_USE_UA = "useDummyAgent";
 
+	protected static final String KEY_POOL_MAX_ROUTE = "poolMaxPerRoute";
+	protected static final String KEY_POOL_MAX_TOTAL = "poolMaxTotal";
+	protected static final String KEY_POOL_IDLE = "poolIdleTimeout";
+
+	protected static final String KEY_SERVER_PREPARE = "useServerPrepare";
+	protected static final String KEY_REWRITE_BATCH = "rewriteBatchedStatements";
+	protected static final String KEY_BATCH_BYTES = "maxBatchBytes";
+	protected static final String KEY_PIPELINE = "pipeline";
+	protected static final String KEY_VERIFY_SESSION = "verifySessionState";
+	protected static final String KEY_KEEP_ALIVE = "keepAliveInterval";
+	protected static final String KEY_STATELESS = "stateless";
+	protected static final String KEY_CURSOR_FETCH = "useCursorFetch";
+
 	protected static final String KEY_DEBUG = Util.TAG_DEBUG;
 	protected static final String KEY_DEBUG_LOG = "debugLogger";
 	protected static final String KEY_DEBUG_LEVEL = "debugLevel";
@@ -210,131 +223,165 @@ public class WCDriver {
 		WCConnection connection = null;
 
 		// get required and optional parameters
-		synchronized(url){
-			// if the props are part of the url, we convert them to a Properties object
-			Properties urlProps = getPropsFromUrl(url, info);
+		// if the props are part of the url, we convert them to a Properties object
+		Properties urlProps = getPropsFromUrl(url, info);
 
-			/* get the servers absolute url */
-			String hostUrl = urlProps.getProperty(KEY_URL);
+		/* get the servers absolute url */
+		String hostUrl = urlProps.getProperty(KEY_URL);
 
-			if(hostUrl==null || hostUrl.isEmpty()){
-				throw new SQLException(
-						KEY_URL + " must contain a value. Subfolders are optional. EG: https://myserver.ext:443/[myfolder/myotherfolder/]"
-						, "42000");
-			}
+		if(hostUrl==null || hostUrl.isEmpty()){
+			throw new SQLException(
+					KEY_URL + " must contain a value. Subfolders are optional. EG: https://myserver.ext:443/[myfolder/myotherfolder/]"
+					, "42000");
+		}
 
-			/* get the servers domain */
-			String hostDomain = getDomainString(hostUrl);
+		/* get the servers domain */
+		String hostDomain = getDomainString(hostUrl);
 
-			String hostUser = urlProps.getProperty(KEY_USER);
-			String hostPass = urlProps.getProperty(KEY_PASS);
+		String hostUser = urlProps.getProperty(KEY_USER);
+		String hostPass = urlProps.getProperty(KEY_PASS);
 
-			/* support for getPropertyInfo */
-			String dbVid = urlProps.getProperty(KEY_DB_VID);
-			if(dbVid!=null && !dbVid.isEmpty())
-				dbType = getDbType(dbVid);
+		/* support for getPropertyInfo */
+		String dbVid = urlProps.getProperty(KEY_DB_VID);
+		if(dbVid!=null && !dbVid.isEmpty())
+			dbType = getDbType(dbVid);
 
-			String dbName = urlProps.getProperty(KEY_DB_NAME);
-			String dbUser = urlProps.getProperty(KEY_DB_USER);
-			String dbPass = urlProps.getProperty(KEY_DB_PASS);
+		String dbName = urlProps.getProperty(KEY_DB_NAME);
+		String dbUser = urlProps.getProperty(KEY_DB_USER);
+		String dbPass = urlProps.getProperty(KEY_DB_PASS);
 
 
-			String hostScheme;
-			hostUrl = hostUrl + WC_SERVER; // remote jdbwc-handler script EG: http://localhost/admin/
-			if(hostUrl.startsWith("https"))
-				hostScheme = "https";
-			else
-				hostScheme = "http";
-			// path part of URL
-			String hostPath = hostUrl.replace(hostScheme + "://" + hostDomain, "");
+		String hostScheme;
+		hostUrl = hostUrl + WC_SERVER; // remote jdbwc-handler script EG: http://localhost/admin/
+		if(hostUrl.startsWith("https"))
+			hostScheme = "https";
+		else
+			hostScheme = "http";
+		// path part of URL
+		String hostPath = hostUrl.replace(hostScheme + "://" + hostDomain, "");
 
 
-			int hostPort;
-			try {
-				hostPort = Integer.parseInt(hostDomain.substring(hostDomain.indexOf(":")+1));
-			} catch (NumberFormatException e) {
-				//makes the port portion of the host url optional
-				if(hostUrl.startsWith("https"))
-					hostPort = 443;
-				else
-					hostPort = 80;
-			}
-
-			// remove any port references from the domain name. If needed WCConnection will add them later
-			if(hostDomain.contains(":")) hostDomain = hostDomain.substring(0, hostDomain.indexOf(":"));
-
+		int hostPort;
+		try {
+			hostPort = Integer.parseInt(hostDomain.substring(hostDomain.indexOf(":")+1));
+		} catch (NumberFormatException e) {
+			//makes the port portion of the host url optional
+			if(hostUrl.startsWith("https"))
+				hostPort = 443;
+			else
+				hostPort = 80;
+		}
 
-			/* OPTIONAL PARAMETERS */
-			int proxyPort = 0;
-			String proxyUrl = urlProps.getProperty(KEY_PROXY_URL);
-			String proxyScheme = null;
-			String proxyDomain = null;
+		// remove any port references from the domain name. If needed WCConnection will add them later
+		if(hostDomain.contains(":")) hostDomain = hostDomain.substring(0, hostDomain.indexOf(":"));
 
-			if(proxyUrl!=null && !proxyUrl.isEmpty()){
-				proxyDomain = getDomainString(proxyUrl);
 
-				if(proxyUrl.startsWith("https"))
-					proxyScheme = "https";
-				else
-					proxyScheme = "http";
+		/* OPTIONAL PARAMETERS */
+		int proxyPort = 0;
+		String proxyUrl = urlProps.getProperty(KEY_PROXY_URL);
+		String proxyScheme = null;
+		String proxyDomain = null;
 
-				try {
-					proxyPort = Integer.parseInt(proxyDomain.substring(proxyDomain.indexOf(":")+1));
-				} catch (NumberFormatException e1) {
-					//proxy's are rarely on standard ports so we can't safely recover from this one
-					throw new SQLException("The proxy server port must be included in the proxyUrl using standard port notation. EG: http://myproxy.ext:800", "08S01", e1);
-				}
-
-				if(proxyDomain.contains(":")) proxyDomain = proxyDomain.substring(0, proxyDomain.indexOf(":"));
-			}
+		if(proxyUrl!=null && !proxyUrl.isEmpty()){
+			proxyDomain = getDomainString(proxyUrl);
 
+			if(proxyUrl.startsWith("https"))
+				proxyScheme = "https";
+			else
+				proxyScheme = "http";
 
-			int timeout;
 			try {
-				timeout = Integer.parseInt(urlProps.getProperty(KEY_TIMEOUT));
+				proxyPort = Integer.parseInt(proxyDomain.substring(proxyDomain.indexOf(":")+1));
 			} catch (NumberFormatException e1) {
-				timeout=0;
+				//proxy's are rarely on standard ports so we can't safely recover from this one
+				throw new SQLException("The proxy server port must be included in the proxyUrl using standard port notation. EG: http://myproxy.ext:800", "08S01", e1);
 			}
 
-			boolean nonVerifiedSSL = "true".equals(urlProps.getProperty(KEY_NV_SSL));
-			boolean dummyUA = "true".equals(urlProps.getProperty(KEY_USE_UA));
-			boolean debug = "true".equals(urlProps.getProperty(KEY_DEBUG));
-
-			// logging. Mainly for debugging
-			if(debug){
-				setupLogging(
-						urlProps.getProperty(KEY_DEBUG_LOG)
-						, urlProps.getProperty(KEY_DEBUG_LEVEL));
-			}
-
-			/* Fire-up a database connection with a database-server. */
-			connection = new WCConnection(
-					url,
+			if(proxyDomain.contains(":")) proxyDomain = proxyDomain.substring(0, proxyDomain.indexOf(":"));
+		}
 
-					hostScheme,
-					hostDomain,
-					hostPort,
-					hostPath,
 
-					hostUser,
-					hostPass,
+		int timeout;
+		try {
+			timeout = Integer.parseInt(urlProps.getProperty(KEY_TIMEOUT));
+		} catch (NumberFormatException e1) {
+			timeout=0;
+		}
 
-					dbType,
-					dbName,
-					dbUser,
-					dbPass,
+		int maxPerRoute = getIntProperty(urlProps, KEY_POOL_MAX_ROUTE);
+		int maxTotal = getIntProperty(urlProps, KEY_POOL_MAX_TOTAL);
+		int idleTimeout = getIntProperty(urlProps, KEY_POOL_IDLE);
+		int batchBytes = getIntProperty(urlProps, KEY_BATCH_BYTES);
+		int keepAlive = getIntProperty(urlProps, KEY_KEEP_ALIVE);
+
+		boolean nonVerifiedSSL = "true".equals(urlProps.getProperty(KEY_NV_SSL));
+		boolean dummyUA = "true".equals(urlProps.getProperty(KEY_USE_UA));
+		boolean serverPrepare = "true".equals(urlProps.getProperty(KEY_SERVER_PREPARE));
+		boolean rewriteBatch = "true".equals(urlProps.getProperty(KEY_REWRITE_BATCH));
+		boolean pipeline = "true".equals(urlProps.getProperty(KEY_PIPELINE));
+		boolean verifySession = "true".equals(urlProps.getProperty(KEY_VERIFY_SESSION));
+		boolean stateless = "true".equals(urlProps.getProperty(KEY_STATELESS));
+		boolean cursorFetch = "true".equals(urlProps.getProperty(KEY_CURSOR_FETCH));
+		boolean debug = "true".equals(urlProps.getProperty(KEY_DEBUG));
+
+		// logging. Mainly for debugging
+		if(debug){
+			setupLogging(
+					urlProps.getProperty(KEY_DEBUG_LOG)
+					, urlProps.getProperty(KEY_DEBUG_LEVEL));
+		}
 
-					nonVerifiedSSL,
-					timeout,
-					debug,
-					dummyUA,
+		/* Fire-up a database connection with a database-server. */
+		connection = new WCConnection(
+				url,
+
+				hostScheme,
+				hostDomain,
+				hostPort,
+				hostPath,
+
+				hostUser,
+				hostPass,
+
+				dbType,
+				dbName,
+				dbUser,
+				dbPass,
+
+				nonVerifiedSSL,
+				timeout,
+				debug,
+				dummyUA,
+
+				proxyScheme,
+				proxyDomain,
+				proxyPort,
+
+				maxPerRoute,
+				maxTotal,
+				idleTimeout,
+
+				serverPrepare,
+				rewriteBatch,
+				batchBytes,
+				pipeline,
+				verifySession,
+				keepAlive,
+				stateless,
+				cursorFetch
+				);
+		return connection;
+	}
 
-					proxyScheme,
-					proxyDomain,
-					proxyPort
-					);
+	/**
+	 * @return the int value of an optional property or 0 (zero) if its missing or invalid.
+	 */
+	private final static int getIntProperty(Properties urlProps, String key){
+		try {
+			return Integer.parseInt(urlProps.getProperty(key));
+		} catch (NumberFormatException e) {
+			return 0;
 		}
-		return connection;
 	}
 
 	private final static String getStaticVersion(){
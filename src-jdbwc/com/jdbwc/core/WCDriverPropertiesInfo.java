@@ -214,6 +214,19 @@ public class WCDriverPropertiesInfo {
 		properties.add(new DriverProperty(WCDriver.KEY_TIMEOUT, 15, false, "60000", null, "Timeout in milliseconds. Zero indicates no limit."));
 		properties.add(new DriverProperty(WCDriver.KEY_USE_UA, 5, false, "false", new String[]{"true","false"}, "If true, a dummy User-Agent will be used in place of the default apache httpclient agent."));
 
+		properties.add(new DriverProperty(WCDriver.KEY_POOL_MAX_ROUTE, 5, false, "10", null, "Maximum open sockets to the server for this connection. Sockets are pooled and shared by every connection to the same server, the pool holds the sum of their limits."));
+		properties.add(new DriverProperty(WCDriver.KEY_POOL_MAX_TOTAL, 5, false, "50", null, "Maximum open sockets this connection adds to the shared pool."));
+		properties.add(new DriverProperty(WCDriver.KEY_POOL_IDLE, 10, false, "100", null, "Seconds a pooled socket can sit idle before it's closed. Set by the first connection to open the shared pool."));
+
+		properties.add(new DriverProperty(WCDriver.KEY_SERVER_PREPARE, 5, false, "false", new String[]{"true","false"}, "If true, PreparedStatement batches are prepared on the server once per request and only their parameters are sent. Single executes always send the SQL with its parameters filled in."));
+		properties.add(new DriverProperty(WCDriver.KEY_REWRITE_BATCH, 5, false, "false", new String[]{"true","false"}, "If true, batched single row INSERTs are sent as multi-row INSERTs."));
+		properties.add(new DriverProperty(WCDriver.KEY_BATCH_BYTES, 10, false, "1048576", null, "Rough size in bytes of each request sent for a batch. Keep it below the servers max_allowed_packet and post_max_size."));
+		properties.add(new DriverProperty(WCDriver.KEY_PIPELINE, 5, false, "false", new String[]{"true","false"}, "If true, statements that don't return results (session SETs, savepoints and updates run with Statement.execute()) are queued and sent with the next request."));
+		properties.add(new DriverProperty(WCDriver.KEY_KEEP_ALIVE, 10, false, "0", null, "Seconds a connection can go without contacting the server before it is pinged in the background. Keeps the server session open and isClosed() up to date. 0 (zero) turns it off."));
+		properties.add(new DriverProperty(WCDriver.KEY_STATELESS, 5, false, "false", new String[]{"true","false"}, "If true, the server is asked for a signed token instead of a session so requests on a connection can run in parallel. Needs WC_TOKEN_SECRET set on the server. Server-side prepared statements and cursors are not used."));
+		properties.add(new DriverProperty(WCDriver.KEY_CURSOR_FETCH, 5, false, "false", new String[]{"true","false"}, "If true, forward-only SELECTs on a Statement with a fetch size are read a window of fetchSize rows per request. Each window runs the query again with LIMIT and OFFSET, so the query needs a unique ORDER BY and uniquely named columns, and rows written between windows can be skipped or repeated. Otherwise rows are streamed from a single request."));
+		properties.add(new DriverProperty(WCDriver.KEY_VERIFY_SESSION, 5, false, "false", new String[]{"true","false"}, "If true, getAutoCommit(), getTransactionIsolation() and isReadOnly() always ask the server instead of answering from the drivers own record of the session."));
+
 		properties.add(new DriverProperty(WCDriver.KEY_DEBUG, 5, false, "false", new String[]{"true","false"}, "If true, debugging will be enabled."));
 		properties.add(new DriverProperty(WCDriver.KEY_DEBUG_LEVEL, 5, false, "0", new String[]{"0","1","2","3","4","5"}, "Represents the debugging level. Can be 0 to 5, zero being the lowest level."));
 		properties.add(new DriverProperty(WCDriver.KEY_DEBUG_LOG, 32, false, "SimpleLog", new String[]{"SimpleLog"}, "The type of logger to use for debugging output."));
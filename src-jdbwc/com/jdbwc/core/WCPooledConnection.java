@@ -0,0 +1,331 @@
+/* ********************************************************************
+ * Copyright (C) 2012 Oz-DevWorX (Tim Gall)
+ * ********************************************************************
+ * This file is part of JDBWC.
+ *
+ * JDBWC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JDBWC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JDBWC.  If not, see <http://www.gnu.org/licenses/>.
+ * ********************************************************************
+ */
+package com.jdbwc.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.PooledConnection;
+import javax.sql.StatementEventListener;
+
+import com.jdbwc.iface.Connection;
+
+/**
+ * javax.sql.PooledConnection implementation.<br />
+ * <br />
+ * Wraps one authenticated WCConnection and hands out logical Connections for it.
+ * Closing a logical Connection puts the session back the way it was
+ * when this PooledConnection was created, then tells the listeners
+ * the physical connection is free again. The physical connection
+ * (and its server session) stays open until <code>close()</code> is called.<br />
+ * <br />
+ * Session state is only reset if it was changed through the logical Connection,
+ * so returning an unchanged Connection costs no requests:
+ * <ul>
+ * <li>Statements opened through the logical Connection are closed.</li>
+ * <li>If auto-commit was turned off, the open transaction is rolled back
+ * and auto-commit is turned back on.</li>
+ * <li>The transaction isolation level is restored if it was changed.</li>
+ * <li>The read-only setting and catalog are restored if they were changed.</li>
+ * </ul>
+ * Changes made with plain SQL (EG: <code>SET autocommit=0</code>) can't be seen
+ * and are not reset.<br />
+ * <br />
+ * Any SQLException with a connection SQLState (class 08) is reported to the
+ * listeners as a connection error so pools can drop the physical connection.
+ *
+ * @author Tim Gall
+ * @version 2012-04-10
+ */
+public class WCPooledConnection implements PooledConnection {
+
+	//--------------------------------------------------------- fields
+
+	private final transient WCConnection myConnection;
+	private final transient List<ConnectionEventListener> myListeners = new CopyOnWriteArrayList<ConnectionEventListener>();
+
+	/* session state to restore when a logical connection is closed */
+	private final transient String myCatalog;
+	private final transient boolean myReadOnly;
+
+	private final transient Object myLock = new Object();
+	/** guarded by myLock */
+	private transient LogicalConnection myHandle = null;
+	private transient volatile long myLastUsed;
+
+	//--------------------------------------------------------- constructors
+
+	/**
+	 * @param connection an open, authenticated connection.
+	 * @throws SQLException
+	 */
+	protected WCPooledConnection(final WCConnection connection) throws SQLException {
+		myConnection = connection;
+		myCatalog = connection.getCatalog();
+		myReadOnly = connection.isReadOnly();
+		myLastUsed = System.currentTimeMillis();
+	}
+
+	//--------------------------------------------------------- public methods
+
+	/**
+	 * Any logical Connection previously handed out by this PooledConnection
+	 * is closed first.
+	 *
+	 * @see javax.sql.PooledConnection#getConnection()
+	 */
+	public java.sql.Connection getConnection() throws SQLException {
+		synchronized(myLock){
+			if(myConnection.isClosedLocally()){
+				throw new SQLException("PooledConnection has been closed.", "08003");
+			}
+			if(myHandle!=null){
+				myHandle.close(false);
+			}
+
+			myHandle = new LogicalConnection();
+			return (java.sql.Connection)Proxy.newProxyInstance(
+					Connection.class.getClassLoader(),
+					new Class<?>[]{Connection.class},
+					myHandle);
+		}
+	}
+
+	/**
+	 * Closes the physical connection.
+	 *
+	 * @see javax.sql.PooledConnection#close()
+	 */
+	public void close() throws SQLException {
+		synchronized(myLock){
+			if(myHandle!=null){
+				myHandle.myClosed = true;
+				myHandle = null;
+			}
+		}
+		myConnection.close();
+	}
+
+	/**
+	 * @see javax.sql.PooledConnection#addConnectionEventListener(javax.sql.ConnectionEventListener)
+	 */
+	public void addConnectionEventListener(final ConnectionEventListener listener) {
+		if(listener!=null)
+			myListeners.add(listener);
+	}
+
+	/**
+	 * @see javax.sql.PooledConnection#removeConnectionEventListener(javax.sql.ConnectionEventListener)
+	 */
+	public void removeConnectionEventListener(final ConnectionEventListener listener) {
+		myListeners.remove(listener);
+	}
+
+	/**
+	 * Statements are not pooled so no statement events are sent.
+	 *
+	 * @see javax.sql.PooledConnection#addStatementEventListener(javax.sql.StatementEventListener)
+	 */
+	public void addStatementEventListener(final StatementEventListener listener) {
+		// statements are not pooled
+	}
+
+	/**
+	 * @see javax.sql.PooledConnection#removeStatementEventListener(javax.sql.StatementEventListener)
+	 */
+	public void removeStatementEventListener(final StatementEventListener listener) {
+		// statements are not pooled
+	}
+
+	//--------------------------------------------------------- protected methods
+
+	/**
+	 * Checks the physical connection is usable.<br />
+	 * A connection that was in use within the last <code>interval</code> ms
+	 * is trusted without contacting the server. Older connections are pinged.
+	 *
+	 * @param interval ms a connection can sit idle before it gets pinged.
+	 * @param timeout ping timeout in ms.
+	 * @return true if the physical connection can be handed out again.
+	 */
+	protected boolean validate(final long interval, final int timeout) {
+		if(myConnection.isClosedLocally())
+			return false;
+
+		if(System.currentTimeMillis() - myLastUsed < interval)
+			return true;
+
+		if(myConnection.ping(timeout)){
+			myLastUsed = System.currentTimeMillis();
+			return true;
+		}
+		return false;
+	}
+
+	//--------------------------------------------------------- private methods
+
+	private void fireClosed() {
+		final ConnectionEvent event = new ConnectionEvent(this);
+		for(ConnectionEventListener listener : myListeners){
+			listener.connectionClosed(event);
+		}
+	}
+
+	private void fireError(final SQLException e) {
+		final ConnectionEvent event = new ConnectionEvent(this, e);
+		for(ConnectionEventListener listener : myListeners){
+			listener.connectionErrorOccurred(event);
+		}
+	}
+
+	private static boolean isFatal(final SQLException e) {
+		final String state = e.getSQLState();
+		return state!=null && state.startsWith("08");
+	}
+
+	//--------------------------------------------------------- inner classes
+
+	/**
+	 * Handles calls made on a logical Connection.
+	 * Everything except <code>close()</code> goes to the physical connection.
+	 */
+	private class LogicalConnection implements InvocationHandler {
+
+		private transient volatile boolean myClosed = false;
+
+		/* changes made through this handle */
+		private transient boolean myAutoCommit = true;
+		private transient int myIsolation = -1;
+		private transient int myOriginalIsolation = -1;
+		private final transient List<Statement> myStatements = new ArrayList<Statement>();
+
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String name = method.getName();
+
+			if(method.getDeclaringClass()==Object.class){
+				if("equals".equals(name))
+					return Boolean.valueOf(proxy==args[0]);
+				if("hashCode".equals(name))
+					return Integer.valueOf(System.identityHashCode(proxy));
+				return "Logical connection for " + myConnection.toString();
+			}
+
+			if("close".equals(name)){
+				close(true);
+				return null;
+			}
+			if("isClosed".equals(name)){
+				return Boolean.valueOf(myClosed || myConnection.isClosedLocally());
+			}
+			if(myClosed){
+				if("isValid".equals(name))
+					return Boolean.FALSE;
+				throw new SQLException("Connection is closed.", "08003");
+			}
+
+			if("setTransactionIsolation".equals(name) && myOriginalIsolation < 0){
+				myOriginalIsolation = myConnection.getTransactionIsolation();
+			}
+
+			final Object result;
+			try {
+				result = method.invoke(myConnection, args);
+			} catch (InvocationTargetException e) {
+				final Throwable cause = e.getCause();
+				if(cause instanceof SQLException && isFatal((SQLException)cause)){
+					myClosed = true;
+					fireError((SQLException)cause);
+				}
+				throw cause;
+			}
+
+			if("setAutoCommit".equals(name)){
+				myAutoCommit = ((Boolean)args[0]).booleanValue();
+			}else if("setTransactionIsolation".equals(name)){
+				myIsolation = ((Integer)args[0]).intValue();
+			}else if(result instanceof Statement){
+				myStatements.add((Statement)result);
+			}
+			return result;
+		}
+
+		/**
+		 * Resets the session and optionally tells the listeners.
+		 * A failed reset is sent as a connection error instead.
+		 *
+		 * @param notify true to send the closed event.
+		 */
+		private void close(final boolean notify) throws SQLException {
+			synchronized(myLock){
+				if(myClosed)
+					return;
+				myClosed = true;
+				if(myHandle==this)
+					myHandle = null;
+			}
+
+			try {
+				reset();
+			} catch (SQLException e) {
+				fireError(e);
+				return;
+			}
+
+			myLastUsed = System.currentTimeMillis();
+			if(notify)
+				fireClosed();
+		}
+
+		private void reset() throws SQLException {
+			for(Statement statement : myStatements){
+				try {
+					statement.close();
+				} catch (SQLException e) {
+					// ignore, the session is still usable
+				}
+			}
+			myStatements.clear();
+
+			if(!myAutoCommit){
+				myConnection.rollback();
+				myConnection.setAutoCommit(true);
+			}
+			if(myOriginalIsolation > -1 && myIsolation!=myOriginalIsolation){
+				myConnection.setTransactionIsolation(myOriginalIsolation);
+			}
+			if(myConnection.isReadOnly()!=myReadOnly){
+				myConnection.setReadOnly(myReadOnly);
+			}
+			final String catalog = myConnection.getCatalog();
+			if(catalog==null ? myCatalog!=null : !catalog.equals(myCatalog)){
+				myConnection.setCatalog(myCatalog);
+			}
+		}
+	}
+}
@@ -22,8 +22,10 @@ package com.jdbwc.core;
 import java.io.InputStream;
 import java.io.Reader;
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.net.URL;
 import java.sql.Array;
+import java.sql.BatchUpdateException;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Date;
@@ -38,11 +40,16 @@ import java.sql.SQLException;
 import java.sql.SQLXML;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Locale;
 
 import com.jdbwc.core.util.SQLParamParser;
+import com.jdbwc.core.util.SQLUtils;
 import com.jdbwc.exceptions.NotImplemented;
 import com.jdbwc.util.Util;
 import com.ozdevworx.dtype.DataHandler;
@@ -57,9 +64,15 @@ public class WCPreparedStatement extends WCStatement implements PreparedStatemen
 
 	private transient ResultSet myCurrentResultSet = null;
 
+	private static final String MY_LOST_HANDLE = "The server lost the prepared statement before it could be executed.";
+
 	/** stores sql added via addBatch */
 	private transient StringBuilder myBatchStatement = null;
 
+	/** parameters added via addBatch() that can still be sent as typed rows.
+	 * null once the batch holds SQL */
+	private transient List<DataHandler> myBatchRows = null;
+
 	/** stores prepared statements that are being built */
 	private transient DataHandler myPrepStatement = null;
 
@@ -95,6 +108,16 @@ public class WCPreparedStatement extends WCStatement implements PreparedStatemen
 		return "'" + stringVal + "'";
 	}
 
+	/**
+	 * Reverses <code>wrapString()</code>.
+	 *
+	 * @param wrappedVal A String prepared with <code>wrapString()</code>.
+	 * @return the original String.
+	 */
+	protected String unwrapString(String wrappedVal){
+		return wrappedVal.substring(1, wrappedVal.length()-1);
+	}
+
 
 
 	/**
@@ -113,23 +136,366 @@ public class WCPreparedStatement extends WCStatement implements PreparedStatemen
 	 */
 	private void initialiseInstance(String stmntSkeleton) {
 		myBatchStatement = new StringBuilder();
+		myBatchRows = new ArrayList<DataHandler>();
 		myPrepStatement = Util.getCaseSafeHandler(Util.CASE_MIXED);
 		myPrepStatement.addData("sql", stmntSkeleton);
 	}
 
+	/**
+	 * Executes the typed batch rows as a server-side prepared statement.<br />
+	 * Rows are sent as a parameter matrix in requests of roughly
+	 * <code>WCConnection.getBatchBytes()</code>. The server runs each request in one transaction.
+	 *
+	 * @return the rows affected by each batch row
+	 * or null if the batch wasn't executed and the client-side path should be used.
+	 * @throws SQLException
+	 */
+	private int[] executeBatchOnServer() throws SQLException {
+		final String sql = getServerSql();
+		if(sql==null){
+			return null;
+		}
+
+		final int width = SQLParamParser.countParams(sql);
+		final int budget = myConnection.getBatchBytes();
+		final String[] row = new String[width];
+		final StringBuilder rowTypes = new StringBuilder(width);
+
+		// every row is checked first so nothing is sent for a batch that can't be typed
+		final int rowCount = myBatchRows.size();
+		for(int r = 0; r < rowCount; r++){
+			rowTypes.setLength(0);
+			if(myBatchRows.get(r).length()-1!=width || !encodeParams(myBatchRows.get(r), row, rowTypes)){
+				return null;
+			}
+		}
+
+		final int[] counts = new int[rowCount];
+		final StringBuilder types = new StringBuilder();
+		final StringBuilder matrix = new StringBuilder();
+		int done = 0;
+		int rows = 0;
+		try {
+			for(int r = 0; r < rowCount; r++){
+				rowTypes.setLength(0);
+				encodeParams(myBatchRows.get(r), row, rowTypes);
+				types.append(rowTypes);
+				for(int i = 0; i < width; i++){
+					if(row[i]==null){
+						matrix.append("0:");
+					}else{
+						matrix.append(Util.utf8Length(row[i])).append(':').append(row[i]);
+					}
+				}
+				rows++;
+
+				if(matrix.length() >= budget || r==rowCount-1){
+					final int[] chunk = executeBatchChunk(sql, rows, types.toString(), matrix);
+					if(chunk==null){
+						if(done==0){
+							return null;
+						}
+						throw new SQLException(MY_LOST_HANDLE, "26000");
+					}
+					System.arraycopy(chunk, 0, counts, done, Math.min(chunk.length, rows));
+					done += rows;
+					rows = 0;
+					types.setLength(0);
+					matrix.setLength(0);
+				}
+			}
+		} catch (SQLException e) {
+			if(done==0 || e instanceof BatchUpdateException){
+				throw e;
+			}
+			// earlier requests were committed
+			throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Arrays.copyOf(counts, done), e);
+		}
+		return counts;
+	}
+
+	/**
+	 * Sends one request of batch rows, preparing the statement again
+	 * if the server has lost its handle.
+	 *
+	 * @return the rows affected by each row or null if the server doesn't support prepared statements.
+	 */
+	private int[] executeBatchChunk(final String sql, final int rows, final String types, final CharSequence matrix) throws SQLException {
+		for(int attempt = 0; attempt < 2; attempt++){
+			final String handle = getServerHandle(sql);
+			if(handle==null){
+				return null;
+			}
+			final int[] counts = executePreparedBatch(handle, rows, types, matrix);
+			if(counts!=null){
+				return counts;
+			}
+			myConnection.setPreparedHandle(sql, null);
+		}
+		throw new SQLException(MY_LOST_HANDLE, "26000");
+	}
+
+	/**
+	 * Folds the typed batch rows of a plain single row INSERT into multi-row INSERTs
+	 * if the connection rewrites batches (see <code>WCConnection.useRewriteBatch()</code>).<br />
+	 * Each INSERT is kept to roughly <code>WCConnection.getBatchBytes()</code>.
+	 *
+	 * @return the rows affected by each batch row
+	 * or null if the batch can't be rewritten and should be sent as single statements.
+	 * @throws SQLException
+	 */
+	private int[] executeRewrittenBatch() throws SQLException {
+		final String sql = getSingleSql();
+		if(sql==null || !myConnection.useRewriteBatch()){
+			return null;
+		}
+		final int valuesAt = SQLParamParser.findInsertValues(sql, myConnection.getDbType());
+		if(valuesAt < 0){
+			return null;
+		}
+
+		final String prefix = sql.substring(0, valuesAt);
+		final int prefixBytes = Util.utf8Length(prefix);
+		final int budget = myConnection.getBatchBytes();
+
+		final int rowCount = myBatchRows.size();
+		final int[] counts = new int[rowCount];
+		final StringBuilder insert = new StringBuilder(prefix);
+		int insertBytes = prefixBytes;
+		int done = 0;
+		int rows = 0;
+		try {
+			for(int r = 0; r < rowCount; r++){
+				final DataHandler params = myBatchRows.get(r);
+				params.setData(0, sql);
+				final String values = SQLParamParser.populateValues(params, valuesAt);
+				final int valuesBytes = Util.utf8Length(values) + 1;
+
+				if(rows > 0 && insertBytes + valuesBytes > budget){
+					done = executeRewrittenRows(insert.toString(), counts, done, rows);
+					insert.setLength(prefix.length());
+					insertBytes = prefixBytes;
+					rows = 0;
+				}
+				if(rows > 0){
+					insert.append(',');
+				}
+				insert.append(values);
+				insertBytes += valuesBytes;
+				rows++;
+			}
+			done = executeRewrittenRows(insert.toString(), counts, done, rows);
+		} catch (SQLException e) {
+			if(done==0){
+				throw e;
+			}
+			// earlier INSERTs were applied
+			throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Arrays.copyOf(counts, done), e);
+		}
+		return counts;
+	}
+
+	/**
+	 * Runs one multi-row INSERT and records a count for each of its rows.
+	 * Rows get 1 (one) each when the server reports every row inserted,
+	 * otherwise <code>SUCCESS_NO_INFO</code>.
+	 *
+	 * @return the number of batch rows done.
+	 */
+	private int executeRewrittenRows(final String insert, final int[] counts, final int done, final int rows) throws SQLException {
+		final int inserted = super.executeUpdate(insert);
+		Arrays.fill(counts, done, done + rows, inserted==rows ? 1 : SUCCESS_NO_INFO);
+		return done + rows;
+	}
+
+	/**
+	 * @return this statements SQL ready to prepare on the server
+	 * or null if it should use the client-side path.
+	 */
+	private String getServerSql(){
+		if(!myConnection.useServerPrepare()){
+			return null;
+		}
+
+		final String sql = getSingleSql();
+		if(sql==null || SQLUtils.isSqlARoutine(sql)){
+			return null;
+		}
+		return sql;
+	}
+
+	/**
+	 * @return this statements SQL without a trailing semicolon
+	 * or null if it holds more than one statement.
+	 */
+	private String getSingleSql(){
+		if(myPrepStatement==null){
+			return null;
+		}
+
+		String sql = myPrepStatement.getString(0).trim();
+		if(sql.endsWith(";")){
+			sql = sql.substring(0, sql.length()-1).trim();
+		}
+		if(sql.indexOf(';') > -1){
+			return null;
+		}
+		return sql;
+	}
+
+	/**
+	 * @param sql from <code>getSingleSql()</code>
+	 * @return true if batch rows for sql should be kept as parameters until <code>executeBatch()</code>.
+	 */
+	private boolean isRowBatch(final String sql){
+		if(sql==null || SQLParamParser.countParams(sql)!=myPrepStatement.length()-1){
+			return false;
+		}
+		return getServerSql()!=null
+			|| (myConnection.useRewriteBatch() && SQLParamParser.findInsertValues(sql, myConnection.getDbType()) > -1);
+	}
+
+	/**
+	 * Gets the servers handle for sql, preparing it if needed.
+	 * Server-side prepared statements are turned off for the connection
+	 * if the server doesn't support them.
+	 *
+	 * @param sql from <code>getServerSql()</code>
+	 * @return the handle or null if the server doesn't support prepared statements.
+	 */
+	private String getServerHandle(final String sql) throws SQLException {
+		String handle = myConnection.getPreparedHandle(sql);
+		if(handle==null){
+			handle = prepareOnServer(sql);
+			if(handle==null){
+				myConnection.disableServerPrepare();
+			}else{
+				myConnection.setPreparedHandle(sql, handle);
+			}
+		}
+		return handle;
+	}
+
+	/**
+	 * Converts a set of stored parameters to values and types for the server.
+	 *
+	 * @param stored stored parameters. Index 0 (zero) is the SQL
+	 * @param params receives the values. Must hold one entry per parameter
+	 * @param types receives the types
+	 * @return false if a parameter can't be sent typed.
+	 */
+	private boolean encodeParams(final DataHandler stored, final String[] params, final StringBuilder types){
+		for(int i = 0; i < params.length; i++){
+			if(!encodeParam(stored.getKey(i+1), stored.getObject(i+1), params, i, types)){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Converts a stored parameter to a value and type for the server.
+	 *
+	 * @param type the parameters storage type
+	 * @param value the stored value
+	 * @param params receives the value
+	 * @param index the parameters position in params
+	 * @param types receives the type
+	 * @return false if the parameter can't be sent typed.
+	 */
+	private boolean encodeParam(final String type, final Object value, final String[] params, final int index, final StringBuilder types){
+		char paramType;
+		String param;
+
+		if("null".equals(type) || value==null){
+			paramType = 'n';
+			param = null;
+		}else if("String".equals(type)){
+			paramType = 's';
+			param = unwrapString(value.toString());
+		}else if("boolean".equals(type) || value instanceof Boolean){
+			paramType = 'i';
+			param = Boolean.parseBoolean(value.toString()) ? "1" : "0";
+		}else if(value instanceof Byte || value instanceof Short || value instanceof Integer
+				|| value instanceof Long || value instanceof BigInteger){
+			paramType = 'i';
+			param = value.toString();
+		}else if(value instanceof Float || value instanceof Double){
+			if(Double.isNaN(((Number)value).doubleValue()) || Double.isInfinite(((Number)value).doubleValue())){
+				return false;
+			}
+			paramType = 'd';
+			param = value.toString();
+		}else if(value instanceof BigDecimal){
+			paramType = 'd';
+			param = ((BigDecimal)value).toPlainString();
+		}else if("Object".equals(type)){
+			paramType = 's';
+			param = value.toString();
+		}else{
+			return false;
+		}
+
+		params[index] = param;
+		types.append(paramType);
+		return true;
+	}
+
 	/**
 	 * @see java.sql.PreparedStatement#addBatch()
 	 */
 	public void addBatch() throws SQLException {
 		if(!myPrepStatement.isEmpty()){
+			if(myBatchRows!=null && isRowBatch(getSingleSql())){
+				// kept as parameters until executeBatch() knows how they can be sent
+				myBatchRows.add(copyParams(myPrepStatement));
+				return;
+			}
+			untypeBatch();
+
 			String newBatchPart = SQLParamParser.populateParams(myPrepStatement);
 
-			myBatchStatement.append(newBatchPart);
+			appendBatchSql(newBatchPart);
 
 			//System.err.println("```````````````````````` START\n" + newBatchPart + "\n`````````````````````````` END");
 		}
 	}
 
+	/**
+	 * Moves any typed batch rows into the SQL batch.
+	 * Rows added after this are added as SQL.
+	 */
+	private void untypeBatch() throws SQLException {
+		if(myBatchRows!=null){
+			for(DataHandler params : myBatchRows){
+				appendBatchSql(SQLParamParser.populateParams(params));
+			}
+			myBatchRows = null;
+		}
+	}
+
+	/**
+	 * Adds a statement to the SQL batch, terminating it if needed.
+	 */
+	private void appendBatchSql(final String sql){
+		myBatchStatement.append(sql);
+		if(!sql.trim().endsWith(";")){
+			myBatchStatement.append(";");
+		}
+	}
+
+	/**
+	 * @return a copy of the SQL and parameters set so far.
+	 */
+	private DataHandler copyParams(final DataHandler params){
+		final DataHandler copy = Util.getCaseSafeHandler(Util.CASE_MIXED);
+		final int size = params.length();
+		for(int i = 0; i < size; i++){
+			copy.addData(params.getKey(i), params.getObject(i));
+		}
+		return copy;
+	}
+
 	/**
 	 * @see java.sql.PreparedStatement#clearParameters()
 	 */
@@ -145,28 +511,34 @@ public class WCPreparedStatement extends WCStatement implements PreparedStatemen
 	 * @see java.sql.PreparedStatement#execute()
 	 */
 	public boolean execute() throws SQLException {
-		boolean hasResults = super.execute(SQLParamParser.populateParams(myPrepStatement));
-		if(hasResults){
-			myCurrentResultSet = super.getResultSet();
-		}
+		synchronized(myExecuteLock){
+			boolean hasResults = super.execute(SQLParamParser.populateParams(myPrepStatement));
+			if(hasResults){
+				myCurrentResultSet = super.getResultSet();
+			}
 
-		return hasResults;
+			return hasResults;
+		}
 	}
 
 	/**
 	 * @see java.sql.PreparedStatement#executeQuery()
 	 */
 	public ResultSet executeQuery() throws SQLException {
-		myCurrentResultSet = super.executeQuery(SQLParamParser.populateParams(myPrepStatement));
-		return myCurrentResultSet;
+		synchronized(myExecuteLock){
+			myCurrentResultSet = super.executeQuery(SQLParamParser.populateParams(myPrepStatement));
+			return myCurrentResultSet;
+		}
 	}
 
 	/**
 	 * @see java.sql.PreparedStatement#executeUpdate()
 	 */
 	public int executeUpdate() throws SQLException {
-		executeQuery();
-		return myCurrentResultSet.getFetchSize();
+		synchronized(myExecuteLock){
+			executeQuery();
+			return myCurrentResultSet.getFetchSize();
+		}
 	}
 
 	/**
@@ -480,9 +852,9 @@ public class WCPreparedStatement extends WCStatement implements PreparedStatemen
 	 */
 	public void setNull(int parameterIndex, int sqlType) throws SQLException {
 		if(myPrepStatement.hasKey(parameterIndex)){
-			myPrepStatement.setData(parameterIndex, "long", sqlType);
+			myPrepStatement.setData(parameterIndex, "null", "NULL");
 		}else{
-			myPrepStatement.addData("long", sqlType);
+			myPrepStatement.addData("null", "NULL");
 		}
 	}
 
@@ -560,7 +932,9 @@ public class WCPreparedStatement extends WCStatement implements PreparedStatemen
 	 * @see java.sql.PreparedStatement#setString(int, java.lang.String)
 	 */
 	public void setString(int parameterIndex, String x) throws SQLException {
-		if(myPrepStatement.hasKey(parameterIndex)){
+		if(x==null){
+			setNull(parameterIndex, Types.VARCHAR);
+		}else if(myPrepStatement.hasKey(parameterIndex)){
 			myPrepStatement.setData(parameterIndex, "String", wrapString(x));
 		}else{
 			myPrepStatement.addData("String", wrapString(x));
@@ -633,10 +1007,8 @@ public class WCPreparedStatement extends WCStatement implements PreparedStatemen
 	 */
 	@Override
 	public void addBatch(String sql) throws SQLException {
-		myBatchStatement.append(sql);
-		if(!sql.trim().endsWith(";")){
-			myBatchStatement.append(";");
-		}
+		untypeBatch();
+		appendBatchSql(sql);
 	}
 
 	/**
@@ -653,6 +1025,7 @@ public class WCPreparedStatement extends WCStatement implements PreparedStatemen
 	@Override
 	public void clearBatch() throws SQLException {
 		myBatchStatement = new StringBuilder();
+		myBatchRows = new ArrayList<DataHandler>();
 		super.clearBatch();
 	}
 
@@ -677,9 +1050,28 @@ public class WCPreparedStatement extends WCStatement implements PreparedStatemen
 	 */
 	@Override
 	public int[] executeBatch() throws SQLException {
-		super.clearBatch();
-		super.addBatch(myBatchStatement.toString());
-		return super.executeBatch();
+		synchronized(myExecuteLock){
+			try {
+				int[] counts = null;
+				if(myBatchRows!=null && !myBatchRows.isEmpty()){
+					counts = executeBatchOnServer();
+					if(counts==null){
+						counts = executeRewrittenBatch();
+					}
+				}
+				if(counts==null){
+					untypeBatch();
+					super.clearBatch();
+					super.addBatch(myBatchStatement.toString());
+					counts = super.executeBatch();
+				}
+				return counts;
+			} finally {
+				// the superclass clears its own batch, keeping any batch resultsets
+				myBatchStatement = new StringBuilder();
+				myBatchRows = new ArrayList<DataHandler>();
+			}
+		}
 	}
 
 	/**
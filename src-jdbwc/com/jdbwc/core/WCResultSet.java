@@ -40,12 +40,15 @@ import java.sql.SQLXML;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.jdbwc.core.util.ColumnRow;
+import com.jdbwc.core.util.ColumnStore;
 import com.jdbwc.core.util.SQLField;
 import com.jdbwc.exceptions.NotImplemented;
 import com.jdbwc.iface.ResultSet;
@@ -70,6 +73,10 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	private transient final boolean useJdbcTzShift = true;// best left set to true for now
 
 	private transient WCResultSetMetaData internalMetaData = null;
+	/** the servers metadata section, kept undecoded until it's needed. See decodeMetaData() */
+	private transient String myRawMetaData = null;
+	/** the servers metadata table, kept undecoded until it's needed. See decodeMetaData() */
+	private transient WCResultSet myRawMetaRows = null;
 
 	protected transient String querySQL = null;
 
@@ -77,13 +84,26 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 
 	private transient boolean wasLastNull;
 
+	private transient int myCaseSafety;
+	/** column label, folded to myCaseSafety, to its 1 based column index. Filled as labels are used */
+	private transient final Map<String, Integer> myColumnIndexes = new HashMap<String, Integer>();
+
+	/** supplies rows on demand for forward-only resultsets. null when all rows are held in myRows */
+	private transient RowSource myRowSource = null;
+	/** a row read ahead of the cursor by isLast() or isBeforeFirst() */
+	private transient DataHandler myNextRow = null;
+	private transient boolean isStreamEnd = false;
+	private transient boolean isStreamClosed = false;
+	/** Statement.setMaxRows() when the rows were requested. 0 (zero) or less for no limit */
+	private transient int myMaxRows = 0;
+
 	//--------------------------------------------------------------- constructors
 
 	protected WCResultSet(WCConnection connection) throws SQLException{
 		super();
 		myConnection = connection;
 		myStatement = new WCStatement(myConnection, myConnection.getCatalog());
-		myRows = Util.getCaseSafeHandler(myConnection.getCaseSensitivity());
+		myRows = new ColumnStore(myConnection.getCaseSensitivity());
 
 		init(myConnection.getCaseSensitivity(), myConnection.getDbType(), "");
 	}
@@ -92,7 +112,7 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 		super();
 		myConnection = connection;
 		myStatement = new WCStatement(myConnection, myConnection.getCatalog());
-		myRows = Util.getCaseSafeHandler(myConnection.getCaseSensitivity());
+		myRows = new ColumnStore(myConnection.getCaseSensitivity());
 		internalMetaData = metaData;
 
 		init(myConnection.getCaseSensitivity(), myConnection.getDbType(), "");
@@ -102,7 +122,7 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 		super();
 		myConnection = connection;
 		myStatement = statement;
-		myRows = Util.getCaseSafeHandler(myConnection.getCaseSensitivity());
+		myRows = new ColumnStore(myConnection.getCaseSensitivity());
 
 		init(myConnection.getCaseSensitivity(), myConnection.getDbType(), "");
 	}
@@ -111,7 +131,7 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 		super();
 		myConnection = connection;
 		myStatement = statement;
-		myRows = Util.getCaseSafeHandler(myConnection.getCaseSensitivity());
+		myRows = new ColumnStore(myConnection.getCaseSensitivity());
 
 		init(myConnection.getCaseSensitivity(), myConnection.getDbType(), sql);
 	}
@@ -133,8 +153,32 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 		}
 	}
 
+	/**
+	 * Adds a row without building a DataHandler for it
+	 * when the rows are held in a ColumnStore.
+	 *
+	 * @param labels the column label for each value.
+	 * Pass the same array for every row of a table.
+	 * @param values the rows values.
+	 */
+	public void addRow(String[] labels, Object[] values){
+		if(myRows instanceof ColumnStore){
+			((ColumnStore)myRows).addRow(labels, values);
+		}else{
+			DataHandler row = Util.getCaseSafeHandler(myConnection.getCaseSensitivity());
+			final int limit = Math.min(labels.length, values.length);
+			for(int i = 0; i < limit; i++){
+				row.addData(labels[i], values[i]);
+			}
+			addRow(row);
+		}
+	}
+
 	public boolean next() throws SQLException{
 		isResultSetOpen();
+		if(myRowSource!=null){
+			return nextFromSource();
+		}
 		boolean hasNext = false;
 		if(myRows.getObject(myPointer+1) instanceof DataHandler){
 			movePointerForward();
@@ -146,6 +190,7 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 
 	public boolean previous() throws SQLException{
 		isResultSetOpen();
+		checkScrollable();
 		boolean hasPrevious = false;
 		if(myRows.getObject(myPointer-1) instanceof DataHandler){
 			movePointerBackward();
@@ -157,6 +202,7 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 
 	public boolean first() throws SQLException {
 		isResultSetOpen();
+		checkScrollable();
 		boolean hasFirst = false;
 		movePointerToStart();
 		if(myRows.getObject(myPointer) instanceof DataHandler){
@@ -171,6 +217,7 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 
 	public boolean last() throws SQLException {
 		isResultSetOpen();
+		checkScrollable();
 		boolean hasLast = false;
 		movePointerToEnd();
 		if(myRows.getObject(myPointer) instanceof DataHandler){
@@ -185,6 +232,9 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	}
 
 	public boolean isClosed() throws SQLException {
+		if(myRowSource!=null){
+			return isStreamClosed;
+		}
 		if(myRows.length()==0){
 			return true;
 		}
@@ -194,7 +244,7 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 
 	public boolean isFirst() throws SQLException {
 		isResultSetOpen();
-		if(myPointer==0){
+		if(myPointer==0 && !isStreamEnd){
 			return true;
 		}
 
@@ -203,6 +253,18 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 
 	public boolean isLast() throws SQLException {
 		isResultSetOpen();
+		if(myRowSource!=null){
+			if(myPointer < 0 || isStreamEnd){
+				return false;
+			}
+			if(isAtMaxRows()){
+				return true;
+			}
+			if(myNextRow==null){
+				myNextRow = myRowSource.nextRow();
+			}
+			return myNextRow==null;
+		}
 		if(myPointer==myRows.length()-1){
 			return true;
 		}
@@ -211,6 +273,11 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	}
 
 	public void close() throws SQLException {
+		if(myRowSource!=null){
+			myRowSource.close();
+			myNextRow = null;
+			isStreamClosed = true;
+		}
 		myRows.clearData();
 		myRow.clearData();
 		myPointer = -1;
@@ -225,6 +292,10 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	 * @see java.sql.ResultSet#getFetchSize()
 	 */
 	public int getFetchSize() throws SQLException {
+		if(myRowSource!=null){
+			//rows read so far
+			return isStreamEnd ? myPointer : myPointer+1;
+		}
 		synchronized (myRows) {
 			return myRows.length();
 		}
@@ -258,6 +329,11 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 
 
 	public int getInt(int columnIndex) throws SQLException {
+		if(isLongColumn(columnIndex)){
+			final long val = getLongValue(columnIndex);
+			if(val >= Integer.MIN_VALUE && val <= Integer.MAX_VALUE)
+				return (int)val;
+		}
 		Object obj = isIndexValid(columnIndex);
 		int val = 0;
 		if(obj==null)
@@ -274,6 +350,12 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	}
 
 	public int getInt(String columnLabel) throws SQLException {
+		final int columnIndex = getColumnIndex(columnLabel);
+		if(isLongColumn(columnIndex)){
+			final long val = getLongValue(columnIndex);
+			if(val >= Integer.MIN_VALUE && val <= Integer.MAX_VALUE)
+				return (int)val;
+		}
 		Object obj = isIndexValid(columnLabel);
 		int val = 0;
 		if(obj==null)
@@ -290,6 +372,9 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	}
 
 	public double getDouble(int columnIndex) throws SQLException {
+		if(isDoubleColumn(columnIndex)){
+			return getDoubleValue(columnIndex);
+		}
 		Object obj = isIndexValid(columnIndex);
 		double val = 0D;
 		if(obj==null)
@@ -306,6 +391,10 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	}
 
 	public double getDouble(String columnLabel) throws SQLException {
+		final int columnIndex = getColumnIndex(columnLabel);
+		if(isDoubleColumn(columnIndex)){
+			return getDoubleValue(columnIndex);
+		}
 		Object obj = isIndexValid(columnLabel);
 		double val = 0D;
 		if(obj==null)
@@ -378,6 +467,9 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	}
 
 	public long getLong(int columnIndex) throws SQLException {
+		if(isLongColumn(columnIndex)){
+			return getLongValue(columnIndex);
+		}
 		Object obj = isIndexValid(columnIndex);
 		long val = 0L;
 		if(obj==null)
@@ -394,6 +486,10 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	}
 
 	public long getLong(String columnLabel) throws SQLException {
+		final int columnIndex = getColumnIndex(columnLabel);
+		if(isLongColumn(columnIndex)){
+			return getLongValue(columnIndex);
+		}
 		Object obj = isIndexValid(columnLabel);
 		long val = 0L;
 		if(obj==null)
@@ -466,6 +562,7 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	 * @see java.sql.ResultSet#absolute(int)
 	 */
 	public boolean absolute(int row) throws SQLException {
+		checkScrollable();
 		boolean isAbsolute = false;
 		if( (myRows!=null) && (myRows.length() > 0) ){
 			if(row < 0){
@@ -488,6 +585,7 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	 * @see java.sql.ResultSet#afterLast()
 	 */
 	public void afterLast() throws SQLException {
+		checkScrollable();
 		myPointer = myRows.length();
 		myRow.clearData();
 	}
@@ -496,6 +594,7 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	 * @see java.sql.ResultSet#beforeFirst()
 	 */
 	public void beforeFirst() throws SQLException {
+		checkScrollable();
 		myPointer = 0;
 		getCurrentRow();
 	}
@@ -511,10 +610,8 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	 * @see java.sql.ResultSet#findColumn(java.lang.String)
 	 */
 	public int findColumn(String columnLabel) throws SQLException {
-		int index = 0;
-		if(myRow!=null && myRow.countMatches(columnLabel) > 0){
-			index = myRow.getIndex(columnLabel)+1;
-		}else{
+		final int index = getColumnIndex(columnLabel);
+		if(index==0){
 			throw new SQLException(
 					columnLabel + " not found in this ResultSet.",
 					"S0022");
@@ -1028,6 +1125,7 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	 * @see java.sql.ResultSet#getMetaData()
 	 */
 	public java.sql.ResultSetMetaData getMetaData() throws SQLException {
+		decodeMetaData();
 
 		if(internalMetaData!=null){
 			return internalMetaData;
@@ -1367,6 +1465,9 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	 * @see java.sql.ResultSet#getType()
 	 */
 	public int getType() throws SQLException {
+		if(myRowSource!=null){
+			return ResultSet.TYPE_FORWARD_ONLY;
+		}
 		return ResultSet.TYPE_SCROLL_INSENSITIVE;
 	}
 
@@ -1439,6 +1540,9 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	 * @see java.sql.ResultSet#isAfterLast()
 	 */
 	public boolean isAfterLast() throws SQLException {
+		if(myRowSource!=null){
+			return isStreamEnd && myPointer > 0;
+		}
 		return myPointer==myRows.length();
 	}
 
@@ -1446,6 +1550,15 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	 * @see java.sql.ResultSet#isBeforeFirst()
 	 */
 	public boolean isBeforeFirst() throws SQLException {
+		if(myRowSource!=null){
+			if(myPointer!=-1 || isStreamClosed){
+				return false;
+			}
+			if(myNextRow==null){
+				myNextRow = myRowSource.nextRow();
+			}
+			return myNextRow!=null;
+		}
 		return myPointer==0;
 	}
 
@@ -1453,6 +1566,7 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	 * @see java.sql.ResultSet#relative(int)
 	 */
 	public boolean relative(int rows) throws SQLException {
+		checkScrollable();
 		boolean isRelative = false;
 		if(rows > 0){
 			if(myRows.getObject(myPointer+rows) instanceof DataHandler){
@@ -1507,6 +1621,63 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 
 	protected void addMetaData(WCResultSetMetaData meta){
 		internalMetaData = meta;
+
+		// numeric columns can now be moved into primitive storage
+		if(meta!=null && myRows instanceof ColumnStore){
+			try {
+				final int[] types = new int[meta.getColumnCount()];
+				for(int i = 0; i < types.length; i++){
+					types[i] = meta.getColumnType(i+1);
+				}
+				((ColumnStore)myRows).setColumnTypes(types);
+			} catch (SQLException e) {
+				// rows stay as they were sent
+			}
+		}
+	}
+
+	/**
+	 * Keeps the servers metadata section for this ResultSet.
+	 * It is only decoded if it's needed.
+	 *
+	 * @param rawMetaData the metadata section of a .csv response.
+	 */
+	protected void setRawMetaData(String rawMetaData){
+		myRawMetaData = rawMetaData;
+		myRawMetaRows = null;
+	}
+
+	/**
+	 * Keeps the servers metadata table for this ResultSet.
+	 * It is only decoded if it's needed.
+	 *
+	 * @param metaRows the metadata table, one row per column.
+	 */
+	protected void setRawMetaData(WCResultSet metaRows){
+		myRawMetaData = null;
+		myRawMetaRows = metaRows;
+	}
+
+	/**
+	 * Makes this a forward-only ResultSet that reads its rows from source
+	 * as the cursor moves instead of holding them in memory.
+	 * Rows are not retained once the cursor has moved past them.
+	 *
+	 * @param source supplies the rows for this ResultSet.
+	 */
+	protected void setRowSource(RowSource source){
+		myRowSource = source;
+	}
+
+	/**
+	 * Limits a forward-only ResultSet to the first max rows of its RowSource.
+	 * The server applies the same limit, so this only stops the reading
+	 * for servers that sent more.
+	 *
+	 * @param max the most rows to read. 0 (zero) or less for no limit.
+	 */
+	protected void setMaxRows(int max){
+		myMaxRows = max;
 	}
 
 	/**
@@ -1943,6 +2114,7 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 
 	private void init(int CaseSensitivity, int dbType, String sql){
 		myRow = Util.getCaseSafeHandler(CaseSensitivity);
+		myCaseSafety = CaseSensitivity;
 		myPointer = -1;
 		querySQL = sql;
 		myDbType = dbType;
@@ -1977,7 +2149,7 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	}
 
 	private void isResultSetOpen() throws SQLException{
-		if(myRows==null){
+		if(myRows==null || isStreamClosed){
 			throw new SQLException(
 					"ResultSet returned a null Object.\n"
 					+ "This indicates your ResultSet is most likely closed.\n"
@@ -1986,6 +2158,130 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 		}
 	}
 
+	/**
+	 * Moves the cursor of a forward-only ResultSet to the next row from its RowSource.
+	 * The previous row is released.
+	 */
+	private boolean nextFromSource() throws SQLException{
+		if(isStreamEnd){
+			return false;
+		}
+
+		DataHandler row = myNextRow;
+		myNextRow = null;
+		if(isAtMaxRows()){
+			//a server that applied the limit only has the metadata left,
+			//which this read picks up. Anything else is more rows, so stop reading.
+			if(row!=null || myRowSource.nextRow()!=null){
+				myRowSource.close();
+			}
+			row = null;
+		}else if(row==null){
+			row = myRowSource.nextRow();
+		}
+
+		myPointer++;
+		if(row==null){
+			isStreamEnd = true;
+			myRow.clearData();
+			return false;
+		}
+		myRow = row;
+		return true;
+	}
+
+	/**
+	 * @return true if a forward-only ResultSet has read its max rows.
+	 */
+	private boolean isAtMaxRows(){
+		return myMaxRows > 0 && myPointer + 1 >= myMaxRows;
+	}
+
+	private void checkScrollable() throws SQLException{
+		if(myRowSource!=null){
+			throw new SQLException(
+					"Operation not allowed on a TYPE_FORWARD_ONLY ResultSet.",
+					"24000");
+		}
+	}
+
+	/**
+	 * Decodes metadata kept by setRawMetaData() into ResultSetMetaData.
+	 * Numeric columns move to primitive storage once their types are known.
+	 */
+	private void decodeMetaData() throws SQLException{
+		if(myRawMetaData!=null || myRawMetaRows!=null){
+			final String rawMetaData = myRawMetaData;
+			final WCResultSet metaRows = myRawMetaRows;
+			myRawMetaData = null;
+			myRawMetaRows = null;
+
+			final WCResultSetMetaData metadata = new ResultsProcessor().decodeMetaData(myConnection, rawMetaData, metaRows);
+			if(metadata!=null){
+				addMetaData(metadata);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the current rows column is held as a primitive long.
+	 */
+	private boolean isLongColumn(int columnIndex) throws SQLException{
+		decodeMetaData();
+		return myRow instanceof ColumnRow && ((ColumnRow)myRow).isLongColumn(columnIndex-1);
+	}
+
+	/**
+	 * @return true if the current rows column is held as a primitive double.
+	 */
+	private boolean isDoubleColumn(int columnIndex) throws SQLException{
+		decodeMetaData();
+		return myRow instanceof ColumnRow && ((ColumnRow)myRow).isDoubleColumn(columnIndex-1);
+	}
+
+	/**
+	 * Reads a primitive long column without going through its String form.
+	 */
+	private long getLongValue(int columnIndex){
+		final ColumnRow row = (ColumnRow)myRow;
+		wasLastNull = row.isNull(columnIndex-1);
+		return row.getLong(columnIndex-1);
+	}
+
+	/**
+	 * Reads a primitive double column without going through its String form.
+	 */
+	private double getDoubleValue(int columnIndex){
+		final ColumnRow row = (ColumnRow)myRow;
+		wasLastNull = row.isNull(columnIndex-1);
+		return row.getDouble(columnIndex-1);
+	}
+
+	/**
+	 * Resolves a column label once per ResultSet.
+	 * Every row of a ResultSet has the same columns so the index
+	 * found for a label is kept and reused for later rows.
+	 * The cached index is checked against the current rows key
+	 * which costs the same as an index lookup.
+	 *
+	 * @param columnLabel
+	 * @return the 1 based column index or 0 (zero) if there is no such column.
+	 */
+	private int getColumnIndex(String columnLabel){
+		if(myRow==null || columnLabel==null)
+			return 0;
+
+		final String key = Util.getCaseSafeKey(columnLabel, myCaseSafety);
+		final Integer cached = myColumnIndexes.get(key);
+		if(cached!=null && key.equals(myRow.getKey(cached.intValue()-1)))
+			return cached.intValue();
+
+		final int index = myRow.getIndex(columnLabel)+1;
+		if(index > 0)
+			myColumnIndexes.put(key, Integer.valueOf(index));
+		return index;
+	}
+
 	private Object isIndexValid(int columnIndex) throws SQLException{
 		if (columnIndex >= 0 && myRow!=null && myRow.hasKey(columnIndex-1)) {
 			Object obj = myRow.getObject(columnIndex-1);
@@ -1999,8 +2295,9 @@ public class WCResultSet extends WCResultSetUpdates implements ResultSet {
 	}
 
 	private Object isIndexValid(String columnLabel) throws SQLException{
-		if(myRow!=null && myRow.hasKey(columnLabel)){
-			Object obj = myRow.getObject(columnLabel);
+		final int columnIndex = getColumnIndex(columnLabel);
+		if(columnIndex > 0){
+			Object obj = myRow.getObject(columnIndex-1);
 			wasLastNull = obj==null;
 			return obj;
 		}else{
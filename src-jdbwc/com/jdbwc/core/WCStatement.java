@@ -20,13 +20,36 @@
 package com.jdbwc.core;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
 
+import com.jdbwc.core.util.BinaryFrameReader;
+import com.jdbwc.core.util.BulkLoadBody;
+import com.jdbwc.core.util.ExportStreamReader;
 import com.jdbwc.core.util.SQLUtils;
 import com.jdbwc.exceptions.NotImplemented;
 import com.jdbwc.iface.Statement;
@@ -60,6 +83,7 @@ public class WCStatement implements Statement{
 	protected transient int myDirection = WCResultSet.FETCH_FORWARD;
 	protected transient int mySize = -1;
 	protected transient int myMaxSize = -1;
+	protected transient boolean myFetchMetaData = true;
 	protected transient String myCatalog = null;
 
 	/**
@@ -77,6 +101,14 @@ public class WCStatement implements Statement{
 	private static final String SQL_BATCH = "batch";
 	private static final String SQL_ROUTINE = "routine";
 	private static final String SQL_RESULTS = "resultset";
+	private static final String SQL_CURSOR_OPEN = "cursor_open";
+	private static final String SQL_CURSOR_FETCH = "cursor_fetch";
+	private static final String SQL_CURSOR_CLOSE = "cursor_close";
+	private static final String SQL_PREPARE = "prepare";
+	private static final String SQL_BATCH_PREPARED = "batch_prepared";
+	private static final String SQL_BULK_LOAD = "bulk_load";
+	private static final String SQL_EXPORT = "export";
+	private static final String SQL_PIPELINE = "pipeline";
 //	private static final String SQL_TRANSAC = "transaction";
 
 	private static final int RETURN_ROWS_AFFECTED = 1;
@@ -84,6 +116,18 @@ public class WCStatement implements Statement{
 	private static final String MY_ROWS_AFFECTED = "getRows";
 	private static final String MY_GENERATED_KEYS = "getKeys";
 
+	/** bulk load table and column names. Checked here and again by the server, they can't be bound as parameters */
+	private static final Pattern BULK_LOAD_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_$]*");
+
+	/** SELECTs that can't be wrapped as a subquery for cursor windows */
+	private static final Pattern CURSOR_UNSAFE = Pattern.compile("\\b(into|for\\s+update|for\\s+share|lock\\s+in\\s+share\\s+mode)\\b");
+
+	/** kills queries that run past their timeout. Created on first use */
+	private static ScheduledExecutorService timeouts = null;
+
+	/** source of server-side cursor ids. Ids only need to be unique within a session */
+	private static final AtomicLong CURSOR_IDS = new AtomicLong();
+
 	private transient StringBuilder myBatchStatement;
 	private transient String myProcessedBatch = "";
 
@@ -94,6 +138,24 @@ public class WCStatement implements Statement{
 	private transient boolean useExtraResults = false;
 	private transient int eResultsPointer = -1;
 	private transient boolean hasClosed;
+	/** seconds a query can run before it is killed. 0 (zero) for no limit */
+	private transient int myQueryTimeout = 0;
+	/** query id of the last request built by initPostData() */
+	private transient String myPendingQuery = null;
+	/** query id of the request being executed, for cancel() */
+	private transient volatile String myRunningQuery = null;
+	/** forward-only resultset still reading from its server response */
+	private transient WCResultSet myStreamedResults = null;
+	/** pipelined statements going out with the request built by initPostData() */
+	private transient WCConnection.Pipelined[] myPendingPipeline = null;
+	/** true while this statements last update is queued on the connection */
+	private transient volatile boolean isPipelined = false;
+	/** why this statements last pipelined update failed, until it is reported */
+	private transient volatile SQLException myPipelineError = null;
+	/** true while sendPipeline() runs. The request has no action of its own to fail */
+	private transient boolean isSendingPipeline = false;
+	/** every execution on this statement, sync or async, holds this while it runs */
+	protected final transient Object myExecuteLock = new Object();
 
 	//----------------------------------------------------------constructors
 
@@ -121,10 +183,35 @@ public class WCStatement implements Statement{
 	}
 
 	/**
+	 * @see com.jdbwc.iface.Statement#bulkLoad(java.lang.String, java.lang.String[], java.util.Iterator)
+	 */
+	public int bulkLoad(String table, String[] columns, Iterator<Object[]> rows) throws SQLException {
+		synchronized(myExecuteLock){
+			return dbBulkLoad(table, columns, new BulkLoadBody(rows));
+		}
+	}
+
+	/**
+	 * @see com.jdbwc.iface.Statement#bulkLoad(java.lang.String, java.lang.String[], java.io.Reader)
+	 */
+	public int bulkLoad(String table, String[] columns, Reader rows) throws SQLException {
+		synchronized(myExecuteLock){
+			return dbBulkLoad(table, columns, new BulkLoadBody(rows));
+		}
+	}
+
+	/**
+	 * Stops the query this statement is running on the server, if any.
+	 * Can be called from another thread. The statement that was running
+	 * throws an SQLException with the SQLState 57014.
+	 *
 	 * @see java.sql.Statement#cancel()
 	 */
 	public void cancel() throws SQLException {
-		resetStatement();
+		final String queryId = myRunningQuery;
+		if(queryId!=null){
+			myConnection.killQuery(queryId, false);
+		}
 	}
 
 	/**
@@ -161,26 +248,31 @@ public class WCStatement implements Statement{
 
 //		System.err.println("sql="+sql);
 
-		boolean executed = false;
-		if(SQLUtils.isSqlARoutine(sql)){
-			executeStoredRoutine(sql);
-//			System.err.println("executeStoredRoutine");
-		}else if(SQLUtils.isSqlAResultType(sql)){
-			if(isTransientBatch(sql)){
-				executeTransientBatch(sql);
-//				System.err.println("executeTransientBatch1");
+		synchronized(myExecuteLock){
+			boolean executed = false;
+			if(queuePipelined(sql)){
+				return executed;
+			}
+			if(SQLUtils.isSqlARoutine(sql)){
+				executeStoredRoutine(sql);
+//				System.err.println("executeStoredRoutine");
+			}else if(SQLUtils.isSqlAResultType(sql)){
+				if(isTransientBatch(sql)){
+					executeTransientBatch(sql);
+//					System.err.println("executeTransientBatch1");
+				}else{
+					executeWithResults(sql);
+//					System.err.println("executeWithResults");
+				}
 			}else{
-				executeWithResults(sql);
-//				System.err.println("executeWithResults");
+				executeTransientBatch(sql);
+//				System.err.println("executeTransientBatch2");
 			}
-		}else{
-			executeTransientBatch(sql);
-//			System.err.println("executeTransientBatch2");
-		}
-		if(getMoreResults()){
-			executed = true;
+			if(getMoreResults()){
+				executed = true;
+			}
+			return executed;
 		}
-		return executed;
 	}
 
 	/**
@@ -221,21 +313,60 @@ public class WCStatement implements Statement{
 	 * @see java.sql.Statement#executeBatch()
 	 */
 	public int[] executeBatch() throws SQLException {
-		return dbQueryBatch();
+		synchronized(myExecuteLock){
+			return dbQueryBatch();
+		}
+	}
+
+	/**
+	 * @see com.jdbwc.iface.Statement#executeBatchAsync()
+	 */
+	public Future<int[]> executeBatchAsync() throws SQLException {
+		return submitAsync(new Callable<int[]>() {
+			public int[] call() throws SQLException {
+				return executeBatch();
+			}
+		});
 	}
 
 	/**
 	 * @see java.sql.Statement#executeQuery(java.lang.String)
 	 */
 	public WCResultSet executeQuery(String sql) throws SQLException{
-		return dbQueryResults(sql);
+		synchronized(myExecuteLock){
+			return dbQueryResults(sql);
+		}
+	}
+
+	/**
+	 * @see com.jdbwc.iface.Statement#executeQueryAsync(java.lang.String)
+	 */
+	public Future<java.sql.ResultSet> executeQueryAsync(final String sql) throws SQLException{
+		return submitAsync(new Callable<java.sql.ResultSet>() {
+			public java.sql.ResultSet call() throws SQLException {
+				return executeQuery(sql);
+			}
+		});
 	}
 
 	/**
 	 * @see java.sql.Statement#executeUpdate(java.lang.String)
 	 */
 	public int executeUpdate(String sql) throws SQLException{
-		return dbQueryUpdate(sql);
+		synchronized(myExecuteLock){
+			return dbQueryUpdate(sql);
+		}
+	}
+
+	/**
+	 * @see com.jdbwc.iface.Statement#executeUpdateAsync(java.lang.String)
+	 */
+	public Future<Integer> executeUpdateAsync(final String sql) throws SQLException{
+		return submitAsync(new Callable<Integer>() {
+			public Integer call() throws SQLException {
+				return Integer.valueOf(executeUpdate(sql));
+			}
+		});
 	}
 
 	/**
@@ -262,6 +393,15 @@ public class WCStatement implements Statement{
 		throw new NotImplemented("executeUpdate(String sql, String[] columnNames)");
 	}
 
+	/**
+	 * @see com.jdbwc.iface.Statement#export(java.lang.String, java.io.OutputStream, com.jdbwc.iface.Statement.ExportFormat)
+	 */
+	public long export(String sql, OutputStream out, ExportFormat format) throws SQLException{
+		synchronized(myExecuteLock){
+			return dbExport(sql, out, format==ExportFormat.CSV);
+		}
+	}
+
 	/**
 	 * @see java.sql.Statement#getConnection()
 	 */
@@ -276,6 +416,13 @@ public class WCStatement implements Statement{
 		return myDirection;
 	}
 
+	/**
+	 * @see com.jdbwc.iface.Statement#getFetchMetaData()
+	 */
+	public boolean getFetchMetaData() throws SQLException{
+		return myFetchMetaData;
+	}
+
 	/**
 	 * @see java.sql.Statement#getFetchSize()
 	 */
@@ -309,7 +456,7 @@ public class WCStatement implements Statement{
 	 * @see java.sql.Statement#getMaxRows()
 	 */
 	public int getMaxRows() throws SQLException{
-		return myMaxSize;
+		return Math.max(0, myMaxSize);
 	}
 
 	/**
@@ -352,7 +499,7 @@ public class WCStatement implements Statement{
 	 * @see java.sql.Statement#getQueryTimeout()
 	 */
 	public int getQueryTimeout() throws SQLException{
-		return myConnection.getTimeOut()/1000; // myTimeOut is in millseconds
+		return myQueryTimeout;
 	}
 
 	/**
@@ -395,11 +542,15 @@ public class WCStatement implements Statement{
 
 	/**
 	 * JDBWC resultsets are generally always scroll insensitive
-	 * by default.
+	 * by default. Statements created as TYPE_FORWARD_ONLY, CONCUR_READ_ONLY
+	 * produce forward-only resultsets that read their rows on demand.
 	 *
 	 * @see java.sql.Statement#getResultSetType()
 	 */
 	public int getResultSetType() throws SQLException{
+		if(rsType==WCResultSet.TYPE_FORWARD_ONLY){
+			return WCResultSet.TYPE_FORWARD_ONLY;
+		}
 		return WCResultSet.TYPE_SCROLL_INSENSITIVE;
 //		throw new NotImplemented("getResultSetType()");
 	}
@@ -408,6 +559,10 @@ public class WCStatement implements Statement{
 	 * @see java.sql.Statement#getUpdateCount()
 	 */
 	public int getUpdateCount() throws SQLException{
+		if(isPipelined){
+			myConnection.flushPipeline();
+		}
+		checkPipelineError();
 		return myRowAffected;
 	}
 
@@ -471,6 +626,21 @@ public class WCStatement implements Statement{
 	}
 
 	/**
+	 * @see com.jdbwc.iface.Statement#setFetchMetaData(boolean)
+	 */
+	public void setFetchMetaData(boolean fetchMetaData) throws SQLException{
+		myFetchMetaData = fetchMetaData;
+	}
+
+	/**
+	 * TYPE_FORWARD_ONLY, CONCUR_READ_ONLY results are streamed from the server
+	 * and read as they arrive whatever the fetch size.<br />
+	 * With the <code>useCursorFetch</code> connection property a fetch size above zero
+	 * reads a single SELECT a window of <code>rows</code> rows per request instead.
+	 * There is no cursor held open on the database. Each window runs the query again
+	 * with LIMIT and OFFSET, so windows are only consistent with a unique ORDER BY
+	 * and no writes to the rows between windows, and the selected columns need unique names.
+	 *
 	 * @see java.sql.Statement#setFetchSize(int)
 	 */
 	public void setFetchSize(int rows) throws SQLException{
@@ -486,9 +656,15 @@ public class WCStatement implements Statement{
 	}
 
 	/**
+	 * The limit is sent with each resultset request.
+	 * The server stops fetching at the limit so rows past it are never sent.
+	 *
 	 * @see java.sql.Statement#setMaxRows(int)
 	 */
 	public void setMaxRows(int max) throws SQLException{
+		if(max < 0){
+			throw new SQLException("Max rows can't be negative: " + max, "S1009");
+		}
 		myMaxSize = max;
 	}
 
@@ -501,10 +677,17 @@ public class WCStatement implements Statement{
 	}
 
 	/**
+	 * A query still running when the timeout expires is killed on the server
+	 * and throws an SQLTimeoutException. The timeout covers each request
+	 * until the server starts sending its response.
+	 *
 	 * @see java.sql.Statement#setQueryTimeout(int)
 	 */
 	public void setQueryTimeout(int seconds) throws SQLException{
-		myConnection.setTimeOut(seconds*1000); // output needs to be in milliseconds
+		if(seconds < 0){
+			throw new SQLException("Query timeout can't be negative: " + seconds, "S1009");
+		}
+		myQueryTimeout = seconds;
 	}
 
 	/**
@@ -577,8 +760,429 @@ public class WCStatement implements Statement{
 		return hasResults;
 	}
 
+	/**
+	 * Requests the next window of rows from an open server-side cursor.
+	 *
+	 * @param cursorId the cursors id on the server
+	 * @param result the resultset the rows are for
+	 * @return the windows rows, read on demand.
+	 * @throws SQLException
+	 */
+	protected RowSource fetchCursorWindow(final String cursorId, final WCResultSet result) throws SQLException{
+		return dbQueryRows(initPostMethod(SQL_CURSOR_FETCH, null, false, false, cursorId), result);
+	}
+
+	/**
+	 * Releases a server-side cursor that wasn't read to the end.
+	 *
+	 * @param cursorId the cursors id on the server
+	 * @throws SQLException
+	 */
+	protected void closeCursor(final String cursorId) throws SQLException{
+		HttpPost pmethod = initPostMethod(SQL_CURSOR_CLOSE, null, false, false, cursorId);
+		try {
+			HttpResponse response = getHttpResponse(pmethod);
+			if (response != null) {
+				Util.parseResponse(response);
+			}
+		} catch (ClientProtocolException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		} catch (IOException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		}finally{
+			pmethod.abort();
+		}
+	}
+
+	/**
+	 * Sends the connections queued statements in a request of their own.
+	 *
+	 * @throws SQLException if a queued statement failed.
+	 */
+	protected void sendPipeline() throws SQLException{
+		HttpPost pmethod = initPostMethod(SQL_PIPELINE, null);
+		isSendingPipeline = true;
+		try {
+			HttpResponse response = getHttpResponse(pmethod);
+			if (response != null) {
+				Util.parseResponse(response);
+			}
+		} catch (ClientProtocolException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		} catch (IOException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		}finally{
+			isSendingPipeline = false;
+			pmethod.abort();
+		}
+	}
+
+	/**
+	 * Sets the rows affected by this statements pipelined update
+	 * once the request it went out with has run.
+	 *
+	 * @param rowsAffected rows affected, or -1 if the server didn't say.
+	 */
+	protected void pipelineDone(final int rowsAffected){
+		myRowAffected = rowsAffected;
+		isPipelined = false;
+	}
+
+	/**
+	 * Records why this statements pipelined update failed on the server.
+	 * It is thrown from <code>getUpdateCount()</code> or this statements next execution.
+	 *
+	 * @param error the servers error for the update.
+	 */
+	protected void pipelineFailed(final SQLException error){
+		myPipelineError = error;
+		myRowAffected = -1;
+		isPipelined = false;
+	}
+
+	/**
+	 * Asks the server to prepare a statement.<br />
+	 * The server keeps the SQL in its session and hands back a handle
+	 * for <code>executePrepared()</code>.
+	 *
+	 * @param sql a single SQL statement with ? parameter markers
+	 * @return the statements handle or null if the server doesn't support prepared statements.
+	 * @throws SQLException
+	 */
+	protected String prepareOnServer(final String sql) throws SQLException{
+		String handle = null;
+		HttpPost pmethod = initPostMethod(SQL_PREPARE, sql);
+		try {
+			HttpResponse response = getHttpResponse(pmethod);
+			if (response != null) {
+				handle = Util.parseResponse(response).trim();
+			}
+		} catch (ClientProtocolException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		} catch (IOException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		}finally{
+			pmethod.abort();
+		}
+		// older gateways answer unknown actions with an empty page
+		if(handle==null || !handle.matches("[A-Za-z0-9_-]{1,32}")){
+			return null;
+		}
+		return handle;
+	}
+
+	/**
+	 * Executes a statement prepared with <code>prepareOnServer()</code>
+	 * once for each row of parameters.<br />
+	 * The server runs every row in one transaction, or under a savepoint
+	 * if a transaction is already open. A failed row rolls every row back.
+	 *
+	 * @param handle the statements handle
+	 * @param rows the number of parameter rows
+	 * @param types one type per parameter, row by row. See <code>Util.TAG_PARAM_TYPES</code>
+	 * @param matrix every rows parameters, row by row. See <code>Util.TAG_MATRIX</code>
+	 * @return the rows affected by each parameter row
+	 * or null if the server no longer has the handle. Nothing was executed.
+	 * @throws SQLException
+	 */
+	protected int[] executePreparedBatch(final String handle, final int rows, final String types, final CharSequence matrix) throws SQLException{
+		int results[] = {};
+		DataHandler nvpArray = initPostData(SQL_BATCH_PREPARED, null, false, false, null);
+		nvpArray.addData(Util.TAG_HANDLE, handle);
+		nvpArray.addData(Util.TAG_ROWS, rows);
+		nvpArray.addData(Util.TAG_PARAM_TYPES, types);
+		nvpArray.addData(Util.TAG_MATRIX, matrix.toString());
+		HttpPost pmethod = initPostMethod(nvpArray);
+
+		try {
+			HttpResponse response = getHttpResponse(pmethod);
+			if (response != null) {
+				String contents = Util.parseResponse(response);
+				if(Util.WC_UNPREPARED.equals(contents.trim())){
+					return null;
+				}
+				results = processBatchData(contents);
+			}
+		} catch (ClientProtocolException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		} catch (IOException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		}finally{
+			pmethod.abort();
+		}
+		return results;
+	}
+
 	//----------------------------------------------------------private methods
 
+	/**
+	 * Streams rows to the servers bulk load action.
+	 *
+	 * @param table the table to load
+	 * @param columns the columns to load or null for every column
+	 * @param rows the upload
+	 * @return the number of rows loaded
+	 */
+	private int dbBulkLoad(final String table, final String[] columns, final BulkLoadBody rows) throws SQLException{
+		String[] tableParts = table==null ? new String[0] : table.split("\\.", -1);
+		if(tableParts.length < 1 || tableParts.length > 2 || !isBulkLoadName(tableParts)){
+			throw new SQLException("Invalid bulk load table name: " + table, "42000");
+		}
+		StringBuilder columnList = new StringBuilder();
+		if(columns!=null){
+			if(!isBulkLoadName(columns)){
+				throw new SQLException("Invalid bulk load column names: " + Arrays.toString(columns), "42000");
+			}
+			for(int i = 0; i < columns.length; i++){
+				if(i > 0)
+					columnList.append(',');
+				columnList.append(columns[i]);
+			}
+		}
+
+		closeStreamedResults();
+		myExtraResults = null;
+		eResultsPointer = -1;
+		myRowAffected = 0;
+
+		DataHandler nvpArray = initPostData(SQL_BULK_LOAD, null, false, false, null);
+		nvpArray.addData(Util.TAG_TABLE, table);
+		nvpArray.addData(Util.TAG_COLUMNS, columnList.toString());
+
+		HttpPost pmethod = myConnection.getHttpPost();
+		synchronized(pmethod){
+			try {
+				pmethod.setEntity(Util.prepareForUpload(nvpArray, Util.TAG_LOAD_FILE, rows));
+			} catch (RuntimeException e) {
+				restorePipeline();
+				throw e;
+			}
+		}
+
+		try {
+			HttpResponse response = getHttpResponse(pmethod);
+			if (response != null) {
+				String contents = Util.parseResponse(response);
+				myRowAffected = getIntValueFromResult(contents.split("_EOL__"));
+			}
+		} catch (ClientProtocolException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		} catch (IOException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		}finally{
+			pmethod.abort();
+		}
+		return myRowAffected;
+	}
+
+	/**
+	 * Copies the servers export stream for a query to out.
+	 *
+	 * @param query a single SELECT
+	 * @param out where the rows are written
+	 * @param csv true for csv rows, false for COPY text rows
+	 * @return the number of rows exported
+	 */
+	private long dbExport(final String query, final OutputStream out, final boolean csv) throws SQLException{
+		long rows = 0;
+		closeStreamedResults();
+		myExtraResults = null;
+		eResultsPointer = -1;
+		myRowAffected = 0;
+
+		DataHandler nvpArray = initPostData(SQL_EXPORT, query, false, false, null);
+		nvpArray.addData(Util.TAG_EXPORT_FORMAT, csv ? "csv" : "text");
+		HttpPost pmethod = initPostMethod(nvpArray);
+
+		try {
+			HttpResponse response = getHttpResponse(pmethod);
+			if (response != null) {
+				ExportStreamReader reader = new ExportStreamReader(Util.getResponseStream(response), csv);
+				if(!reader.readMagic()){
+					Util.checkForExceptions(reader.readRemainingText());
+					throw new SQLException("The server did not send an export stream.", "08S01");
+				}
+
+				rows = reader.copyTo(out);
+				if(!reader.isComplete()){
+					Util.checkForExceptions(reader.readRemainingText());
+					throw new SQLException("The export stream ended early, after " + rows + " rows.", "08S01");
+				}
+			}
+		} catch (ClientProtocolException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		} catch (IOException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		}finally{
+			pmethod.abort();
+		}
+		return rows;
+	}
+
+	/**
+	 * Executes a request built with <code>initPostData()</code>.<br />
+	 * While the request runs, <code>cancel()</code> or the query timeout
+	 * can kill its query on the server.
+	 *
+	 * @param pmethod the request
+	 * @return the servers response
+	 */
+	private HttpResponse getHttpResponse(final HttpPost pmethod) throws ClientProtocolException, IOException, SQLException{
+		final String queryId = myPendingQuery;
+		final WCConnection connection = myConnection;
+		final WCConnection.Pipelined[] pipeline = myPendingPipeline;
+		myPendingPipeline = null;
+
+		ScheduledFuture<?> timer = null;
+		if(myQueryTimeout > 0 && queryId!=null){
+			timer = getTimeouts().schedule(new Runnable() {
+				public void run() {
+					try {
+						connection.killQuery(queryId, true);
+					} catch (SQLException e) {
+						// the request is still waiting on its response, there's no one to tell
+					}
+				}
+			}, myQueryTimeout, TimeUnit.SECONDS);
+		}
+
+		myRunningQuery = queryId;
+		final HttpContext context = new BasicHttpContext();
+		HttpResponse response = null;
+		try {
+			response = connection.getHttpResponse(pmethod, context);
+		} finally {
+			myRunningQuery = null;
+			if(timer!=null){
+				timer.cancel(false);
+			}
+			if(pipeline!=null && response==null){
+				if(Boolean.TRUE.equals(context.getAttribute(ExecutionContext.HTTP_REQ_SENT))){
+					// they may have run, the server can't say
+					WCConnection.pipelineDone(pipeline, null);
+				}else{
+					connection.requeuePipeline(pipeline);
+				}
+			}
+		}
+
+		if(pipeline!=null){
+			final int failed = WCConnection.pipelineFailedAt(response);
+			if(failed > -1 && failed < pipeline.length){
+				return pipelineFailed(pipeline, failed, response);
+			}
+			WCConnection.pipelineDone(pipeline, response);
+		}
+		return response;
+	}
+
+	/**
+	 * A pipelined statement failed on the server, which ended the request before its action ran.
+	 * The statements before it get their counts and the failed statements owner gets the error.
+	 * The statements after it never ran, so they go back on the queue.
+	 *
+	 * @param sent the statements sent with the request.
+	 * @param failed position of the failed statement in sent.
+	 * @param response the requests response, holding the servers error.
+	 * @return null when the request only carried the pipeline.
+	 * @throws SQLException the error for this statements own request, which wasn't run.
+	 */
+	private HttpResponse pipelineFailed(final WCConnection.Pipelined[] sent, final int failed, final HttpResponse response) throws SQLException{
+		WCConnection.pipelineDone(Arrays.copyOfRange(sent, 0, failed), response);
+		myConnection.requeuePipeline(Arrays.copyOfRange(sent, failed + 1, sent.length));
+
+		SQLException error = null;
+		try {
+			Util.checkForExceptions(Util.parseResponse(response));
+		} catch (SQLException e) {
+			error = e;
+		} catch (IOException e) {
+			error = new SQLException(e.toString(), "08S01", e);
+		}
+		if(error==null){
+			error = new SQLException("Pipelined statement failed: " + sent[failed].mySql, "S1000");
+		}
+
+		final WCStatement owner = sent[failed].myOwner;
+		if(owner==this){
+			pipelineDone(-1);
+			throw error;
+		}
+		if(owner==null){
+			throw error;
+		}
+		owner.pipelineFailed(error);
+		if(isSendingPipeline){
+			return null;
+		}
+		final SQLException notRun = new SQLException("This request was not run. A statement pipelined ahead of it failed: "
+				+ error.getMessage(), error.getSQLState());
+		notRun.setNextException(error);
+		throw notRun;
+	}
+
+	/**
+	 * Runs task on one of the connections async threads. It waits for any other
+	 * execution on this statement, sync or async, to finish first.
+	 * Cancelling the returned Future with mayInterruptIfRunning kills the query
+	 * on the server if the task has started.
+	 *
+	 * @param task an execute method call.
+	 * @return the tasks result, once it is done.
+	 */
+	private <T> Future<T> submitAsync(final Callable<T> task) throws SQLException{
+		if(hasClosed){
+			throw new SQLException("Statement is closed.", "S1009");
+		}
+		if(myConnection.isClosedLocally()){
+			throw new SQLException("Connection is closed.", "08003");
+		}
+
+		final AsyncCall<T> call = new AsyncCall<T>(task);
+		final FutureTask<T> future = new FutureTask<T>(call) {
+			@Override
+			public boolean cancel(final boolean mayInterruptIfRunning) {
+				final boolean cancelled = super.cancel(mayInterruptIfRunning);
+				if(cancelled && mayInterruptIfRunning && call.isRunning){
+					try {
+						WCStatement.this.cancel();
+					} catch (SQLException e) {
+						// the Future is cancelled either way
+					}
+				}
+				return cancelled;
+			}
+		};
+		try {
+			myConnection.getAsyncRequests().execute(future);
+		} catch (RejectedExecutionException e) {
+			throw new SQLException("Connection is closed.", "08003");
+		}
+		return future;
+	}
+
+	private static synchronized ScheduledExecutorService getTimeouts(){
+		if(timeouts==null){
+			timeouts = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "jdbwc-query-timeout");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return timeouts;
+	}
+
+	private static boolean isBulkLoadName(final String[] names){
+		for(int i = 0; i < names.length; i++){
+			if(names[i]==null || !BULK_LOAD_NAME.matcher(names[i]).matches()){
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * perform an SQL query
 	 *
@@ -606,7 +1210,7 @@ public class WCStatement implements Statement{
 			localConnection.setCatalog(myCatalog);
 
 		try {
-			HttpResponse response = localConnection.getHttpResponse(pmethod);
+			HttpResponse response = getHttpResponse(pmethod);
 			if (response != null) {
 				String contents = Util.parseResponse(response);
 				//System.err.println(contents);
@@ -661,7 +1265,7 @@ public class WCStatement implements Statement{
 	 */
 	private int dbQueryUpdate(final String query) throws SQLException {
 		int results = 0;
-		HttpPost pmethod = initPostMethod(SQL_QUERY, query);
+		HttpPost pmethod = initPostMethod(SQL_QUERY, query, false, true);
 
 		WCConnection localConnection = myConnection;
 
@@ -669,7 +1273,7 @@ public class WCStatement implements Statement{
 			localConnection.setCatalog(myCatalog);
 
 		try {
-			HttpResponse response = localConnection.getHttpResponse(pmethod);
+			HttpResponse response = getHttpResponse(pmethod);
 			if (response != null) {
 				String contents = Util.parseResponse(response);
 
@@ -702,25 +1306,23 @@ public class WCStatement implements Statement{
 		if(!localConnection.getCatalog().equals(myCatalog))
 			localConnection.setCatalog(myCatalog);
 
+		closeStreamedResults();
+
+		if(useStreamedResults(query) && useCursor(query)){
+			myStreamedResults = openCursor(query);
+			return myStreamedResults;
+		}
+
 		WCResultSet sqlResultSet = new WCResultSet(localConnection, this, query);
 		HttpPost pmethod = initPostMethod(SQL_RESULTS, query);
+		boolean isStreaming = false;
 //		System.err.println("query = " + query);
 		try {
-			HttpResponse response = localConnection.getHttpResponse(pmethod);
+			HttpResponse response = getHttpResponse(pmethod);
 			if (response != null) {
-				String contents = Util.parseResponse(response);
-
-//				System.err.println("contents = " + contents);
-
-				WCResultSet excessResultSets[] = new ResultsProcessor().processRawResults(localConnection, this, query, contents);
-				int sizeOfResults = excessResultSets.length;
-				// get the first result as the default ResultSet.
-				// additional results may be ignored or accessed via getNextResultSet()
-				sqlResultSet = excessResultSets[0];
-				if(sizeOfResults > 1){
-					myExtraResults = new WCResultSet[sizeOfResults-1];
-					System.arraycopy(excessResultSets, 1, myExtraResults, 0, sizeOfResults-1);
-				}
+				// rows are built as the response arrives rather than from one big String
+				sqlResultSet = readResults(query, pmethod, Util.getResponseStream(response));
+				isStreaming = sqlResultSet==myStreamedResults;
 			}
 		} catch (ArrayStoreException e){
 			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
@@ -731,11 +1333,103 @@ public class WCStatement implements Statement{
 		} catch (IOException e) {
 			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
 		}finally{
-			pmethod.abort();
+			if(!isStreaming){
+				pmethod.abort();
+			}
+		}
+		return sqlResultSet;
+	}
+
+	/**
+	 * Reads the resultsets in a resultset response.<br />
+	 * Streamed results own pmethod from here and release it when they are done,
+	 * otherwise the caller releases it.
+	 *
+	 * @param query the SQL the results are for
+	 * @param pmethod the executed request
+	 * @param input the responses body
+	 * @return the first resultset. Additional results go to the extra results holder.
+	 */
+	private WCResultSet readResults(final String query, final HttpPost pmethod, final InputStream input) throws SQLException, IOException {
+		WCConnection localConnection = myConnection;
+		WCResultSet sqlResultSet;
+
+		if(useStreamedResults(query)){
+			// the resultset owns the response from here and releases it when done
+			sqlResultSet = new WCResultSet(localConnection, this, query, Util.getCaseSafeHandler(localConnection.getCaseSensitivity()));
+			sqlResultSet.setRowSource(new ResultsProcessor().openRowSource(localConnection, sqlResultSet, input, pmethod, useBinaryResults()));
+			sqlResultSet.setMaxRows(myMaxSize);
+			myStreamedResults = sqlResultSet;
+			return sqlResultSet;
+		}
+
+		WCResultSet excessResultSets[];
+		if(useBinaryResults()){
+			excessResultSets = new ResultsProcessor().processBinaryResults(localConnection, this, query, input);
+		}else{
+			excessResultSets = new ResultsProcessor().processTextResults(localConnection, this, query, input);
+		}
+		input.close();
+		int sizeOfResults = excessResultSets.length;
+		// get the first result as the default ResultSet.
+		// additional results may be ignored or accessed via getNextResultSet()
+		sqlResultSet = excessResultSets[0];
+		if(sizeOfResults > 1){
+			myExtraResults = new WCResultSet[sizeOfResults-1];
+			System.arraycopy(excessResultSets, 1, myExtraResults, 0, sizeOfResults-1);
 		}
 		return sqlResultSet;
 	}
 
+	/**
+	 * Opens a server-side cursor for a query.<br />
+	 * The gateway returns fetchSize rows per request
+	 * so neither side has to hold the whole result.
+	 *
+	 * @param query a single SELECT statement
+	 * @return a forward-only WCResultSet reading the cursor a window at a time.
+	 */
+	private WCResultSet openCursor(final String query) throws SQLException {
+		final String cursorId = Long.toString(CURSOR_IDS.incrementAndGet(), Character.MAX_RADIX);
+
+		WCResultSet sqlResultSet = new WCResultSet(myConnection, this, query, Util.getCaseSafeHandler(myConnection.getCaseSensitivity()));
+		RowSource firstWindow = dbQueryRows(initPostMethod(SQL_CURSOR_OPEN, query, false, false, cursorId), sqlResultSet);
+		sqlResultSet.setRowSource(new CursorRowSource(this, sqlResultSet, cursorId, mySize, myMaxSize, firstWindow));
+		sqlResultSet.setMaxRows(myMaxSize);
+
+		return sqlResultSet;
+	}
+
+	/**
+	 * Executes pmethod and reads the rows of the response on demand.
+	 * The returned RowSource releases pmethod when it is done.
+	 *
+	 * @param pmethod a resultset request
+	 * @param result the resultset the rows are for
+	 * @return the responses rows or null if there was no response.
+	 */
+	private RowSource dbQueryRows(final HttpPost pmethod, final WCResultSet result) throws SQLException {
+		WCConnection localConnection = myConnection;
+
+		RowSource rows = null;
+		try {
+			HttpResponse response = getHttpResponse(pmethod);
+			if (response != null) {
+				InputStream input = Util.getResponseStream(response);
+				rows = new ResultsProcessor().openRowSource(localConnection, result, input, pmethod, useBinaryResults());
+			}
+		} catch (ClientProtocolException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		} catch (IOException e) {
+			Util.checkForExceptions(Util.WC_ERROR_TAG + e.toString());
+		}finally{
+			if(rows==null){
+				pmethod.abort();
+			}
+		}
+		return rows;
+	}
+
 	/**
 	 * Designed for use with <i>executeBatch()</i>.<br />
 	 * Perform a batch of previously added SQL queries.<br />
@@ -754,7 +1448,7 @@ public class WCStatement implements Statement{
 			localConnection.setCatalog(myCatalog);
 
 		try {
-			HttpResponse response = localConnection.getHttpResponse(pmethod);
+			HttpResponse response = getHttpResponse(pmethod);
 			if (response != null) {
 				String contents = Util.parseResponse(response);
 				//System.err.println("contents = " + contents);
@@ -789,7 +1483,7 @@ public class WCStatement implements Statement{
 			localConnection.setCatalog(myCatalog);
 
 		try {
-			HttpResponse response = localConnection.getHttpResponse(pmethod);
+			HttpResponse response = getHttpResponse(pmethod);
 			if (response != null) {
 				String contents = Util.parseResponse(response);
 //				System.err.println("contents = " + contents);
@@ -823,7 +1517,7 @@ public class WCStatement implements Statement{
 			localConnection.setCatalog(myCatalog);
 
 		try {
-			HttpResponse response = localConnection.getHttpResponse(pmethod);
+			HttpResponse response = getHttpResponse(pmethod);
 			if (response != null) {
 				Util.parseResponse(response);
 //				System.err.println("RESULTS FOR: db_queryRoutine =\n" + contents + "\n---------");
@@ -941,7 +1635,9 @@ public class WCStatement implements Statement{
 		return result;
 	}
 
-	private void resetStatement(){
+	private void resetStatement() throws SQLException{
+		closeStreamedResults();
+
 		rsType = 0;
 		rsConcurrency = 0;
 		rsHoldability = 0;
@@ -949,6 +1645,7 @@ public class WCStatement implements Statement{
 		myDirection = WCResultSet.FETCH_FORWARD;
 		mySize = -1;
 		myMaxSize = -1;
+		myFetchMetaData = true;
 
 		myBatchStatement = new StringBuilder();
 		myProcessedBatch = "";
@@ -980,6 +1677,50 @@ public class WCStatement implements Statement{
 		}
 	}
 
+	/**
+	 * Queues an update on the connection if it pipelines statements.<br />
+	 * Only single statements that don't return results are queued.
+	 * COMMIT and ROLLBACK are never queued, they carry the queue with them.
+	 * Statements that start a transaction or change autocommit are never queued either.
+	 * Queued, they would only take effect in whichever request carries the queue,
+	 * and that requests writes would be rolled back when its database connection closes.
+	 *
+	 * @param sql the SQL passed to execute()
+	 * @return true if sql was queued and should not be sent now.
+	 * @throws SQLException
+	 */
+	private boolean queuePipelined(final String sql) throws SQLException{
+		checkPipelineError();
+		if(!myConnection.isPipelining() || SQLUtils.isSqlARoutine(sql)
+				|| SQLUtils.isSqlAResultType(sql) || isTransientBatch(sql)){
+			return false;
+		}
+
+		final String query = SQLUtils.stripComments(sql, "'", "'").trim();
+		final String upperQuery = query.toUpperCase(Locale.ENGLISH);
+		if(upperQuery.startsWith("COMMIT") || upperQuery.startsWith("ROLLBACK")
+				|| upperQuery.startsWith("BEGIN") || upperQuery.startsWith("START")
+				|| (upperQuery.startsWith("SET") && upperQuery.contains("AUTOCOMMIT"))){
+			return false;
+		}
+
+		WCConnection localConnection = myConnection;
+
+		if(!localConnection.getCatalog().equals(myCatalog))
+			localConnection.setCatalog(myCatalog);
+
+		localConnection.checkSessionSql(query);
+		closeStreamedResults();
+		myRowAffected = -1;
+		myGeneratedKeys = null;
+		isPipelined = true;
+		if(!localConnection.queueStatement(query, this)){
+			isPipelined = false;
+			return false;
+		}
+		return true;
+	}
+
 	/**
 	 * Checks an sql query to determine if its a batch of statements or a single statement.
 	 *
@@ -995,6 +1736,61 @@ public class WCStatement implements Statement{
 		return isBatch;
 	}
 
+	/**
+	 * @return true if resultsets should be requested in the binary format.
+	 */
+	private boolean useBinaryResults(){
+		return myConnection.getWireProtocol() >= BinaryFrameReader.VERSION;
+	}
+
+	/**
+	 * Rows are read on demand for TYPE_FORWARD_ONLY, CONCUR_READ_ONLY statements.
+	 * Queries holding more than one statement are read in full
+	 * so the extra resultsets are available from getMoreResults().
+	 *
+	 * @param query the SQL being executed
+	 * @return true if the resultset should read its rows on demand.
+	 */
+	private boolean useStreamedResults(final String query){
+		if(rsType!=WCResultSet.TYPE_FORWARD_ONLY || rsConcurrency!=WCResultSet.CONCUR_READ_ONLY){
+			return false;
+		}
+		final String sql = query.trim();
+		final int semiColon = sql.indexOf(';');
+		return semiColon==-1 || semiColon==sql.length()-1;
+	}
+
+	/**
+	 * Cursor windows are only used when the connection asks for them
+	 * (<code>useCursorFetch</code>) and a fetch size has been set for a single SELECT.
+	 * Queries the gateway can't wrap in a subquery (SELECT ... INTO, FOR UPDATE)
+	 * are streamed instead.
+	 *
+	 * @param query the SQL being executed
+	 * @return true if the resultset should be read a window at a time.
+	 */
+	private boolean useCursor(final String query){
+		if(mySize < 1 || !myConnection.useCursorFetch()){
+			return false;
+		}
+		final String sql = query.trim();
+		if(sql.length() <= 6 || !sql.substring(0, 6).equalsIgnoreCase("select")){
+			return false;
+		}
+		final String lower = sql.toLowerCase(Locale.ENGLISH);
+		return !CURSOR_UNSAFE.matcher(lower).find();
+	}
+
+	/**
+	 * Closing a forward-only resultset early releases its http connection.
+	 */
+	private void closeStreamedResults() throws SQLException{
+		if(myStreamedResults!=null){
+			myStreamedResults.close();
+			myStreamedResults = null;
+		}
+	}
+
 	private void checkResultSetsState(WCResultSet resSet) throws SQLException{
 		if(resSet==null){
 			throw new SQLException(
@@ -1028,34 +1824,132 @@ public class WCStatement implements Statement{
 	 * @return A complete HttpPost object that can be executed without further changes.
 	 */
 	private HttpPost initPostMethod(final String actionType, String sqlQuery, final boolean getGeneratedKeys, boolean getRowsAffected) throws SQLException{
+		return initPostMethod(actionType, sqlQuery, getGeneratedKeys, getRowsAffected, null);
+	}
+
+	/**
+	 * Initialises a new HttpPost and populates it with data.<br />
+	 * The returned HttpPost is ready to be executed.
+	 *
+	 * @param actionType This value should be selected from one of this classes static final ACTION_TYPES
+	 * @param sqlQuery A plaintext SQL query ready for executing on the remote webserver.
+	 * @param getGeneratedKeys boolean, if true the any autoincrement values generated by the sql query are requested
+	 * @param getRowsAffected boolean, if true the number of rows affected by the sql query are requested
+	 * @param cursorId the server-side cursor for cursor actions, otherwise null
+	 * @return A complete HttpPost object that can be executed without further changes.
+	 */
+	private HttpPost initPostMethod(final String actionType, String sqlQuery, final boolean getGeneratedKeys, boolean getRowsAffected, final String cursorId) throws SQLException{
+		return initPostMethod(initPostData(actionType, sqlQuery, getGeneratedKeys, getRowsAffected, cursorId));
+	}
+
+	/**
+	 * Initialises a new HttpPost with data from <code>initPostData()</code>.<br />
+	 * The returned HttpPost is ready to be executed.
+	 *
+	 * @param nvpArray the name/value pairs to send
+	 * @return A complete HttpPost object that can be executed without further changes.
+	 */
+	private HttpPost initPostMethod(final DataHandler nvpArray) throws SQLException{
+		HttpPost pmethod = myConnection.getHttpPost();
+
+		synchronized(pmethod){
+			try {
+				pmethod.setEntity(Util.prepareForWeb(nvpArray));
+			} catch (RuntimeException e) {
+				restorePipeline();
+				throw e;
+			}
+		}
+
+		return pmethod;
+	}
+
+	/**
+	 * Puts pipelined statements taken by <code>initPostData()</code> back on the connections queue
+	 * when their request was never sent.
+	 */
+	private void restorePipeline(){
+		final WCConnection.Pipelined[] pipeline = myPendingPipeline;
+		myPendingPipeline = null;
+		myConnection.requeuePipeline(pipeline);
+	}
+
+	/**
+	 * Throws the error recorded by <code>pipelineFailed()</code>, once.
+	 *
+	 * @throws SQLException why this statements last pipelined update failed.
+	 */
+	private void checkPipelineError() throws SQLException{
+		final SQLException error = myPipelineError;
+		if(error!=null){
+			myPipelineError = null;
+			throw error;
+		}
+	}
+
+	/**
+	 * Builds the name/value pairs for a request.<br />
+	 * Callers can add to them before passing them to <code>initPostMethod()</code>.
+	 *
+	 * @param actionType This value should be selected from one of this classes static final ACTION_TYPES
+	 * @param sqlQuery A plaintext SQL query ready for executing on the remote webserver.
+	 * @param getGeneratedKeys boolean, if true the any autoincrement values generated by the sql query are requested
+	 * @param getRowsAffected boolean, if true the number of rows affected by the sql query are requested
+	 * @param cursorId the server-side cursor for cursor actions, otherwise null
+	 * @return the requests name/value pairs.
+	 */
+	private DataHandler initPostData(final String actionType, String sqlQuery, final boolean getGeneratedKeys, boolean getRowsAffected, final String cursorId) throws SQLException{
+		restorePipeline();
+		checkPipelineError();
 		WCConnection localConnection = myConnection;
 
 		if(!localConnection.getCatalog().equals(myCatalog))
 			localConnection.setCatalog(myCatalog);
 
-		HttpPost pmethod = localConnection.getHttpPost();
+		DataHandler nvpArray = Util.getCaseSafeHandler(0);
+		nvpArray.addData(Util.TAG_AUTH, localConnection.getCredentials());
+		nvpArray.addData(Util.TAG_DBTYPE, localConnection.getDbType());
+		nvpArray.addData(Util.TAG_ACTION, actionType);
+		myPendingQuery = localConnection.nextQueryId();
+		nvpArray.addData(Util.TAG_QUERY_ID, myPendingQuery);
+		if(sqlQuery!=null){
+			sqlQuery = SQLUtils.stripComments(sqlQuery, "'", "'");
+			localConnection.checkSessionSql(sqlQuery);
+			nvpArray.addData(Util.TAG_SQL, sqlQuery);
+		}
 
-		synchronized(pmethod){
-			DataHandler nvpArray = Util.getCaseSafeHandler(0);
-			nvpArray.addData(Util.TAG_AUTH, localConnection.getCredentials());
-			nvpArray.addData(Util.TAG_DBTYPE, localConnection.getDbType());
-			nvpArray.addData(Util.TAG_ACTION, actionType);
-			if(sqlQuery!=null){
-				sqlQuery = SQLUtils.stripComments(sqlQuery, "'", "'");
-				nvpArray.addData(Util.TAG_SQL, sqlQuery);
+		if(getGeneratedKeys){
+			nvpArray.addData(MY_GENERATED_KEYS, RETURN_GENERATED_KEYS);
+		}
+		if(getRowsAffected){
+			nvpArray.addData(MY_ROWS_AFFECTED, RETURN_ROWS_AFFECTED);
+		}
+		if(cursorId!=null){
+			nvpArray.addData(Util.TAG_CURSOR, cursorId);
+			if(SQL_CURSOR_OPEN.equals(actionType)){
+				nvpArray.addData(Util.TAG_FETCH_SIZE, mySize);
 			}
-
-			if(getGeneratedKeys){
-				nvpArray.addData(MY_GENERATED_KEYS, RETURN_GENERATED_KEYS);
+		}
+		if(SQL_RESULTS.equals(actionType) || SQL_CURSOR_OPEN.equals(actionType) || SQL_CURSOR_FETCH.equals(actionType)){
+			if(useBinaryResults()){
+				nvpArray.addData(Util.TAG_WIRE, localConnection.getWireProtocol());
 			}
-			if(getRowsAffected){
-				nvpArray.addData(MY_ROWS_AFFECTED, RETURN_ROWS_AFFECTED);
+			if(!myFetchMetaData){
+				nvpArray.addData(Util.TAG_NO_META, "1");
+			}
+			if(myMaxSize > 0 && !SQL_CURSOR_FETCH.equals(actionType)){
+				nvpArray.addData(Util.TAG_MAX_ROWS, myMaxSize);
+			}
+		}
+		// taken last, nothing above can leave them stranded
+		myPendingPipeline = localConnection.takePipeline();
+		if(myPendingPipeline!=null){
+			for(WCConnection.Pipelined queued : myPendingPipeline){
+				nvpArray.addData(Util.TAG_PIPELINE, queued.mySql);
 			}
-
-	        pmethod.setEntity(Util.prepareForWeb(nvpArray));
 		}
 
-		return pmethod;
+		return nvpArray;
 	}
 
 	@Override
@@ -1069,4 +1963,31 @@ public class WCStatement implements Statement{
 		// TODO Auto-generated method stub
 		return false;
 	}
+
+	//----------------------------------------------------------inner classes
+
+	/**
+	 * Runs an async task while holding the statements execute lock.
+	 */
+	private class AsyncCall<T> implements Callable<T> {
+
+		private final transient Callable<T> myTask;
+		/** true while the task holds the lock. Read by Future.cancel() */
+		private transient volatile boolean isRunning = false;
+
+		AsyncCall(final Callable<T> task){
+			myTask = task;
+		}
+
+		public T call() throws Exception {
+			synchronized(myExecuteLock){
+				isRunning = true;
+				try {
+					return myTask.call();
+				} finally {
+					isRunning = false;
+				}
+			}
+		}
+	}
 }
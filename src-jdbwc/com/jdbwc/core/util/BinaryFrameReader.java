@@ -0,0 +1,259 @@
+/* ********************************************************************
+ * Copyright (C) 2012 Oz-DevWorX (Tim Gall)
+ * ********************************************************************
+ * This file is part of JDBWC.
+ *
+ * JDBWC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JDBWC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JDBWC.  If not, see <http://www.gnu.org/licenses/>.
+ * ********************************************************************
+ */
+package com.jdbwc.core.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Low level reader for the JDBWC binary result format.<br />
+ * <br />
+ * The binary format replaces the escaped <code>_EOL__</code> / <code>_EOF__</code>
+ * text format for result sets when the server advertises support for it
+ * during the connection handshake.
+ * Values are never escaped, split or unescaped.<br />
+ * <br />
+ * <b>Layout:</b>
+ * <pre>
+ * stream   = MAGIC { table } END
+ * table    = (TABLE | META) count { value } { row }
+ * row      = ROW bitmap { value }
+ * bitmap   = ceil(count / 8) bytes. Bit n (LSB first) set = column n is NULL
+ * value    = length UTF-8-bytes
+ * length   = 1 byte (0-254) or 0xFF followed by a 4 byte big-endian int
+ * </pre>
+ * NULL values have their bitmap bit set and no value bytes.
+ * A table header carries the column count and column labels;
+ * every row frame in that table has the same column count.<br />
+ * <br />
+ * Any tag byte that isn't part of the format marks the start of a plain text
+ * server message (usually an <code>ERROR# </code> string) which can be
+ * fetched with <code>readRemainingText()</code>.
+ * A response that doesn't start with MAGIC can be handed to a
+ * <code>TextFrameReader</code> using <code>getRemainingStream()</code>.
+ *
+ * @author Tim Gall
+ * @version 2012-04-04
+ */
+public class BinaryFrameReader {
+
+	/** binary wire format version supported by this reader */
+	public static final int VERSION = 1;
+
+	/** stream header. Never starts or ends with whitespace; the server trims its output buffer. */
+	public static final String MAGIC = "JDBWC/B1";
+
+	/** data table header */
+	public static final int TAG_TABLE = 'T';
+	/** metadata table header */
+	public static final int TAG_META = 'M';
+	/** row frame */
+	public static final int TAG_ROW = 'D';
+	/** end of stream */
+	public static final int TAG_END = 'Z';
+
+	private static final int LONG_LENGTH = 0xFF;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final transient InputStream myInput;
+	private transient byte[] myBuffer = new byte[256];
+	private transient int myColumnCount = 0;
+	private transient int myLastTag = -1;
+	/** bytes held in myBuffer by a failed readMagic() */
+	private transient int myPending = 0;
+
+	/**
+	 * @param input stream positioned at the start of the server response.
+	 * The stream should be buffered.
+	 */
+	public BinaryFrameReader(final InputStream input){
+		myInput = input;
+	}
+
+	/**
+	 * Reads the stream header.<br />
+	 * If the header is not the binary format MAGIC,
+	 * the bytes read so far are kept so <code>readRemainingText()</code>
+	 * can return the whole response as text.
+	 *
+	 * @return true if the stream uses the binary format.
+	 * @throws IOException
+	 */
+	public boolean readMagic() throws IOException{
+		final int len = MAGIC.length();
+		int read = 0;
+		while(read < len){
+			final int b = myInput.read();
+			if(b==-1)
+				break;
+			myBuffer[read++] = (byte)b;
+			if(b!=MAGIC.charAt(read-1)){
+				break;
+			}
+		}
+		if(read==len){
+			return true;
+		}
+
+		myPending = read;
+		return false;
+	}
+
+	/**
+	 * @return The next frame tag.
+	 * One of TAG_TABLE, TAG_META, TAG_ROW, TAG_END
+	 * or any other value for a plain text server message.
+	 * @throws IOException
+	 */
+	public int nextTag() throws IOException{
+		final int tag = myInput.read();
+		myLastTag = tag;
+		if(tag==-1)
+			throw new EOFException("Unexpected end of binary result stream");
+		return tag;
+	}
+
+	/**
+	 * Reads a table header following a TAG_TABLE or TAG_META tag.
+	 *
+	 * @return the column labels for this table.
+	 * @throws IOException
+	 */
+	public String[] readHeader() throws IOException{
+		myColumnCount = readLength();
+		final String[] labels = new String[myColumnCount];
+		for(int i = 0; i < myColumnCount; i++){
+			labels[i] = readValue();
+		}
+		return labels;
+	}
+
+	/**
+	 * Reads a row following a TAG_ROW tag.
+	 *
+	 * @param row array to fill. Must be at least as long as the current column count.
+	 * NULL values are stored as java null.
+	 * @throws IOException
+	 */
+	public void readRow(final String[] row) throws IOException{
+		final int bitmapLen = (myColumnCount + 7) >> 3;
+		final byte[] bitmap = new byte[bitmapLen];
+		readFully(bitmap, bitmapLen);
+
+		for(int i = 0; i < myColumnCount; i++){
+			if((bitmap[i >> 3] & (1 << (i & 7))) != 0){
+				row[i] = null;
+			}else{
+				row[i] = readValue();
+			}
+		}
+	}
+
+	/**
+	 * @return the column count of the current table.
+	 */
+	public int getColumnCount(){
+		return myColumnCount;
+	}
+
+	/**
+	 * Reads everything left in the stream as UTF-8 text.
+	 * Includes any bytes consumed by a failed <code>readMagic()</code>
+	 * and the last unrecognised tag byte.
+	 *
+	 * @return the remaining server response.
+	 * @throws IOException
+	 */
+	public String readRemainingText() throws IOException{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if(myPending > 0){
+			out.write(myBuffer, 0, myPending);
+			myPending = 0;
+		}else if(myLastTag > -1){
+			out.write(myLastTag);
+		}
+		final byte[] chunk = new byte[8192];
+		int count;
+		while((count = myInput.read(chunk)) != -1){
+			out.write(chunk, 0, count);
+		}
+		return new String(out.toByteArray(), UTF8);
+	}
+
+	/**
+	 * The rest of the response as a stream.
+	 * Includes any bytes consumed by a failed <code>readMagic()</code>
+	 * so the response can be handed to a text format reader.
+	 *
+	 * @return the remaining server response.
+	 */
+	public InputStream getRemainingStream(){
+		if(myPending > 0){
+			final byte[] pending = new byte[myPending];
+			System.arraycopy(myBuffer, 0, pending, 0, myPending);
+			myPending = 0;
+			return new SequenceInputStream(new ByteArrayInputStream(pending), myInput);
+		}
+		return myInput;
+	}
+
+	//----------------------------------------------------------private methods
+
+	private int readLength() throws IOException{
+		final int b = myInput.read();
+		if(b==-1)
+			throw new EOFException("Unexpected end of binary result stream");
+		if(b!=LONG_LENGTH)
+			return b;
+
+		final int b1 = myInput.read();
+		final int b2 = myInput.read();
+		final int b3 = myInput.read();
+		final int b4 = myInput.read();
+		if((b1 | b2 | b3 | b4) < 0)
+			throw new EOFException("Unexpected end of binary result stream");
+		return (b1 << 24) | (b2 << 16) | (b3 << 8) | b4;
+	}
+
+	private String readValue() throws IOException{
+		final int len = readLength();
+		if(len==0)
+			return "";
+		if(myBuffer.length < len)
+			myBuffer = new byte[Math.max(len, myBuffer.length * 2)];
+		readFully(myBuffer, len);
+		return new String(myBuffer, 0, len, UTF8);
+	}
+
+	private void readFully(final byte[] buf, final int len) throws IOException{
+		int off = 0;
+		while(off < len){
+			final int count = myInput.read(buf, off, len - off);
+			if(count==-1)
+				throw new EOFException("Unexpected end of binary result stream");
+			off += count;
+		}
+	}
+}
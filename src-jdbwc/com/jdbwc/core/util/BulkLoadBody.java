@@ -0,0 +1,171 @@
+/* ********************************************************************
+ * Copyright (C) 2012 Oz-DevWorX (Tim Gall)
+ * ********************************************************************
+ * This file is part of JDBWC.
+ *
+ * JDBWC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JDBWC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JDBWC.  If not, see <http://www.gnu.org/licenses/>.
+ * ********************************************************************
+ */
+package com.jdbwc.core.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Iterator;
+
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+import org.apache.http.protocol.HTTP;
+
+/**
+ * Streams bulk load rows into a multipart upload.<br />
+ * <br />
+ * Rows are written in the text format shared by MySQL's
+ * <code>LOAD DATA</code> defaults and PostgreSQL's <code>COPY</code> text format:
+ * <ul>
+ * <li>one row per line, ended with <code>\n</code>.</li>
+ * <li>columns separated by a tab.</li>
+ * <li>NULL is written as <code>\N</code>.</li>
+ * <li>backslash, tab, newline and carriage return inside a value are
+ * written as <code>\\</code>, <code>\t</code>, <code>\n</code> and <code>\r</code>.</li>
+ * </ul>
+ * The content length is unknown so the upload is sent chunked and
+ * rows are never held in memory. The body can only be written once.
+ *
+ * @author Tim Gall
+ * @version 2012-04-10
+ */
+public class BulkLoadBody extends AbstractContentBody {
+
+	private static final String MY_FILENAME = "rows.txt";
+	private static final int MY_BUFFER_SIZE = 8192;
+
+	private final transient Iterator<Object[]> myRows;
+	private final transient Reader myText;
+
+	/**
+	 * @param rows the rows to load. Values are written with <code>String.valueOf()</code>,
+	 * Booleans as 1 or 0.
+	 */
+	public BulkLoadBody(final Iterator<Object[]> rows) {
+		super(HTTP.PLAIN_TEXT_TYPE);
+		myRows = rows;
+		myText = null;
+	}
+
+	/**
+	 * @param text rows already in the bulk load text format. Copied as is.
+	 */
+	public BulkLoadBody(final Reader text) {
+		super(HTTP.PLAIN_TEXT_TYPE);
+		myRows = null;
+		myText = text;
+	}
+
+	/**
+	 * The stream is flushed but not closed.
+	 *
+	 * @see org.apache.http.entity.mime.content.ContentBody#writeTo(java.io.OutputStream)
+	 */
+	public void writeTo(final OutputStream out) throws IOException {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(out, HTTP.UTF_8), MY_BUFFER_SIZE);
+		if(myText!=null){
+			final char[] buffer = new char[MY_BUFFER_SIZE];
+			int read;
+			while((read = myText.read(buffer)) > -1){
+				writer.write(buffer, 0, read);
+			}
+		}else{
+			while(myRows.hasNext()){
+				writeRow(writer, myRows.next());
+			}
+		}
+		writer.flush();
+	}
+
+	/**
+	 * @see org.apache.http.entity.mime.content.ContentBody#getFilename()
+	 */
+	public String getFilename() {
+		return MY_FILENAME;
+	}
+
+	/**
+	 * @see org.apache.http.entity.mime.content.ContentDescriptor#getCharset()
+	 */
+	public String getCharset() {
+		return HTTP.UTF_8;
+	}
+
+	/**
+	 * @see org.apache.http.entity.mime.content.ContentDescriptor#getTransferEncoding()
+	 */
+	public String getTransferEncoding() {
+		return MIME.ENC_8BIT;
+	}
+
+	/**
+	 * @return -1, the length is unknown until every row is written.
+	 * @see org.apache.http.entity.mime.content.ContentDescriptor#getContentLength()
+	 */
+	public long getContentLength() {
+		return -1;
+	}
+
+	//--------------------------------------------------------- private methods
+
+	private static void writeRow(final Writer writer, final Object[] row) throws IOException {
+		for(int i = 0; i < row.length; i++){
+			if(i > 0)
+				writer.write('\t');
+
+			final Object value = row[i];
+			if(value==null){
+				writer.write("\\N");
+			}else if(value instanceof Boolean){
+				writer.write(((Boolean)value).booleanValue() ? '1' : '0');
+			}else{
+				writeValue(writer, String.valueOf(value));
+			}
+		}
+		writer.write('\n');
+	}
+
+	private static void writeValue(final Writer writer, final String value) throws IOException {
+		final int length = value.length();
+		for(int i = 0; i < length; i++){
+			final char c = value.charAt(i);
+			switch(c){
+			case '\\':
+				writer.write("\\\\");
+				break;
+			case '\t':
+				writer.write("\\t");
+				break;
+			case '\n':
+				writer.write("\\n");
+				break;
+			case '\r':
+				writer.write("\\r");
+				break;
+			default:
+				writer.write(c);
+				break;
+			}
+		}
+	}
+}
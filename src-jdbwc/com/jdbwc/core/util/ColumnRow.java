@@ -0,0 +1,312 @@
+/* ********************************************************************
+ * Copyright (C) 2012 Oz-DevWorX (Tim Gall)
+ * ********************************************************************
+ * This file is part of JDBWC.
+ *
+ * JDBWC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JDBWC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JDBWC.  If not, see <http://www.gnu.org/licenses/>.
+ * ********************************************************************
+ */
+package com.jdbwc.core.util;
+
+import com.ozdevworx.dtype.DataHandler;
+
+/**
+ * A single row of a <code>ColumnStore</code>.<br />
+ * <br />
+ * Behaves like the row lists used by earlier releases
+ * but reads and writes straight through to the stores columns.
+ * <code>clearData()</code> detaches the view from its row,
+ * the stored row is left as it is.<br />
+ * <br />
+ * The primitive getters let ResultSet getters skip String parsing
+ * for columns the store holds as numbers.
+ *
+ * @author Tim Gall
+ * @version 2012-04-10
+ */
+public class ColumnRow implements DataHandler {
+
+	private transient final ColumnStore myStore;
+	private transient int myRow;
+
+	ColumnRow(final ColumnStore store, final int row) {
+		myStore = store;
+		myRow = row;
+	}
+
+	// ---------------------------------------------------- primitive getters
+
+	/**
+	 * @param i column index
+	 * @return true if column i is held as a long.
+	 */
+	public boolean isLongColumn(final int i) {
+		synchronized(myStore.mutex) {
+			return hasColumn(i) && myStore.getColumnData(i) instanceof ColumnStore.LongColumn;
+		}
+	}
+
+	/**
+	 * @param i column index
+	 * @return true if column i is held as a double.
+	 */
+	public boolean isDoubleColumn(final int i) {
+		synchronized(myStore.mutex) {
+			return hasColumn(i) && myStore.getColumnData(i) instanceof ColumnStore.DoubleColumn;
+		}
+	}
+
+	/**
+	 * @param i column index
+	 * @return true if the value in column i is SQL NULL.
+	 */
+	public boolean isNull(final int i) {
+		synchronized(myStore.mutex) {
+			return !hasColumn(i) || myStore.getColumnData(i).isNull(myRow);
+		}
+	}
+
+	/**
+	 * Only valid when <code>isLongColumn(i)</code> is true.
+	 *
+	 * @param i column index
+	 * @return the value in column i. 0 (zero) for SQL NULL.
+	 */
+	public long getLong(final int i) {
+		synchronized(myStore.mutex) {
+			return ((ColumnStore.LongColumn)myStore.getColumnData(i)).getLong(myRow);
+		}
+	}
+
+	/**
+	 * Only valid when <code>isDoubleColumn(i)</code> is true.
+	 *
+	 * @param i column index
+	 * @return the value in column i. 0 (zero) for SQL NULL.
+	 */
+	public double getDouble(final int i) {
+		synchronized(myStore.mutex) {
+			return ((ColumnStore.DoubleColumn)myStore.getColumnData(i)).getDouble(myRow);
+		}
+	}
+
+	// ---------------------------------------------------- public methods
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#addData(java.lang.String, java.lang.Object)
+	 */
+	public void addData(final String n, final Object d) {
+		if(n!=null){
+			synchronized(myStore.mutex) {
+				if(myStore.isRow(myRow)){
+					final int column = myStore.getColumn(myStore.fixCase(n));
+					myStore.setValue(myRow, column, d);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Detaches this view. The stored row isn't changed.
+	 *
+	 * @see com.ozdevworx.dtype.DataHandler#clearData()
+	 */
+	public void clearData() {
+		synchronized(myStore.mutex) {
+			myRow = -1;
+		}
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#countMatches(java.lang.String)
+	 */
+	public int countMatches(final String n) {
+		int m = 0;
+		synchronized(myStore.mutex) {
+			if(myStore.isRow(myRow)){
+				final int first = myStore.findColumn(n);
+				if(first > -1){
+					final String label = myStore.getLabel(first);
+					final int size = myStore.getColumnCount();
+					for(int c = first; c < size; c++){
+						if(label.equals(myStore.getLabel(c)))
+							m++;
+					}
+				}
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#getIndex(java.lang.String)
+	 */
+	public int getIndex(final String n) {
+		synchronized(myStore.mutex) {
+			return myStore.isRow(myRow) ? myStore.findColumn(n) : -1;
+		}
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#getKey(int)
+	 */
+	public String getKey(final int i) {
+		synchronized(myStore.mutex) {
+			return hasColumn(i) ? myStore.getLabel(i) : "";
+		}
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#getObject(int)
+	 */
+	public Object getObject(final int i) {
+		synchronized(myStore.mutex) {
+			return hasColumn(i) ? myStore.getValue(myRow, i) : null;
+		}
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#getObject(java.lang.String)
+	 */
+	public Object getObject(final String n) {
+		synchronized(myStore.mutex) {
+			return getObject(getIndex(n));
+		}
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#getString(int)
+	 */
+	public String getString(final int i) {
+		final Object o;
+		synchronized(myStore.mutex) {
+			o = hasColumn(i) ? myStore.getValue(myRow, i) : "";
+		}
+		return o==null ? null : String.valueOf(o);
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#getString(java.lang.String)
+	 */
+	public String getString(final String n) {
+		synchronized(myStore.mutex) {
+			return getString(getIndex(n));
+		}
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#hasElement(java.lang.String, java.lang.String)
+	 */
+	public boolean hasElement(final String key, final String data) {
+		synchronized(myStore.mutex) {
+			final int size = hasColumn(0) ? myStore.getColumnCount() : 0;
+			for(int c = 0; c < size; c++){
+				if(myStore.getLabel(c).equalsIgnoreCase(key) && String.valueOf(myStore.getValue(myRow, c)).equals(data))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#hasKey(int)
+	 */
+	public boolean hasKey(final int index) {
+		synchronized(myStore.mutex) {
+			return hasColumn(index);
+		}
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#hasKey(java.lang.String)
+	 */
+	public boolean hasKey(final String value) {
+		return getIndex(value) > -1;
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#isEmpty()
+	 */
+	public boolean isEmpty() {
+		return length()==0;
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#length()
+	 */
+	public int length() {
+		synchronized(myStore.mutex) {
+			return myStore.isRow(myRow) ? myStore.getColumnCount() : 0;
+		}
+	}
+
+	/**
+	 * Columns are shared by every row so they can't be removed from a single row.
+	 * The value is set to SQL NULL instead.
+	 *
+	 * @see com.ozdevworx.dtype.DataHandler#removeByIndex(int)
+	 */
+	public void removeByIndex(final int i) {
+		setData(i, null);
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#removeByKey(java.lang.String)
+	 * @see #removeByIndex(int)
+	 */
+	public void removeByKey(final String n) {
+		setData(n, null);
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#setData(int, java.lang.Object)
+	 */
+	public void setData(final int i, final Object d) {
+		synchronized(myStore.mutex) {
+			if(hasColumn(i))
+				myStore.setValue(myRow, i, d);
+		}
+	}
+
+	/**
+	 * The column label can't be changed for a single row, only the value is set.
+	 *
+	 * @see com.ozdevworx.dtype.DataHandler#setData(int, java.lang.String, java.lang.Object)
+	 */
+	public void setData(final int index, final String newKey, final Object newObj) {
+		setData(index, newObj);
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#setData(java.lang.String, java.lang.Object)
+	 */
+	public void setData(final String n, final Object d) {
+		synchronized(myStore.mutex) {
+			final int i = getIndex(n);
+			if(i > -1)
+				setData(i, d);
+			else
+				addData(n, d);
+		}
+	}
+
+	// ---------------------------------------------------- private methods
+
+	/**
+	 * Callers hold the stores mutex.
+	 */
+	private boolean hasColumn(final int i) {
+		return i >= 0 && myStore.isRow(myRow) && i < myStore.getColumnCount();
+	}
+}
@@ -0,0 +1,676 @@
+/* ********************************************************************
+ * Copyright (C) 2012 Oz-DevWorX (Tim Gall)
+ * ********************************************************************
+ * This file is part of JDBWC.
+ *
+ * JDBWC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JDBWC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JDBWC.  If not, see <http://www.gnu.org/licenses/>.
+ * ********************************************************************
+ */
+package com.jdbwc.core.util;
+
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.jdbwc.util.Util;
+import com.ozdevworx.dtype.DataHandler;
+
+/**
+ * Column based row storage for ResultSets.<br />
+ * <br />
+ * A DataHandler of rows, like the row lists it replaces,
+ * but the values are held one array per column and the
+ * column labels are only stored once for the whole table.
+ * Rows are handed out as <code>ColumnRow</code> views so nothing
+ * is copied when the cursor moves.<br />
+ * <br />
+ * Values arrive as Strings. Once the column types are known,
+ * <code>setColumnTypes()</code> moves integer and floating point columns
+ * into primitive arrays with a null bitmap. A column is only moved if every
+ * value converts back to exactly the same String, so getString() and getObject()
+ * return the same values either way.<br />
+ * <br />
+ * Row keys are the row numbers as Strings, the same as the lists built by WCResultSet.addRow().
+ *
+ * @author Tim Gall
+ * @version 2012-04-10
+ */
+public class ColumnStore implements DataHandler {
+
+	// ---------------------------------------------------- fields
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private transient final boolean myCaseSensitive;
+	private transient final boolean myLowerCaseKeys;
+
+	/** column labels in the stores key case */
+	private transient String[] myLabels = new String[0];
+	/** folded column label to its first column */
+	private transient Map<String, Integer> myLabelIndex = new HashMap<String, Integer>();
+	private transient Column[] myColumns = new Column[0];
+	private transient int myRowCount = 0;
+	private transient int myCapacity = INITIAL_CAPACITY;
+
+	/** the last label array given to addRow(String[], Object[]) and its column mapping */
+	private transient String[] myLastLabels = null;
+	private transient int[] myLastMapping = null;
+
+	/**
+	 * Synchronization mutex. Shared with the ColumnRow views.
+	 */
+	final Object mutex = this;
+
+	// ---------------------------------------------------- constructors
+
+	/**
+	 * @param caseType one of Util.CASE_LOWER, Util.CASE_UPPER or Util.CASE_MIXED.
+	 * Column labels are folded the same way as Util.getCaseSafeHandler(caseType).
+	 */
+	public ColumnStore(final int caseType) {
+		super();
+		myCaseSensitive = (caseType==Util.CASE_LOWER || caseType==Util.CASE_UPPER);
+		myLowerCaseKeys = (caseType==Util.CASE_LOWER);
+	}
+
+	// ---------------------------------------------------- public methods
+
+	/**
+	 * Appends a row without building a DataHandler for it first.
+	 * Values go in by position. Positions past the last column are added as new columns.
+	 *
+	 * @param labels the column label for each value, in column order.
+	 * Passing the same array for every row skips matching the labels again.
+	 * @param values the rows values. Shorter than labels is ok.
+	 */
+	public void addRow(final String[] labels, final Object[] values) {
+		synchronized(mutex) {
+			if(labels!=myLastLabels || myLastMapping.length!=labels.length){
+				myLastMapping = new int[labels.length];
+				for(int i = 0; i < labels.length; i++){
+					myLastMapping[i] = getColumn(fixCase(labels[i]), i);
+				}
+				myLastLabels = labels;
+			}
+
+			ensureCapacity(myRowCount + 1);
+			final int limit = Math.min(labels.length, values.length);
+			for(int i = 0; i < limit; i++){
+				setValue(myRowCount, myLastMapping[i], values[i]);
+			}
+			myRowCount++;
+		}
+	}
+
+	/**
+	 * Moves integer and floating point columns into primitive arrays.
+	 * Columns are matched by position. Columns that don't convert
+	 * exactly are left as they are.
+	 *
+	 * @param sqlTypes a java.sql.Types value for each column.
+	 */
+	public void setColumnTypes(final int[] sqlTypes) {
+		synchronized(mutex) {
+			final int limit = Math.min(sqlTypes.length, myColumns.length);
+			for(int c = 0; c < limit; c++){
+				if(!(myColumns[c] instanceof ObjectColumn))
+					continue;
+
+				Column typed = null;
+				switch(sqlTypes[c]){
+				case Types.TINYINT:
+				case Types.SMALLINT:
+				case Types.INTEGER:
+				case Types.BIGINT:
+					typed = new LongColumn(myCapacity);
+					break;
+				case Types.REAL:
+				case Types.FLOAT:
+				case Types.DOUBLE:
+					typed = new DoubleColumn(myCapacity);
+					break;
+				}
+
+				if(typed!=null && ((ObjectColumn)myColumns[c]).copyTo(typed, myRowCount)){
+					myColumns[c] = typed;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a row to the end of this store.
+	 *
+	 * @param n ignored. Rows are keyed by row number.
+	 * @param d the row. Must be a DataHandler, anything else is ignored.
+	 * @see com.ozdevworx.dtype.DataHandler#addData(java.lang.String, java.lang.Object)
+	 */
+	public void addData(final String n, final Object d) {
+		if(d instanceof DataHandler){
+			synchronized(mutex) {
+				ensureCapacity(myRowCount + 1);
+				myRowCount++;
+				setRow(myRowCount - 1, (DataHandler)d);
+			}
+		}
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#clearData()
+	 */
+	public void clearData() {
+		synchronized(mutex) {
+			myLabels = new String[0];
+			myLabelIndex = new HashMap<String, Integer>();
+			myColumns = new Column[0];
+			myRowCount = 0;
+			myCapacity = INITIAL_CAPACITY;
+			myLastLabels = null;
+			myLastMapping = null;
+		}
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#countMatches(java.lang.String)
+	 */
+	public int countMatches(final String n) {
+		return hasKey(n) ? 1 : 0;
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#getIndex(java.lang.String)
+	 */
+	public int getIndex(final String n) {
+		final int i = toRowNumber(n);
+		return hasKey(i) ? i : -1;
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#getKey(int)
+	 */
+	public String getKey(final int i) {
+		return hasKey(i) ? String.valueOf(i) : "";
+	}
+
+	/**
+	 * @return a view of row i or null if there is no row i.
+	 * @see com.ozdevworx.dtype.DataHandler#getObject(int)
+	 */
+	public Object getObject(final int i) {
+		return hasKey(i) ? new ColumnRow(this, i) : null;
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#getObject(java.lang.String)
+	 */
+	public Object getObject(final String n) {
+		return getObject(toRowNumber(n));
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#getString(int)
+	 */
+	public String getString(final int i) {
+		final Object row = getObject(i);
+		return row==null ? "" : row.toString();
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#getString(java.lang.String)
+	 */
+	public String getString(final String n) {
+		return getString(toRowNumber(n));
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#hasElement(java.lang.String, java.lang.String)
+	 */
+	public boolean hasElement(final String key, final String data) {
+		return false;
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#hasKey(int)
+	 */
+	public boolean hasKey(final int index) {
+		synchronized(mutex) {
+			return index >= 0 && index < myRowCount;
+		}
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#hasKey(java.lang.String)
+	 */
+	public boolean hasKey(final String value) {
+		return hasKey(toRowNumber(value));
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#isEmpty()
+	 */
+	public boolean isEmpty() {
+		synchronized(mutex) {
+			return myRowCount==0;
+		}
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#length()
+	 */
+	public int length() {
+		synchronized(mutex) {
+			return myRowCount;
+		}
+	}
+
+	/**
+	 * Removes row i. Later rows move up one place.
+	 *
+	 * @see com.ozdevworx.dtype.DataHandler#removeByIndex(int)
+	 */
+	public void removeByIndex(final int i) {
+		synchronized(mutex) {
+			if(i >= 0 && i < myRowCount){
+				for(int c = 0; c < myColumns.length; c++){
+					myColumns[c].remove(i, myRowCount);
+				}
+				myRowCount--;
+			}
+		}
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#removeByKey(java.lang.String)
+	 */
+	public void removeByKey(final String n) {
+		removeByIndex(toRowNumber(n));
+	}
+
+	/**
+	 * Replaces the values of row i.
+	 *
+	 * @see com.ozdevworx.dtype.DataHandler#setData(int, java.lang.Object)
+	 */
+	public void setData(final int i, final Object d) {
+		if(d instanceof DataHandler){
+			synchronized(mutex) {
+				if(i >= 0 && i < myRowCount)
+					setRow(i, (DataHandler)d);
+			}
+		}
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#setData(int, java.lang.String, java.lang.Object)
+	 */
+	public void setData(final int index, final String newKey, final Object newObj) {
+		setData(index, newObj);
+	}
+
+	/**
+	 * @see com.ozdevworx.dtype.DataHandler#setData(java.lang.String, java.lang.Object)
+	 */
+	public void setData(final String n, final Object d) {
+		final int i = toRowNumber(n);
+		if(hasKey(i))
+			setData(i, d);
+		else
+			addData(n, d);
+	}
+
+	// ---------------------------------------------------- package methods
+	// used by ColumnRow. Callers hold mutex.
+
+	int getColumnCount() {
+		return myColumns.length;
+	}
+
+	String getLabel(final int column) {
+		return myLabels[column];
+	}
+
+	/**
+	 * @return the first column with label or -1.
+	 */
+	int findColumn(final String label) {
+		final Integer column = myLabelIndex.get(fixCase(label));
+		return column==null ? -1 : column.intValue();
+	}
+
+	boolean isRow(final int row) {
+		return row >= 0 && row < myRowCount;
+	}
+
+	Object getValue(final int row, final int column) {
+		return myColumns[column].get(row);
+	}
+
+	void setValue(final int row, final int column, final Object value) {
+		if(myColumns[column].accepts(value)){
+			myColumns[column].set(row, value);
+		}else{
+			final ObjectColumn plain = new ObjectColumn(myCapacity);
+			for(int r = 0; r < myRowCount; r++){
+				plain.set(r, myColumns[column].get(r));
+			}
+			plain.set(row, value);
+			myColumns[column] = plain;
+		}
+	}
+
+	/**
+	 * Columns are positional, so a label repeated in a row (EG: a.id, b.id)
+	 * still gets a column of its own.
+	 *
+	 * @return the column at position, adding it if needed.
+	 */
+	int getColumn(final String label, final int position) {
+		while(myLabels.length <= position){
+			addColumn(label);
+		}
+		return position;
+	}
+
+	/**
+	 * @return the first column with label, adding it if there isn't one.
+	 */
+	int getColumn(final String label) {
+		final int found = findColumn(label);
+		return found > -1 ? found : addColumn(label);
+	}
+
+	Column getColumnData(final int column) {
+		return myColumns[column];
+	}
+
+	// ---------------------------------------------------- private methods
+
+	private void setRow(final int row, final DataHandler d) {
+		final int size = d.length();
+		for(int i = 0; i < size; i++){
+			final int column = getColumn(fixCase(d.getKey(i)), i);
+			setValue(row, column, d.getObject(i));
+		}
+	}
+
+	private int addColumn(final String label) {
+		final int column = myLabels.length;
+		final String[] labels = new String[column + 1];
+		final Column[] columns = new Column[column + 1];
+		System.arraycopy(myLabels, 0, labels, 0, column);
+		System.arraycopy(myColumns, 0, columns, 0, column);
+		labels[column] = label;
+		columns[column] = new ObjectColumn(myCapacity);
+		if(!myLabelIndex.containsKey(label)){
+			myLabelIndex.put(label, Integer.valueOf(column));
+		}
+		myLabels = labels;
+		myColumns = columns;
+		myLastLabels = null;
+		return column;
+	}
+
+	private void ensureCapacity(final int rows) {
+		if(rows > myCapacity){
+			myCapacity = Math.max(rows, myCapacity * 2);
+			for(int c = 0; c < myColumns.length; c++){
+				myColumns[c].grow(myCapacity);
+			}
+		}
+	}
+
+	private int toRowNumber(final String n) {
+		try {
+			return Integer.parseInt(n);
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Same case rules as ObjectList so labels match the row lists this replaces.
+	 */
+	String fixCase(final String n) {
+		String output = n;
+		if(myCaseSensitive){
+			if(myLowerCaseKeys)
+				output = output.toLowerCase(Locale.ENGLISH);
+			else
+				output = output.toUpperCase(Locale.ENGLISH);
+		}
+		return output;
+	}
+
+	// ---------------------------------------------------- columns
+
+	/**
+	 * Storage for one column.
+	 */
+	abstract static class Column {
+
+		/** @return the value at row as a String, or null for SQL NULL. */
+		abstract Object get(int row);
+
+		abstract void set(int row, Object value);
+
+		/** @return true if value can be stored without changing the column type. */
+		abstract boolean accepts(Object value);
+
+		abstract void grow(int capacity);
+
+		/** Removes row, moving later rows up. */
+		abstract void remove(int row, int rowCount);
+
+		boolean isNull(final int row) {
+			return get(row)==null;
+		}
+	}
+
+	/**
+	 * Values as sent by the server. Used for every column until the types are known.
+	 */
+	private static class ObjectColumn extends Column {
+
+		private Object[] myValues;
+
+		ObjectColumn(final int capacity) {
+			myValues = new Object[capacity];
+		}
+
+		Object get(final int row) {
+			final Object o = myValues[row];
+			return (o==null || "NULL".equalsIgnoreCase(String.valueOf(o))) ? null : o;
+		}
+
+		void set(final int row, final Object value) {
+			myValues[row] = value;
+		}
+
+		boolean accepts(final Object value) {
+			return true;
+		}
+
+		void grow(final int capacity) {
+			final Object[] values = new Object[capacity];
+			System.arraycopy(myValues, 0, values, 0, myValues.length);
+			myValues = values;
+		}
+
+		void remove(final int row, final int rowCount) {
+			System.arraycopy(myValues, row + 1, myValues, row, rowCount - row - 1);
+			myValues[rowCount - 1] = null;
+		}
+
+		/**
+		 * @return false if any value doesn't convert exactly.
+		 */
+		boolean copyTo(final Column target, final int rowCount) {
+			for(int r = 0; r < rowCount; r++){
+				final Object o = get(r);
+				if(!target.accepts(o))
+					return false;
+				target.set(r, o);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Values that are null or exactly match a primitive Strings form.
+	 */
+	abstract static class PrimitiveColumn extends Column {
+
+		/** one bit per row. Set for SQL NULL */
+		private long[] myNulls;
+
+		PrimitiveColumn(final int capacity) {
+			myNulls = new long[(capacity + 63) >> 6];
+		}
+
+		boolean isNull(final int row) {
+			return (myNulls[row >> 6] & (1L << (row & 63))) != 0;
+		}
+
+		void setNull(final int row, final boolean isNull) {
+			if(isNull)
+				myNulls[row >> 6] |= (1L << (row & 63));
+			else
+				myNulls[row >> 6] &= ~(1L << (row & 63));
+		}
+
+		void grow(final int capacity) {
+			final long[] nulls = new long[(capacity + 63) >> 6];
+			System.arraycopy(myNulls, 0, nulls, 0, myNulls.length);
+			myNulls = nulls;
+		}
+
+		void remove(final int row, final int rowCount) {
+			for(int r = row; r < rowCount - 1; r++){
+				setNull(r, isNull(r + 1));
+			}
+			setNull(rowCount - 1, false);
+		}
+	}
+
+	/**
+	 * Integer columns.
+	 */
+	static class LongColumn extends PrimitiveColumn {
+
+		private long[] myValues;
+
+		LongColumn(final int capacity) {
+			super(capacity);
+			myValues = new long[capacity];
+		}
+
+		long getLong(final int row) {
+			return myValues[row];
+		}
+
+		Object get(final int row) {
+			return isNull(row) ? null : Long.toString(myValues[row]);
+		}
+
+		void set(final int row, final Object value) {
+			if(value==null){
+				setNull(row, true);
+				myValues[row] = 0L;
+			}else{
+				setNull(row, false);
+				myValues[row] = Long.parseLong((String)value);
+			}
+		}
+
+		boolean accepts(final Object value) {
+			if(value==null)
+				return true;
+			if(!(value instanceof String))
+				return false;
+			try {
+				return Long.toString(Long.parseLong((String)value)).equals(value);
+			} catch (final NumberFormatException e) {
+				return false;
+			}
+		}
+
+		void grow(final int capacity) {
+			super.grow(capacity);
+			final long[] values = new long[capacity];
+			System.arraycopy(myValues, 0, values, 0, myValues.length);
+			myValues = values;
+		}
+
+		void remove(final int row, final int rowCount) {
+			super.remove(row, rowCount);
+			System.arraycopy(myValues, row + 1, myValues, row, rowCount - row - 1);
+		}
+	}
+
+	/**
+	 * Floating point columns.
+	 */
+	static class DoubleColumn extends PrimitiveColumn {
+
+		private double[] myValues;
+
+		DoubleColumn(final int capacity) {
+			super(capacity);
+			myValues = new double[capacity];
+		}
+
+		double getDouble(final int row) {
+			return myValues[row];
+		}
+
+		Object get(final int row) {
+			return isNull(row) ? null : Double.toString(myValues[row]);
+		}
+
+		void set(final int row, final Object value) {
+			if(value==null){
+				setNull(row, true);
+				myValues[row] = 0D;
+			}else{
+				setNull(row, false);
+				myValues[row] = Double.parseDouble((String)value);
+			}
+		}
+
+		boolean accepts(final Object value) {
+			if(value==null)
+				return true;
+			if(!(value instanceof String))
+				return false;
+			try {
+				return Double.toString(Double.parseDouble((String)value)).equals(value);
+			} catch (final NumberFormatException e) {
+				return false;
+			}
+		}
+
+		void grow(final int capacity) {
+			super.grow(capacity);
+			final double[] values = new double[capacity];
+			System.arraycopy(myValues, 0, values, 0, myValues.length);
+			myValues = values;
+		}
+
+		void remove(final int row, final int rowCount) {
+			super.remove(row, rowCount);
+			System.arraycopy(myValues, row + 1, myValues, row, rowCount - row - 1);
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/* ********************************************************************
+ * Copyright (C) 2012 Oz-DevWorX (Tim Gall)
+ * ********************************************************************
+ * This file is part of JDBWC.
+ *
+ * JDBWC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JDBWC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JDBWC.  If not, see <http://www.gnu.org/licenses/>.
+ * ********************************************************************
+ */
+package com.jdbwc.core.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Low level reader for the JDBWC export stream.<br />
+ * <br />
+ * An export is a stream of text rows, one per line, copied byte for byte
+ * to an OutputStream without being decoded or split into values.<br />
+ * <br />
+ * <b>Layout:</b>
+ * <pre>
+ * stream   = MAGIC LF { row } ( END LF | ERROR text )
+ * row      = bytes LF
+ * </pre>
+ * Rows are in the format requested from the server (COPY text or csv).
+ * Neither format can produce a line that starts with END or ERROR;
+ * csv line breaks inside a quoted value are not line starts.<br />
+ * <br />
+ * A stream that stops at ERROR (or without END) failed on the server after rows were sent.
+ * The server message can be fetched with <code>readRemainingText()</code>,
+ * as can the whole response if it doesn't start with MAGIC.
+ *
+ * @author Tim Gall
+ * @version 2012-04-10
+ */
+public class ExportStreamReader {
+
+	/** stream header */
+	public static final String MAGIC = "JDBWC/X1";
+	/** last line of a complete stream */
+	public static final String END = "\\.";
+	/** starts a server error line */
+	public static final String ERROR = "\\!";
+
+	private static final int BUFFER_SIZE = 32768;
+
+	private final transient InputStream myInput;
+	private final transient boolean myCsv;
+	private final transient byte[] myBuffer = new byte[BUFFER_SIZE];
+	private transient int myPos = 0;
+	private transient int myLimit = 0;
+
+	private transient boolean myComplete = false;
+	private transient long myRows = 0;
+
+	/**
+	 * @param input the response body.
+	 * @param csv true if the rows are csv. Quoted values can hold line breaks.
+	 */
+	public ExportStreamReader(final InputStream input, final boolean csv) {
+		myInput = input;
+		myCsv = csv;
+	}
+
+	/**
+	 * Reads the stream header. If the stream doesn't start with MAGIC
+	 * the bytes read are kept so <code>readRemainingText()</code>
+	 * can return the whole response as text.
+	 *
+	 * @return true if the stream is an export stream.
+	 * @throws IOException
+	 */
+	public boolean readMagic() throws IOException {
+		final int len = MAGIC.length() + 1;
+		if(!fill(len)){
+			return false;
+		}
+		for(int i = 0; i < len - 1; i++){
+			if(myBuffer[myPos + i]!=MAGIC.charAt(i)){
+				return false;
+			}
+		}
+		if(myBuffer[myPos + len - 1]!='\n'){
+			return false;
+		}
+		myPos += len;
+		return true;
+	}
+
+	/**
+	 * Copies rows to out until the end of the stream or a server error.
+	 * out is not flushed or closed.
+	 *
+	 * @param out where the rows are written.
+	 * @return the number of rows copied.
+	 * @throws IOException
+	 */
+	public long copyTo(final OutputStream out) throws IOException {
+		boolean lineStart = true;
+		boolean quoted = false;
+
+		while(true){
+			if(lineStart){
+				// END plus its line feed or ERROR
+				fill(END.length() + 1);
+				if(startsWith(END + '\n')){
+					myPos += END.length() + 1;
+					myComplete = true;
+					return myRows;
+				}
+				if(startsWith(ERROR)){
+					myPos += ERROR.length();
+					return myRows;
+				}
+			}
+			if(myPos==myLimit && !fill(1)){
+				return myRows;
+			}
+
+			final int start = myPos;
+			lineStart = false;
+			while(myPos < myLimit){
+				final byte b = myBuffer[myPos++];
+				if(b=='\n' && !quoted){
+					myRows++;
+					lineStart = true;
+					break;
+				}
+				if(b=='"' && myCsv){
+					quoted = !quoted;
+				}
+			}
+			out.write(myBuffer, start, myPos - start);
+		}
+	}
+
+	/**
+	 * @return true if the stream ended with END. Only valid after <code>copyTo()</code>.
+	 */
+	public boolean isComplete() {
+		return myComplete;
+	}
+
+	/**
+	 * @return the number of rows copied so far.
+	 */
+	public long getRows() {
+		return myRows;
+	}
+
+	/**
+	 * Reads the unread part of the stream as UTF-8 text.
+	 *
+	 * @return the rest of the stream.
+	 * @throws IOException
+	 */
+	public String readRemainingText() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(myBuffer, myPos, myLimit - myPos);
+		myPos = myLimit;
+
+		int read;
+		while((read = myInput.read(myBuffer)) > -1){
+			out.write(myBuffer, 0, read);
+		}
+		return out.toString("UTF-8");
+	}
+
+	//--------------------------------------------------------- private methods
+
+	/**
+	 * Reads until at least count bytes are buffered or the stream ends.
+	 *
+	 * @return true if count bytes are buffered.
+	 */
+	private boolean fill(final int count) throws IOException {
+		if(myLimit - myPos >= count){
+			return true;
+		}
+		if(myPos > 0){
+			System.arraycopy(myBuffer, myPos, myBuffer, 0, myLimit - myPos);
+			myLimit -= myPos;
+			myPos = 0;
+		}
+		while(myLimit < count){
+			final int read = myInput.read(myBuffer, myLimit, myBuffer.length - myLimit);
+			if(read==-1){
+				return false;
+			}
+			myLimit += read;
+		}
+		return true;
+	}
+
+	private boolean startsWith(final String marker) {
+		final int len = marker.length();
+		if(myLimit - myPos < len){
+			return false;
+		}
+		for(int i = 0; i < len; i++){
+			if(myBuffer[myPos + i]!=marker.charAt(i)){
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -145,6 +145,7 @@ public class SQLParamParser {
 
 	private static final Pattern myInsert = Pattern.compile(MY_INSERT+MY_WS+"INTO"+MY_WS, Pattern.CASE_INSENSITIVE);
 	private static final Pattern myInsertValues = Pattern.compile(MY_VALUES, Pattern.CASE_INSENSITIVE);
+	private static final Pattern myInsertValuesList = Pattern.compile("\\b"+MY_VALUES+"\\s*\\(", Pattern.CASE_INSENSITIVE);
 
 	private static final Pattern myUpdate = Pattern.compile(MY_UPDATE+MY_WS, Pattern.CASE_INSENSITIVE);
 	private static final Pattern myUpdateSet = Pattern.compile(MY_WS+"SET"+MY_WS, Pattern.CASE_INSENSITIVE);
@@ -175,6 +176,83 @@ public class SQLParamParser {
 		return paramCount;
 	}
 
+	/**
+	 * Finds the values list of a plain single row INSERT,
+	 * so batched rows can be folded into one multi-row INSERT.<br />
+	 * The statement must be <code>INSERT INTO ... VALUES (...)</code>
+	 * with no parameter markers before the values list and nothing after it.<br />
+	 * Backslash escapes in quoted strings are only honoured for MySQL.
+	 * PostgreSQL only honours them in <code>E'...'</code> strings
+	 * (<code>standard_conforming_strings</code> is on by default since 9.1).
+	 *
+	 * @param sql a PreparedStatements SQL without a trailing semicolon
+	 * @param dbType the connections database type (see <code>Util.ID_MYSQL</code> etc)
+	 * @return the index of the values lists opening bracket or -1 if sql can't be folded.
+	 */
+	public static int findInsertValues(String sql, int dbType){
+		if(sql==null || !myInsert.matcher(sql).lookingAt()){
+			return -1;
+		}
+		Matcher mValues = myInsertValuesList.matcher(sql);
+		if(!mValues.find()){
+			return -1;
+		}
+		final int start = mValues.end()-1;
+		if(sql.lastIndexOf(OUR_PARAM_MARKER, start)!=-1){
+			return -1;
+		}
+
+		// the bracket opened at start must close at the end of the statement
+		final boolean mysql = dbType!=Util.ID_POSTGRESQL;
+		int depth = 0;
+		char quote = 0;
+		boolean escapes = false;
+		final int length = sql.length();
+		for(int i = start; i < length; i++){
+			final char c = sql.charAt(i);
+			if(quote!=0){
+				if(c=='\\' && escapes){
+					i++;
+				}else if(c==quote){
+					quote = 0;
+				}
+			}else if(c=='\'' || c=='"' || c=='`'){
+				quote = c;
+				escapes = mysql ? c!='`' : c=='\'' && isEscapeString(sql, i);
+			}else if(c=='('){
+				depth++;
+			}else if(c==')' && --depth==0){
+				return sql.substring(i+1).trim().length()==0 ? start : -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets one rows values list for a multi-row INSERT.
+	 *
+	 * @param prepStatement A DataHandler containing a plain single row INSERT at the first index,
+	 * parameters in the remaining indexes.
+	 * @param valuesAt the values lists index from <code>findInsertValues()</code>
+	 * @return the values list with its parameters filled in.
+	 * @throws SQLException if the parameters don't match the SQL.
+	 */
+	public static String populateValues(DataHandler prepStatement, int valuesAt) throws SQLException{
+		return populateParams(prepStatement).substring(valuesAt);
+	}
+
+	/**
+	 * @param sql a PostgreSQL statement
+	 * @param quoteAt index of a single quote in sql
+	 * @return true if the quote opens an <code>E'...'</code> string.
+	 */
+	private static boolean isEscapeString(String sql, int quoteAt){
+		if(quoteAt < 1 || Character.toUpperCase(sql.charAt(quoteAt-1))!='E'){
+			return false;
+		}
+		return quoteAt < 2 || !Character.isLetterOrDigit(sql.charAt(quoteAt-2)) && sql.charAt(quoteAt-2)!='_';
+	}
+
 	public static String populateParams(DataHandler prepStatement) throws SQLException{
 		String sql = prepStatement.getString(0);
 		StringBuilder rebuiltSql = new StringBuilder();
@@ -0,0 +1,228 @@
+/* ********************************************************************
+ * Copyright (C) 2012 Oz-DevWorX (Tim Gall)
+ * ********************************************************************
+ * This file is part of JDBWC.
+ *
+ * JDBWC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JDBWC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JDBWC.  If not, see <http://www.gnu.org/licenses/>.
+ * ********************************************************************
+ */
+package com.jdbwc.core.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jdbwc.util.Util;
+
+/**
+ * Incremental tokenizer for the JDBWC text result format.<br />
+ * <br />
+ * Reads a server response straight from the http entity stream
+ * instead of loading it into one String and splitting it.
+ * Only the current row is held by this class so peak memory
+ * is bounded by the rows the caller keeps, not the size of the response.<br />
+ * <br />
+ * The response is a series of files ending with <code>_EOF__</code>,
+ * each holding rows ending with <code>_EOL__</code>,
+ * each holding comma separated values.
+ * Values are returned as sent; unescaping is left to the caller.<br />
+ * <br />
+ * Server error messages (<code>ERROR# </code>) are detected at the start of
+ * every file and row and thrown as they arrive.
+ *
+ * @author Tim Gall
+ * @version 2012-04-06
+ */
+public class TextFrameReader {
+
+	/** end of row */
+	public static final String EOL = "_EOL__";
+	/** end of file */
+	public static final String EOF = "_EOF__";
+
+	private static final int MARKER_LENGTH = 6;
+
+	private final transient Reader myInput;
+	private transient char[] myBuffer = new char[8192];
+	private transient int myPos = 0;
+	private transient int myLimit = 0;
+	private transient boolean isEndOfStream = false;
+	private transient boolean isInFile = false;
+
+	private final transient StringBuilder myField = new StringBuilder(64);
+	private final transient List<String> myRow = new ArrayList<String>();
+
+	/**
+	 * @param input stream positioned at the start of the server response.
+	 * @throws IOException
+	 */
+	public TextFrameReader(final InputStream input) throws IOException{
+		myInput = new InputStreamReader(input, "UTF-8");
+	}
+
+	/**
+	 * Moves to the start of the next file.
+	 * Any unread rows in the current file are skipped.
+	 *
+	 * @return false at the end of the response.
+	 * @throws SQLException if the server sent an error message.
+	 * @throws IOException
+	 */
+	public boolean nextFile() throws SQLException, IOException{
+		while(isInFile){
+			nextRow();
+		}
+
+		while(fill(1) && Character.isWhitespace(myBuffer[myPos])){
+			myPos++;
+		}
+		if(!fill(1)){
+			return false;
+		}
+
+		checkForMessage();
+		isInFile = true;
+		return true;
+	}
+
+	/**
+	 * Reads the next row of the current file.
+	 *
+	 * @return the rows values or null at the end of the file.
+	 * @throws SQLException if the server sent an error message.
+	 * @throws IOException
+	 */
+	public String[] nextRow() throws SQLException, IOException{
+		if(!isInFile){
+			return null;
+		}
+		checkForMessage();
+
+		myRow.clear();
+		myField.setLength(0);
+
+		while(fill(1)){
+			final char c = myBuffer[myPos];
+
+			if(c=='_' && fill(MARKER_LENGTH)){
+				if(matches(EOL)){
+					myPos += MARKER_LENGTH;
+					return finishRow();
+				}
+				if(matches(EOF)){
+					myPos += MARKER_LENGTH;
+					isInFile = false;
+					return (myField.length() > 0 || !myRow.isEmpty()) ? finishRow() : null;
+				}
+			}
+
+			if(c==','){
+				myRow.add(myField.toString());
+				myField.setLength(0);
+			}else{
+				myField.append(c);
+			}
+			myPos++;
+		}
+
+		//response ended without an end of file marker
+		isInFile = false;
+		return (myField.length() > 0 || !myRow.isEmpty()) ? finishRow() : null;
+	}
+
+	/**
+	 * Reads everything left in the response.
+	 *
+	 * @return the remaining server response.
+	 * @throws IOException
+	 */
+	public String readRemainingText() throws IOException{
+		final StringBuilder text = new StringBuilder();
+		text.append(myBuffer, myPos, myLimit - myPos);
+		myPos = myLimit;
+
+		int count;
+		while((count = myInput.read(myBuffer)) != -1){
+			text.append(myBuffer, 0, count);
+		}
+		isEndOfStream = true;
+		isInFile = false;
+		return text.toString();
+	}
+
+	//----------------------------------------------------------private methods
+
+	private String[] finishRow(){
+		myRow.add(myField.toString());
+		myField.setLength(0);
+		return myRow.toArray(new String[myRow.size()]);
+	}
+
+	/**
+	 * Throws the servers error message if one starts at the current position.
+	 */
+	private void checkForMessage() throws SQLException, IOException{
+		final String tag = Util.WC_ERROR_TAG;
+		if(fill(tag.length()) && matches(tag)){
+			Util.checkForExceptions(readRemainingText());
+		}
+	}
+
+	/**
+	 * @return true if the buffer starts with token at the current position.
+	 * Callers must fill() at least token.length() chars first.
+	 */
+	private boolean matches(final String token){
+		final int len = token.length();
+		for(int i = 0; i < len; i++){
+			if(myBuffer[myPos + i]!=token.charAt(i)){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Makes sure at least count chars are buffered from the current position.
+	 *
+	 * @return false if the response ends first.
+	 */
+	private boolean fill(final int count) throws IOException{
+		if(myLimit - myPos >= count){
+			return true;
+		}
+		if(isEndOfStream){
+			return false;
+		}
+
+		if(myPos > 0){
+			System.arraycopy(myBuffer, myPos, myBuffer, 0, myLimit - myPos);
+			myLimit -= myPos;
+			myPos = 0;
+		}
+		while(myLimit < count){
+			final int read = myInput.read(myBuffer, myLimit, myBuffer.length - myLimit);
+			if(read==-1){
+				isEndOfStream = true;
+				break;
+			}
+			myLimit += read;
+		}
+		return myLimit - myPos >= count;
+	}
+}
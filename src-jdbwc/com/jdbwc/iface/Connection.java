@@ -97,4 +97,12 @@ public interface Connection extends java.sql.Connection {
 	 * @return the active database's name that this Connection Object is using.
 	 */
 	public String getDatabase();
+
+	/**
+	 * Sends any statements queued by pipelining (see the <code>pipeline</code> property)
+	 * in a request of their own. Queued statements normally go out with the next request.
+	 *
+	 * @throws java.sql.SQLException if a queued statement failed.
+	 */
+	public void flushPipeline() throws java.sql.SQLException;
 }
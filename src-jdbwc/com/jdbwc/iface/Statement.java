@@ -19,6 +19,10 @@
  */
 package com.jdbwc.iface;
 
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.concurrent.Future;
 
 /**
  * Vendor based extension.<br />
@@ -36,4 +40,136 @@ package com.jdbwc.iface;
  */
 public interface Statement extends java.sql.Statement {
 
+	/**
+	 * Row formats for <code>export()</code>.
+	 */
+	public static enum ExportFormat {
+		/**
+		 * PostgreSQL's COPY text format, also read by MySQL's LOAD DATA defaults.
+		 * Tab separated, <code>\N</code> for NULL and backslash escapes for
+		 * backslash, tab, newline and carriage return.
+		 */
+		TEXT,
+		/**
+		 * Comma separated values (RFC 4180). Values holding a comma, double quote
+		 * or line break, or starting with a backslash, are double quoted. NULL is left empty, an empty string is <code>""</code>.
+		 */
+		CSV
+	}
+
+	/**
+	 * Sets whether the server sends column metadata with query results.
+	 * Defaults to true.<br />
+	 * <br />
+	 * Turning this off saves the server building the metadata table
+	 * and the transfer of it, which suits hot queries that never call
+	 * <code>ResultSet.getMetaData()</code>.
+	 * If getMetaData() is called anyway it is built from the SQL query instead,
+	 * which may need extra requests to the server.
+	 *
+	 * @param fetchMetaData false to leave metadata out of query results.
+	 * @throws java.sql.SQLException
+	 */
+	public void setFetchMetaData(boolean fetchMetaData) throws java.sql.SQLException;
+
+	/**
+	 * @return true if the server sends column metadata with query results.
+	 * @throws java.sql.SQLException
+	 */
+	public boolean getFetchMetaData() throws java.sql.SQLException;
+
+	/**
+	 * Loads rows into a table with the databases bulk load path
+	 * (MySQL <code>LOAD DATA LOCAL INFILE</code>, PostgreSQL <code>COPY FROM STDIN</code>).<br />
+	 * <br />
+	 * Rows are streamed to the server as they are read from the Iterator,
+	 * so any number of rows can be loaded without holding them in memory.
+	 * Values are sent as text and converted by the database.
+	 * null is loaded as NULL, Booleans as 1 or 0,
+	 * everything else as <code>String.valueOf(value)</code>.<br />
+	 * <br />
+	 * MySQL servers must allow <code>local_infile</code>.
+	 *
+	 * @param table the table to load. EG: table or schema.table
+	 * @param columns the columns each row holds values for, in order.
+	 * null or empty for every column in table order.
+	 * @param rows the rows to load.
+	 * @return the number of rows loaded.
+	 * @throws java.sql.SQLException
+	 */
+	public int bulkLoad(String table, String[] columns, Iterator<Object[]> rows) throws java.sql.SQLException;
+
+	/**
+	 * Loads rows already in the bulk load text format.
+	 * One row per line, columns separated by a tab, <code>\N</code> for NULL
+	 * and backslash escapes for backslash, tab, newline and carriage return.<br />
+	 * The Reader is read to the end but not closed.
+	 *
+	 * @param table the table to load. EG: table or schema.table
+	 * @param columns the columns each row holds values for, in order.
+	 * null or empty for every column in table order.
+	 * @param rows the rows to load.
+	 * @return the number of rows loaded.
+	 * @throws java.sql.SQLException
+	 * @see #bulkLoad(String, String[], Iterator)
+	 */
+	public int bulkLoad(String table, String[] columns, Reader rows) throws java.sql.SQLException;
+
+	/**
+	 * Streams the rows of a single SELECT straight to out, one line per row.<br />
+	 * <br />
+	 * No ResultSet is built. The server streams rows as they are read from the database
+	 * and the bytes are copied to out as they arrive, so memory use
+	 * doesn't grow with the number of rows. There is no header row.
+	 * Values are in the databases text form, in the connections character set.<br />
+	 * <br />
+	 * Rows already copied stay in out if the export fails part way through.
+	 *
+	 * @param sql a single SELECT.
+	 * @param out where the rows are written. Not flushed or closed.
+	 * @param format the row format.
+	 * @return the number of rows exported.
+	 * @throws java.sql.SQLException
+	 */
+	public long export(String sql, OutputStream out, ExportFormat format) throws java.sql.SQLException;
+
+	/**
+	 * Runs <code>executeQuery(sql)</code> on a driver thread and returns straight away,
+	 * so one thread can keep requests in flight on many Statements at once.<br />
+	 * <br />
+	 * Executions on the same Statement run one at a time, in no set order.
+	 * A plain execute call waits for any async execution already running.
+	 * Each Connection runs at most <code>poolMaxPerRoute</code> async executions at once,
+	 * later ones wait in a queue.
+	 * <code>Future.get()</code> throws the SQLException, if any, as an ExecutionException.
+	 * <code>Future.cancel(true)</code> also kills the query on the server if it has started.<br />
+	 * <br />
+	 * The gateway runs the requests of one Connection one at a time.
+	 * Use a Connection per Statement to run queries side by side on the server.
+	 *
+	 * @param sql a query that returns a resultset.
+	 * @return the ResultSet, once the query is done.
+	 * @throws java.sql.SQLException
+	 */
+	public Future<java.sql.ResultSet> executeQueryAsync(String sql) throws java.sql.SQLException;
+
+	/**
+	 * Runs <code>executeUpdate(sql)</code> on a driver thread and returns straight away.
+	 *
+	 * @param sql an INSERT, UPDATE, DELETE or a statement that returns nothing.
+	 * @return the number of rows affected, once the update is done.
+	 * @throws java.sql.SQLException
+	 * @see #executeQueryAsync(String)
+	 */
+	public Future<Integer> executeUpdateAsync(String sql) throws java.sql.SQLException;
+
+	/**
+	 * Runs <code>executeBatch()</code> on a driver thread and returns straight away.
+	 * The batch is the one held by the Statement when the batch starts running.
+	 *
+	 * @return the update counts, once the batch is done.
+	 * @throws java.sql.SQLException
+	 * @see #executeQueryAsync(String)
+	 */
+	public Future<int[]> executeBatchAsync() throws java.sql.SQLException;
 }
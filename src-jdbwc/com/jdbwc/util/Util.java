@@ -19,11 +19,17 @@
  */
 package com.jdbwc.util;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,6 +37,10 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.entity.mime.HttpMultipartMode;
+import org.apache.http.entity.mime.MultipartEntity;
+import org.apache.http.entity.mime.content.ContentBody;
+import org.apache.http.entity.mime.content.StringBody;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.util.EntityUtils;
@@ -60,6 +70,50 @@ public final class Util {
 	public static final String TAG_PASS = "sp";
 	public static final String TAG_DBTYPE = "dbType";
 	public static final String TAG_DEBUG = "debug";
+	/** requests the binary result format. The value is the format version */
+	public static final String TAG_WIRE = "wire";
+	/** cursor id for server-side cursor paging */
+	public static final String TAG_CURSOR = "cursor";
+	/** rows per cursor window */
+	public static final String TAG_FETCH_SIZE = "fetchSize";
+	/** asks the server to leave the metadata table out of a result */
+	public static final String TAG_NO_META = "noMeta";
+	/** the most rows a resultset can return. See Statement.setMaxRows() */
+	public static final String TAG_MAX_ROWS = "maxRows";
+	/** one pipelined statement. Repeated once per statement, in order */
+	public static final String TAG_PIPELINE = "pipe[]";
+	/** response header holding the rows affected by each pipelined statement, comma seperated */
+	public static final String PIPELINE_HEADER = "X-JDBWC-Pipeline";
+	/** in place of a count in the pipeline header, the statement that was running when the request failed */
+	public static final String PIPELINE_FAILED = "E";
+	/** prepared statement handle from the server */
+	public static final String TAG_HANDLE = "handle";
+	/** one type per prepared statement parameter: i (integer), d (decimal), s (string) or n (null) */
+	public static final String TAG_PARAM_TYPES = "types";
+	/** number of parameter rows in a prepared batch */
+	public static final String TAG_ROWS = "rows";
+	/** a prepared batches parameters, row by row. Each value is sent as its UTF-8 length, a colon and the value */
+	public static final String TAG_MATRIX = "matrix";
+	/** table name for a bulk load. EG: table or schema.table */
+	public static final String TAG_TABLE = "table";
+	/** comma separated column names for a bulk load. Empty for every column in table order */
+	public static final String TAG_COLUMNS = "columns";
+	/** the uploaded bulk load data */
+	public static final String TAG_LOAD_FILE = "data";
+	/** export row format: text or csv */
+	public static final String TAG_EXPORT_FORMAT = "format";
+	/** random id sent with each statement request, so its query can be killed */
+	public static final String TAG_QUERY_ID = "queryId";
+	/** why a query is being killed: timeout or cancel */
+	public static final String TAG_KILL_REASON = "killReason";
+	/** asks the login request for a stateless token instead of a session */
+	public static final String TAG_STATELESS = "stateless";
+	/** header holding the stateless token. Sent on every request once the server has issued one */
+	public static final String TOKEN_HEADER = "X-JDBWC-Token";
+	/** response header holding the seconds a new stateless token is valid for */
+	public static final String TOKEN_LIFE_HEADER = "X-JDBWC-Token-Life";
+	/** server response for a prepared statement handle that isn't in the session */
+	public static final String WC_UNPREPARED = "_UNPREPARED__";
 
 
 	/** DataHandler implementation used by this driver */
@@ -89,6 +143,21 @@ public final class Util {
 	private static final String WC_PHP_STR = "PHP ";
 	private static final String WC_ERROR_DB_CON_STR = "ERROR-DB-CONNECTION: ";
 	private static final String WC_ERROR_DB_QRY_STR = "ERROR-DB-QUERY: ";
+	/** a query stopped by Statement.cancel() or a query timeout. Followed by the reason */
+	private static final String WC_ERROR_CANCEL_STR = "ERROR-CANCELLED: ";
+	private static final String WC_CANCEL_TIMEOUT = "timeout";
+
+	/** builders larger than this aren't kept for reuse */
+	private static final int CODEC_BUILDER_LIMIT = 8192;
+
+	/** a reusable builder for csvFormat() and csvUnFormat(). One per thread */
+	private static final ThreadLocal<StringBuilder> CODEC_BUILDER = new ThreadLocal<StringBuilder>(){
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(256);
+		}
+	};
+
 	/** For detecting non-recoverable-Fatal-Errors on the serverside. */
 	public static final String[] WC_ERROR_SCRIPT =
 		{"Catchable Fatal Error",
@@ -144,27 +213,47 @@ public final class Util {
 	public static String parseResponse(final HttpResponse response) throws SQLException, IOException{
 		String responseBody = "";
 
-		synchronized (responseBody) {
-			if (response.getStatusLine().getStatusCode() == 200) {
-				HttpEntity entity = response.getEntity();
-				if (entity != null) {
-					responseBody = EntityUtils.toString(entity);
-				}
-			} else {
-				//failsafe incase the server-side files are tampered with while in use (deleted, moved, etc.)
-				throw new com.jdbwc.exceptions.ServerSideException(
-						"Error accessing the server. Server Error code: "
-						+ response.getStatusLine().getStatusCode()
-						+ "Reason: "
-						+ response.getStatusLine().getReasonPhrase()
-						+ ", HTTP Protocol: "
-						+ response.getStatusLine().getProtocolVersion());
-			}
-			checkForExceptions(responseBody);
+		checkStatus(response);
+		HttpEntity entity = response.getEntity();
+		if (entity != null) {
+			responseBody = EntityUtils.toString(entity);
 		}
+		checkForExceptions(responseBody);
 		return responseBody;
 	}
 
+	/**
+	 * Get the servers http response body as a stream.<br />
+	 * The http reponse is checked for error headers but the body is not checked for
+	 * exception triggers. Thats left to the stream reader.
+	 *
+	 * @param response The http response from the web server
+	 * @return A buffered stream of the response body. Empty if the response has no body.
+	 * @throws SQLException if the web server responded with an error status
+	 * @throws IOException if the response body can't be opened
+	 */
+	public static InputStream getResponseStream(final HttpResponse response) throws SQLException, IOException{
+		checkStatus(response);
+		HttpEntity entity = response.getEntity();
+		if (entity == null) {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+		return new BufferedInputStream(entity.getContent(), 8192);
+	}
+
+	private static void checkStatus(final HttpResponse response) throws SQLException{
+		if (response.getStatusLine().getStatusCode() != 200) {
+			//failsafe incase the server-side files are tampered with while in use (deleted, moved, etc.)
+			throw new com.jdbwc.exceptions.ServerSideException(
+					"Error accessing the server. Server Error code: "
+					+ response.getStatusLine().getStatusCode()
+					+ "Reason: "
+					+ response.getStatusLine().getReasonPhrase()
+					+ ", HTTP Protocol: "
+					+ response.getStatusLine().getProtocolVersion());
+		}
+	}
+
 	/**
 	 * Look for errors from the server.<br />
 	 * Chuck a wobbly (alias: throw exception) back to the
@@ -199,6 +288,13 @@ public final class Util {
 
 				throw new SQLException(message, "S1000", vendorCode);//general error state
 
+			//cancelled queries
+			}else if(message.startsWith(WC_ERROR_CANCEL_STR)){
+				if(message.startsWith(WC_ERROR_CANCEL_STR + WC_CANCEL_TIMEOUT)){
+					throw new SQLTimeoutException(message, "57014");
+				}
+				throw new SQLException(message, "57014");
+
 			//Server API exceptions
 			}else if(message.startsWith(WC_ERROR_HACK_STR)){
 				throw new com.jdbwc.exceptions.HackingException(message);
@@ -244,11 +340,7 @@ public final class Util {
 
 		final int inputSize = input.length();
 		for(int i = 0; i < inputSize; i++){
-			if(TAG_SQL.equals(input.getKey(i))){
-				nvpData.add(new BasicNameValuePair(input.getKey(i), input.getString(i).trim()));
-			}else{
-				nvpData.add(new BasicNameValuePair(input.getKey(i), csvFormat(input.getString(i).trim())));
-			}
+			nvpData.add(new BasicNameValuePair(input.getKey(i), getWebValue(input, i)));
 		}
 		HttpEntity entity;
 		try {
@@ -265,6 +357,33 @@ public final class Util {
 		return entity;
 	}
 
+	/**
+	 * Multipart version of <code>prepareForWeb()</code> for requests that upload data.<br />
+	 * The input values are formatted exactly as <code>prepareForWeb()</code> formats them.
+	 *
+	 * @param input DataHandler
+	 * @param fileKey the upload field name
+	 * @param upload the data to upload
+	 * @return A MultipartEntity with one part per input value, followed by the upload
+	 */
+	public static HttpEntity prepareForUpload(final DataHandler input, final String fileKey, final ContentBody upload){
+		final Charset charset = Charset.forName(HTTP.UTF_8);
+		final MultipartEntity entity = new MultipartEntity(HttpMultipartMode.STRICT, null, charset);
+
+		final int inputSize = input.length();
+		for(int i = 0; i < inputSize; i++){
+			try {
+				entity.addPart(input.getKey(i), new StringBody(getWebValue(input, i), charset));
+			} catch (UnsupportedEncodingException e) {
+				//we should never arrive here, UTF-8 is always supported
+				throw new IllegalStateException(e);
+			}
+		}
+		entity.addPart(fileKey, upload);
+
+		return entity;
+	}
+
 	/**
 	 * DataHandler Factory method.<br />
 	 * <br />
@@ -294,42 +413,215 @@ public final class Util {
 		return output;
 	}
 
+	/**
+	 * Folds a key the same way as the DataHandler objects from
+	 * <code>getCaseSafeHandler(caseType)</code>.
+	 *
+	 * @param key the key to fold
+	 * @param caseType One of <code>Util.CASE_LOWER, Util.CASE_UPPER, Util.CASE_MIXED</code>
+	 * @return key in caseType
+	 */
+	public static String getCaseSafeKey(final String key, final int caseType){
+		switch(caseType){
+		case CASE_LOWER:
+			return key.toLowerCase(Locale.ENGLISH);
+		case CASE_UPPER:
+			return key.toUpperCase(Locale.ENGLISH);
+		case CASE_MIXED:
+		default:
+			return key;
+		}
+	}
 
 
-	public static String csvFormat(final String input){
-		final String pass1 = input.replace(",", "#_002C");
-
-		final String pass2 = pass1.replace("\r\n", "#_CN");//must be first line-break type
-		final String pass3 = pass2.replace("\r", "#_CR");
-		final String pass4 = pass3.replace("\n", "#_NL");
-
-		final String pass5 = pass4.replace("\f", "#_FF");
-
-		final String pass6 = pass5.replace("\"", "#_0022");
-		final String pass7 = pass6.replace("'", "#_0027");
-
-//		String pass8 = pass7.replace("#_040", "");// not required when sending to server.
 
-		return pass7;
+	/**
+	 * Counts the bytes a value takes up in UTF-8 without encoding it.
+	 *
+	 * @param value the value to measure
+	 * @return the values length in UTF-8 bytes
+	 */
+	public static int utf8Length(final CharSequence value){
+		int length = 0;
+		final int size = value.length();
+		for(int i = 0; i < size; i++){
+			final char c = value.charAt(i);
+			if(c < 0x80){
+				length++;
+			}else if(c < 0x800){
+				length += 2;
+			}else if(Character.isHighSurrogate(c) && i+1 < size && Character.isLowSurrogate(value.charAt(i+1))){
+				length += 4;
+				i++;
+			}else if(Character.isSurrogate(c)){
+				// unpaired surrogates are encoded as ?
+				length++;
+			}else{
+				length += 3;
+			}
+		}
+		return length;
 	}
 
+	/**
+	 * Escapes a value for sending to the server.<br />
+	 * <br />
+	 * <code>,</code> <code>\r\n</code> <code>\r</code> <code>\n</code> <code>\f</code>
+	 * <code>"</code> and <code>'</code> are replaced with their <code>#_</code> tokens
+	 * in a single pass. Values without any of those characters are returned as they are.
+	 *
+	 * @param input the value to escape
+	 * @return the escaped value
+	 */
+	public static String csvFormat(final String input){
+		final int length = input.length();
+		int i = 0;
+		while(i < length && !isCsvSpecial(input.charAt(i))){
+			i++;
+		}
+		if(i==length)
+			return input;
+
+		final StringBuilder output = getCodecBuilder(length + 16);
+		output.append(input, 0, i);
+		for(; i < length; i++){
+			final char c = input.charAt(i);
+			switch(c){
+			case ',':
+				output.append("#_002C");
+				break;
+			case '\r':
+				if(i+1 < length && input.charAt(i+1)=='\n'){
+					output.append("#_CN");//must be first line-break type
+					i++;
+				}else{
+					output.append("#_CR");
+				}
+				break;
+			case '\n':
+				output.append("#_NL");
+				break;
+			case '\f':
+				output.append("#_FF");
+				break;
+			case '"':
+				output.append("#_0022");
+				break;
+			case '\'':
+				output.append("#_0027");
+				break;
+			default:
+				output.append(c);
+			}
+		}
+		// #_040 is not required when sending to server.
 
+		return releaseCodecBuilder(output);
+	}
 
+	/**
+	 * Restores a value escaped by the server.<br />
+	 * <br />
+	 * Each <code>#_</code> token is replaced in a single pass.
+	 * <code>#_040</code> marks an empty value and is removed.
+	 * Anything else following <code>#_</code> is kept as it is.
+	 * Values without <code>#_</code> are returned as they are.
+	 *
+	 * @param input the value to restore
+	 * @return the restored value
+	 */
 	public static String csvUnFormat(final String input){
-		final String pass1 = input.replace("#_002C", ",");
+		int i = input.indexOf("#_");
+		if(i < 0)
+			return input;
+
+		final int length = input.length();
+		final StringBuilder output = getCodecBuilder(length);
+		output.append(input, 0, i);
+		while(i < length){
+			final char c = input.charAt(i);
+			if(c=='#' && i+1 < length && input.charAt(i+1)=='_'){
+				if(input.startsWith("002C", i+2)){
+					output.append(',');
+					i += 6;
+					continue;
+				}else if(input.startsWith("CN", i+2)){
+					output.append("\r\n");//must be first line-break type
+					i += 4;
+					continue;
+				}else if(input.startsWith("CR", i+2)){
+					output.append('\r');
+					i += 4;
+					continue;
+				}else if(input.startsWith("NL", i+2)){
+					output.append('\n');
+					i += 4;
+					continue;
+				}else if(input.startsWith("FF", i+2)){
+					output.append('\f');
+					i += 4;
+					continue;
+				}else if(input.startsWith("0022", i+2)){
+					output.append('"');
+					i += 6;
+					continue;
+				}else if(input.startsWith("0027", i+2)){
+					output.append('\'');
+					i += 6;
+					continue;
+				}else if(input.startsWith("040", i+2)){
+					//!important. Restores empty values
+					i += 5;
+					continue;
+				}
+			}
+			output.append(c);
+			i++;
+		}
 
-		final String pass2 = pass1.replace("#_CN", "\r\n");//must be first line-break type
-		final String pass3 = pass2.replace("#_CR", "\r");
-		final String pass4 = pass3.replace("#_NL", "\n");
+		return releaseCodecBuilder(output);
+	}
+
+	/**
+	 * @return the value at index i formatted for posting to the server.
+	 */
+	private static String getWebValue(final DataHandler input, final int i){
+		if(TAG_SQL.equals(input.getKey(i))){
+			return input.getString(i).trim();
+		}else if(TAG_PIPELINE.equals(input.getKey(i))){
+			return input.getString(i).trim();
+		}else if(TAG_MATRIX.equals(input.getKey(i))){
+			// parameter values are sent exactly as they were set
+			return input.getString(i);
+		}else if(TAG_COLUMNS.equals(input.getKey(i))){
+			// checked names, the commas seperate them
+			return input.getString(i);
+		}
+		return csvFormat(input.getString(i).trim());
+	}
 
-		final String pass5 = pass4.replace("#_FF", "\f");
+	private static boolean isCsvSpecial(final char c){
+		return c==',' || c=='\r' || c=='\n' || c=='\f' || c=='"' || c=='\'';
+	}
 
-		final String pass6 = pass5.replace("#_0022", "\"");
-		final String pass7 = pass6.replace("#_0027", "'");
+	private static StringBuilder getCodecBuilder(final int length){
+		if(length > CODEC_BUILDER_LIMIT)
+			return new StringBuilder(length);
 
-		final String pass8 = pass7.replace("#_040", "");//!important. Restores empty values
+		final StringBuilder builder = CODEC_BUILDER.get();
+		builder.setLength(0);
+		return builder;
+	}
 
-		return pass8;
+	private static String releaseCodecBuilder(final StringBuilder builder){
+		final String output = builder.toString();
+		if(builder.capacity() > CODEC_BUILDER_LIMIT){
+			if(builder==CODEC_BUILDER.get())
+				CODEC_BUILDER.remove();
+		}else{
+			builder.setLength(0);
+		}
+		return output;
 	}
 
 	/**
@@ -0,0 +1,179 @@
+/* ********************************************************************
+ * Copyright (C) 2012 Oz-DevWorX (Tim Gall)
+ * ********************************************************************
+ * This file is part of JDBWC.
+ *
+ * JDBWC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JDBWC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JDBWC.  If not, see <http://www.gnu.org/licenses/>.
+ * ********************************************************************
+ */
+package jdbwctest;
+
+
+import java.sql.SQLException;
+
+import com.jdbwc.core.util.SQLParamParser;
+import com.jdbwc.util.Util;
+import com.ozdevworx.dtype.DataHandler;
+
+/**
+ * Tests how <code>WCPreparedStatement</code> folds batched INSERT rows
+ * into one multi-row INSERT when <code>rewriteBatchedStatements</code> is on.<br />
+ * <br />
+ * <code>SQLParamParser.findInsertValues</code> is checked with statements it must
+ * and must not fold, including quoted strings that end in a backslash
+ * (a plain character for PostgreSQL, an escape for MySQL).
+ * The rewrite is then checked by building a multi-row INSERT the same way
+ * <code>WCPreparedStatement.executeBatch()</code> does.<br />
+ * <br />
+ * No server connection is needed.
+ *
+ * @author Tim Gall (Oz-DevWorX)
+ * @version 2012-04-10
+ */
+public class BatchRewriteTest {
+
+	private static final String INSERT = "INSERT INTO t (a, b) VALUES (?, ?)";
+
+	private int checks = 0;
+
+	/**
+	 * Contructor for this test class.
+	 */
+	protected BatchRewriteTest() {
+	}
+
+	/**
+	 * Runs every check. Throws on the first failure.
+	 *
+	 * @throws Exception
+	 */
+	private void runAll() throws Exception {
+		testFindInsertValues();
+		testBackslashes();
+		testRewrite();
+
+		System.out.println("BatchRewriteTest: " + checks + " checks passed.");
+	}
+
+	private void testFindInsertValues() throws Exception {
+		both(INSERT, 28);
+		both("insert into t values (?, ?)", 21);
+		both("INSERT INTO t (a, b) VALUES (?, 'a)b')", 28);
+		both("INSERT INTO t (a, b) VALUES (?, 'it''s')", 28);
+		both("INSERT INTO t (a, b) VALUES (?, lower('X'))", 28);
+		both("INSERT INTO t (a, b) VALUES (?, ?)  ", 28);
+
+		both("INSERT INTO t (a, b) VALUES (?, ?), (?, ?)", -1);
+		both("INSERT INTO t (a, b) VALUES (?, ?) ON DUPLICATE KEY UPDATE b = ?", -1);
+		both("INSERT INTO t (a, b) VALUES (?, ?) RETURNING a", -1);
+		both("INSERT INTO t (a, b) SELECT a, b FROM s WHERE a = ?", -1);
+		both("INSERT INTO t (a, b) VALUES (?, ?", -1);
+		both("UPDATE t SET a = ? WHERE b = ?", -1);
+		both(null, -1);
+	}
+
+	private void testBackslashes() throws Exception {
+		// 'C:\' is a whole string for PostgreSQL; for MySQL the quote is escaped
+		final String path = "INSERT INTO t (a, b) VALUES (?, 'C:\\')";
+		check(path, Util.ID_POSTGRESQL, 28);
+		check(path, Util.ID_MYSQL, -1);
+
+		// the escaped quote hides the closing bracket from MySQL only
+		final String quoted = "INSERT INTO t (a, b) VALUES (?, 'a\\')') ";
+		check(quoted, Util.ID_MYSQL, 28);
+		check(quoted, Util.ID_POSTGRESQL, -1);
+
+		// MySQL also escapes in double quoted strings, but not in quoted identifiers
+		check("INSERT INTO t (a, b) VALUES (?, \"a\\\")\")", Util.ID_MYSQL, 28);
+		check("INSERT INTO `t\\` (a, b) VALUES (?, `c\\`)", Util.ID_MYSQL, 31);
+
+		// PostgreSQL escape strings honour backslashes
+		check("INSERT INTO t (a, b) VALUES (?, E'a\\')')", Util.ID_POSTGRESQL, 28);
+		check("INSERT INTO t (a, b) VALUES (?, e'a\\')')", Util.ID_POSTGRESQL, 28);
+		check("INSERT INTO t (a, b) VALUES (?, fe'C:\\')", Util.ID_POSTGRESQL, 28);
+		check("INSERT INTO t (a, b) VALUES (?, ?||'C:\\')", Util.ID_POSTGRESQL, 28);
+
+		// ID_DEFAULT is treated as MySQL
+		check(path, Util.ID_DEFAULT, -1);
+	}
+
+	private void testRewrite() throws Exception {
+		final String sql = "INSERT INTO t (a, b) VALUES (?, 'C:\\')";
+		final int valuesAt = SQLParamParser.findInsertValues(sql, Util.ID_POSTGRESQL);
+
+		final StringBuilder insert = new StringBuilder(sql.substring(0, valuesAt));
+		for(int r = 1; r <= 3; r++){
+			if(r > 1){
+				insert.append(',');
+			}
+			insert.append(SQLParamParser.populateValues(row(sql, "'x" + r + "?'"), valuesAt));
+		}
+		expect("rewrite", insert.toString(),
+				"INSERT INTO t (a, b) VALUES ('x1?', 'C:\\'),('x2?', 'C:\\'),('x3?', 'C:\\')");
+
+		final String pair = INSERT;
+		final int pairAt = SQLParamParser.findInsertValues(pair, Util.ID_MYSQL);
+		expect("rewrite", pair.substring(0, pairAt)
+				+ SQLParamParser.populateValues(row(pair, "1", "'a\\'b'"), pairAt) + ","
+				+ SQLParamParser.populateValues(row(pair, "2", "'z'"), pairAt),
+				"INSERT INTO t (a, b) VALUES (1, 'a\\'b'),(2, 'z')");
+
+		try {
+			SQLParamParser.populateValues(row(pair, "1"), pairAt);
+			throw new Exception("rewrite: a missing parameter wasn't reported");
+		} catch (SQLException e) {
+			checks++;
+		}
+	}
+
+	/**
+	 * @return the parameters of one batch row as <code>WCPreparedStatement</code> keeps them.
+	 */
+	private DataHandler row(String sql, String... params) {
+		final DataHandler row = Util.getCaseSafeHandler(Util.CASE_MIXED);
+		row.addData("sql", sql);
+		for(int i = 0; i < params.length; i++){
+			row.addData("String", params[i]);
+		}
+		return row;
+	}
+
+	private void both(String sql, int expected) throws Exception {
+		check(sql, Util.ID_MYSQL, expected);
+		check(sql, Util.ID_POSTGRESQL, expected);
+	}
+
+	private void check(String sql, int dbType, int expected) throws Exception {
+		final int found = SQLParamParser.findInsertValues(sql, dbType);
+		if(found!=expected){
+			throw new Exception("findInsertValues(" + sql + ", " + dbType + ") returned " + found + ", expected " + expected);
+		}
+		checks++;
+	}
+
+	private void expect(String name, String actual, String expected) throws Exception {
+		if(!expected.equals(actual)){
+			throw new Exception(name + " built:\n" + actual + "\nexpected:\n" + expected);
+		}
+		checks++;
+	}
+
+	/**
+	 * @param args not used
+	 * @throws Exception if a check fails
+	 */
+	public static void main(String[] args) throws Exception {
+		new BatchRewriteTest().runAll();
+	}
+}
@@ -0,0 +1,227 @@
+/* ********************************************************************
+ * Copyright (C) 2012 Oz-DevWorX (Tim Gall)
+ * ********************************************************************
+ * This file is part of JDBWC.
+ *
+ * JDBWC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JDBWC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JDBWC.  If not, see <http://www.gnu.org/licenses/>.
+ * ********************************************************************
+ */
+package jdbwctest;
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * Compares column label getters with column index getters.<br />
+ * <br />
+ * A 1000 row, 50 column result is fetched once into a scrollable ResultSet.
+ * Each pass reads every cell using either <code>getString(int)</code> / <code>getInt(int)</code>
+ * or <code>getString(String)</code> / <code>getInt(String)</code>.
+ * Only the getter calls are timed; no requests are made after the first query.<br />
+ * <br />
+ * With label resolution cached per ResultSet, the label getters should
+ * cost about the same as the index getters.<br />
+ * <br />
+ * Update the credentials in the <code>connect()</code> method before running.
+ * See <code>CoreTest</code> for a full description of the connection properties.
+ *
+ * @author Tim Gall (Oz-DevWorX)
+ * @version 2012-04-10
+ */
+public class ColumnLabelBenchmark {
+
+	/** The name of the database you are using for testing. */
+	String database = "jdbwctest";
+
+	private static final int COLUMNS = 50;
+
+	/** Number of timed passes over the ResultSet for each getter type. */
+	private final int passes;
+
+	private final String[] labels = new String[COLUMNS];
+
+	/**
+	 * Contructor for this test class.
+	 *
+	 * @param passes number of timed passes for each getter type
+	 */
+	protected ColumnLabelBenchmark(int passes) {
+		this.passes = passes;
+		for(int c = 0; c < COLUMNS; c++){
+			labels[c] = "Col" + (c < 10 ? "0" : "") + c;
+		}
+	}
+
+	/**
+	 * Runs the benchmark and prints the results.
+	 */
+	private void runAll() {
+		Connection connection = connect();
+		if(connection==null)
+			return;
+
+		try {
+			Statement statement = connection.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+			ResultSet res = statement.executeQuery(getQuery());
+
+			// warm-up so the JIT has compiled both paths before timing
+			for(int p = 0; p < 5; p++){
+				readByIndex(res);
+				readByLabel(res);
+			}
+
+			long indexTime = 0;
+			long labelTime = 0;
+			long cells = 0;
+			for(int p = 0; p < passes; p++){
+				long start = System.nanoTime();
+				cells += readByIndex(res);
+				indexTime += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				readByLabel(res);
+				labelTime += System.nanoTime() - start;
+			}
+
+			System.err.println("CELLS/PASS: " + (cells / passes)
+					+ "\tINDEX: " + ((double)indexTime / cells) + " ns/cell"
+					+ "\tLABEL: " + ((double)labelTime / cells) + " ns/cell");
+
+			res.close();
+			statement.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				connection.close();
+			} catch (SQLException e1) {
+//				e1.printStackTrace();
+			}
+		}
+	}
+
+	private long readByIndex(ResultSet res) throws SQLException {
+		long cells = 0;
+		res.beforeFirst();
+		while(res.next()){
+			for(int c = 1; c <= COLUMNS; c++){
+				if((c & 1)==0)
+					res.getInt(c);
+				else
+					res.getString(c);
+			}
+			cells += COLUMNS;
+		}
+		return cells;
+	}
+
+	private long readByLabel(ResultSet res) throws SQLException {
+		long cells = 0;
+		res.beforeFirst();
+		while(res.next()){
+			for(int c = 1; c <= COLUMNS; c++){
+				if((c & 1)==0)
+					res.getInt(labels[c-1]);
+				else
+					res.getString(labels[c-1]);
+			}
+			cells += COLUMNS;
+		}
+		return cells;
+	}
+
+	/**
+	 * @return a query returning 1000 rows of COLUMNS integer columns
+	 * without needing any tables.
+	 */
+	private String getQuery() {
+		final String digits = "(SELECT 0 AS n UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4"
+			+ " UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9)";
+
+		StringBuilder sql = new StringBuilder("SELECT ");
+		for(int c = 0; c < COLUMNS; c++){
+			if(c > 0) sql.append(", ");
+			sql.append("a.n + b.n * 10 + c.n * 100 + ").append(c).append(" AS ").append(labels[c]);
+		}
+		sql.append(" FROM ").append(digits).append(" a, ")
+			.append(digits).append(" b, ")
+			.append(digits).append(" c;");
+		return sql.toString();
+	}
+
+	/**
+	 * Opens a connection.
+	 * See <code>CoreTest.connect()</code> for details about each property.
+	 *
+	 * @return new java.sql.Connection or null if the connection failed
+	 */
+	private Connection connect() {
+		Connection connection = null;
+		try {
+			/* register the JDBWC Driver with the Java DriverManager */
+			Class.forName("com.jdbwc.core.Driver");
+
+			final String databaseName = database;
+			final String databaseUser = "xxxxxxxxxxxxxxx";
+			final String databasePass = "xxxxxxxxxxxxxxx";
+
+			final String hostURL = "http://localhost:8080/";
+			final String hostUser = "xxxxxxxxxxxxxxx";
+			final String hostPass = "xxxxxxxxxxxxxxx";
+
+			final String jdbwcUrlStr = "jdbc:jdbwc:mysql//";
+
+			Properties props = new Properties();
+			props.put("url", hostURL);
+			props.put("user", hostUser);
+			props.put("password", hostPass);
+
+			props.put("databaseName", databaseName);
+			props.put("databaseUser", databaseUser);
+			props.put("databasePassword", databasePass);
+
+			props.put("timeout", String.valueOf(60000));
+
+			connection = DriverManager.getConnection(jdbwcUrlStr, props);
+
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return connection;
+	}
+
+	/**
+	 * Run from the command line.
+	 *
+	 * @param args args[0] (optional) number of timed passes, defaults to 50.
+	 */
+	public static void main(String[] args) {
+		int passes = 50;
+
+		try {
+			if(args!=null && args.length > 0) passes = Integer.parseInt(args[0]);
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid argument, using defaults. " + e.getMessage());
+		}
+
+		new ColumnLabelBenchmark(passes).runAll();
+	}
+}
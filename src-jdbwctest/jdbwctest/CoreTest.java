@@ -206,6 +206,14 @@ public class CoreTest {
 	 * debugLevel        OPTIONS: [0-5]
 	 *
 	 * useDummyAgent     OPTIONS: true, false (or not used. defaults to false)
+	 *
+	 * poolMaxPerRoute   OPTIONS: maximum sockets to the server (defaults to 10)
+	 * poolMaxTotal      OPTIONS: maximum sockets in the shared pool (defaults to 50)
+	 * poolIdleTimeout   OPTIONS: seconds before an idle socket is closed (defaults to 100)
+	 *
+	 * useServerPrepare  OPTIONS: true, false (or not used. defaults to false)
+	 * rewriteBatchedStatements OPTIONS: true, false (or not used. defaults to false)
+	 * maxBatchBytes     OPTIONS: rough bytes per batch request (defaults to 1048576)
 	 * </pre>
 	 *
 	 * @return new java.sql.Connection
@@ -324,6 +332,17 @@ public class CoreTest {
 		    /* Dummy User-Agent (only required in rare situations where hosts block the default Apache HttpClient User-Agent). */
 		    props.put("useDummyAgent", "false");//OPTIONS: true, false (or not used. defaults to false)
 
+		    /* Sockets are pooled and shared by every connection to the same server. */
+//		    props.put("poolMaxPerRoute", "10");//OPTIONS: maximum sockets to the server
+//		    props.put("poolIdleTimeout", "100");//OPTIONS: seconds before an idle socket is closed
+
+		    /* PreparedStatement batches are prepared on the server. Each batch request only sends the statement handle and parameter rows. */
+//		    props.put("useServerPrepare", "true");//OPTIONS: true, false (or not used. defaults to false)
+
+		    /* batched single row INSERTs are sent as multi-row INSERTs of about maxBatchBytes each */
+//		    props.put("rewriteBatchedStatements", "true");//OPTIONS: true, false (or not used. defaults to false)
+//		    props.put("maxBatchBytes", "1048576");//OPTIONS: keep below max_allowed_packet and post_max_size
+
 		    /* only enable if the proxy is enroute. EG: localhost normally bypasses a non local proxy */
 //		    props.put("proxyUrl", "http://your-proxy.your-domain:800");//unregistered name stored in local DNS
 
@@ -509,7 +528,7 @@ public class CoreTest {
 
 		//not implemented in postgresql native driver JDBC 3 or 4. JDBWC does implement this method as does the MySQL native driver
 		if(!dbmd.getDriverName().toLowerCase().startsWith("postgresql"))
-			System.out.println("connection.isValid(int timeout) = " + connection.isValid(120000));
+			System.out.println("connection.isValid(int timeout) = " + connection.isValid(120));
 
 		System.out.println("connection.isClosed() = " + connection.isClosed());
 		System.out.println("---------------------------------------");
@@ -1092,6 +1111,24 @@ public class CoreTest {
 		results.close();
 
 
+
+		/* repeated column labels must each keep their own column */
+		results = statement.executeQuery("SELECT t1.valkey, t2.valkey, t1.value FROM test01 t1, test02 t2 WHERE t1.valkey=t2.valkey;");
+		rsMetaData = results.getMetaData();
+		if(rsMetaData.getColumnCount()!=3){
+			throw new Exception("Repeated labels: expected 3 columns, got " + rsMetaData.getColumnCount());
+		}
+		columnIndex = 1;
+		while(results.next()){
+			if(!results.getString(1).equals(results.getString(2)) || results.getString(3).equals(results.getString(2))){
+				throw new Exception("Repeated labels: row " + columnIndex + " values are in the wrong columns");
+			}
+			System.out.println("ab3) executeQuery " + columnIndex + ") " + results.getString(1) + ", " + results.getString(2) + ", " + results.getString(3));
+			columnIndex++;
+		}
+		results.close();
+
+
 //		String sql999 = "DELETE FROM test01;";
 //		executed = statement.execute(sql999);
 //		System.out.println("DELETE all executed = " + executed);
@@ -0,0 +1,198 @@
+/* ********************************************************************
+ * Copyright (C) 2012 Oz-DevWorX (Tim Gall)
+ * ********************************************************************
+ * This file is part of JDBWC.
+ *
+ * JDBWC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JDBWC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JDBWC.  If not, see <http://www.gnu.org/licenses/>.
+ * ********************************************************************
+ */
+package jdbwctest;
+
+
+import java.util.Random;
+
+import com.jdbwc.util.Util;
+
+/**
+ * Compares <code>Util.csvFormat</code> / <code>Util.csvUnFormat</code>
+ * with the chained <code>String.replace</code> versions they replaced.<br />
+ * <br />
+ * Every generated value is first checked to give exactly the same result
+ * with both versions, then each version is timed over the same values.
+ * Two value sets are used: plain values with nothing to escape
+ * (the common case for numbers and dates) and values full of escapable characters.<br />
+ * <br />
+ * No server connection is needed.
+ *
+ * @author Tim Gall (Oz-DevWorX)
+ * @version 2012-04-10
+ */
+public class CsvCodecBenchmark {
+
+	private static final String ALPHABET = "abcdefghij 0123456789-:.";
+	private static final String SPECIALS = ",\r\n\f\"'#_";
+	private static final String[] TOKENS = {"#_002C", "#_CN", "#_CR", "#_NL", "#_FF", "#_0022", "#_0027", "#_040", "#_", "#"};
+
+	/** Number of timed passes over each value set. */
+	private final int passes;
+	private final Random random = new Random(20120410L);
+
+	/**
+	 * Contructor for this test class.
+	 *
+	 * @param passes number of timed passes
+	 */
+	protected CsvCodecBenchmark(int passes) {
+		this.passes = passes;
+	}
+
+	/**
+	 * Runs the benchmark and prints the results.
+	 */
+	private void runAll() {
+		final String[] plain = new String[10000];
+		final String[] mixed = new String[10000];
+		for(int i = 0; i < plain.length; i++){
+			plain[i] = randomValue(ALPHABET, null);
+			mixed[i] = randomValue(ALPHABET + SPECIALS, TOKENS);
+		}
+
+		if(!verify(plain) || !verify(mixed))
+			return;
+
+		run("PLAIN", plain);
+		run("ESCAPED", mixed);
+	}
+
+	private boolean verify(String[] values) {
+		for(int i = 0; i < values.length; i++){
+			if(!oldFormat(values[i]).equals(Util.csvFormat(values[i]))){
+				System.err.println("csvFormat MISMATCH: " + Util.csvFormat(values[i]));
+				return false;
+			}
+			if(!oldUnFormat(values[i]).equals(Util.csvUnFormat(values[i]))){
+				System.err.println("csvUnFormat MISMATCH: " + Util.csvUnFormat(values[i]));
+				return false;
+			}
+			final String escaped = Util.csvFormat(values[i]);
+			if(!oldUnFormat(escaped).equals(Util.csvUnFormat(escaped))){
+				System.err.println("csvUnFormat MISMATCH: " + Util.csvUnFormat(escaped));
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void run(String name, String[] values) {
+		final String[] escaped = new String[values.length];
+		for(int i = 0; i < values.length; i++){
+			escaped[i] = oldFormat(values[i]);
+		}
+
+		// warm-up so the JIT has compiled both versions before timing
+		long sink = 0;
+		for(int p = 0; p < 20; p++){
+			sink += runOld(values, escaped) + runNew(values, escaped);
+		}
+
+		long oldTime = 0;
+		long newTime = 0;
+		for(int p = 0; p < passes; p++){
+			long start = System.nanoTime();
+			sink += runOld(values, escaped);
+			oldTime += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			sink += runNew(values, escaped);
+			newTime += System.nanoTime() - start;
+		}
+
+		final long calls = (long)passes * values.length * 2;
+		System.err.println(name
+				+ "\tREPLACE: " + ((double)oldTime / calls) + " ns/call"
+				+ "\tSINGLE-PASS: " + ((double)newTime / calls) + " ns/call"
+				+ "\t(" + sink + ")");
+	}
+
+	private long runOld(String[] values, String[] escaped) {
+		long length = 0;
+		for(int i = 0; i < values.length; i++){
+			length += oldFormat(values[i]).length();
+			length += oldUnFormat(escaped[i]).length();
+		}
+		return length;
+	}
+
+	private long runNew(String[] values, String[] escaped) {
+		long length = 0;
+		for(int i = 0; i < values.length; i++){
+			length += Util.csvFormat(values[i]).length();
+			length += Util.csvUnFormat(escaped[i]).length();
+		}
+		return length;
+	}
+
+	private String randomValue(String chars, String[] tokens) {
+		final int length = random.nextInt(40);
+		StringBuilder value = new StringBuilder(length);
+		for(int i = 0; i < length; i++){
+			if(tokens!=null && random.nextInt(8)==0){
+				value.append(tokens[random.nextInt(tokens.length)]);
+			}else{
+				value.append(chars.charAt(random.nextInt(chars.length())));
+			}
+		}
+		return value.toString();
+	}
+
+	/** csvFormat as it was before the single pass version */
+	private static String oldFormat(final String input){
+		return input.replace(",", "#_002C")
+			.replace("\r\n", "#_CN")
+			.replace("\r", "#_CR")
+			.replace("\n", "#_NL")
+			.replace("\f", "#_FF")
+			.replace("\"", "#_0022")
+			.replace("'", "#_0027");
+	}
+
+	/** csvUnFormat as it was before the single pass version */
+	private static String oldUnFormat(final String input){
+		return input.replace("#_002C", ",")
+			.replace("#_CN", "\r\n")
+			.replace("#_CR", "\r")
+			.replace("#_NL", "\n")
+			.replace("#_FF", "\f")
+			.replace("#_0022", "\"")
+			.replace("#_0027", "'")
+			.replace("#_040", "");
+	}
+
+	/**
+	 * Run from the command line.
+	 *
+	 * @param args args[0] (optional) number of timed passes, defaults to 100.
+	 */
+	public static void main(String[] args) {
+		int passes = 100;
+
+		try {
+			if(args!=null && args.length > 0) passes = Integer.parseInt(args[0]);
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid argument, using defaults. " + e.getMessage());
+		}
+
+		new CsvCodecBenchmark(passes).runAll();
+	}
+}
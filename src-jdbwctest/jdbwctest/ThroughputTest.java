@@ -0,0 +1,219 @@
+/* ********************************************************************
+ * Copyright (C) 2008 Tim Gall (Oz-DevWorX)
+ * ********************************************************************
+ * This file is part of JDBWC.
+ *
+ * JDBWC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JDBWC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JDBWC.  If not, see <http://www.gnu.org/licenses/>.
+ * ********************************************************************
+ */
+package jdbwctest;
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-threaded throughput test for JDBWC.<br />
+ * <br />
+ * Each worker thread opens its own <code>java.sql.Connection</code>
+ * and runs a small query in a tight loop.
+ * The run is repeated for 1, 2, 4, ... up to the maximum thread count
+ * and the queries per second are reported for each step.<br />
+ * <br />
+ * With no shared locks in the driver, throughput should scale with
+ * the thread count until the web-server or database-server becomes the bottleneck.
+ * If the numbers stay flat as threads are added, something in the client is serialising requests.<br />
+ * <br />
+ * Update the credentials in the <code>connect()</code> method before running.
+ * See <code>CoreTest</code> for a full description of the connection properties.
+ *
+ * @author Tim Gall (Oz-DevWorX)
+ * @version 2012-04-02
+ */
+public class ThroughputTest {
+
+	/** The name of the database you are using for testing. */
+	String database = "jdbwctest";
+
+	/** Maximum number of worker threads. */
+	private final int maxThreads;
+	/** Number of queries each worker runs per step. */
+	private final int queriesPerThread;
+
+	/**
+	 * Contructor for this test class.
+	 *
+	 * @param maxThreads highest thread count to test
+	 * @param queriesPerThread number of queries each worker runs per step
+	 */
+	protected ThroughputTest(int maxThreads, int queriesPerThread) {
+		this.maxThreads = maxThreads;
+		this.queriesPerThread = queriesPerThread;
+	}
+
+	/**
+	 * Runs each thread-count step and prints the results.
+	 */
+	private void runAll() {
+		// warm-up so class loading and the first handshake aren't counted
+		runStep(1, Math.min(queriesPerThread, 10), false);
+
+		for(int threads = 1; threads <= maxThreads; threads *= 2){
+			runStep(threads, queriesPerThread, true);
+		}
+	}
+
+	/**
+	 * Runs one step of the test using the given number of threads.
+	 *
+	 * @param threads number of worker threads
+	 * @param queries number of queries per thread
+	 * @param report true to print the results of this step
+	 */
+	private void runStep(final int threads, final int queries, final boolean report) {
+		final CountDownLatch ready = new CountDownLatch(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicLong completed = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+
+		for(int t = 0; t < threads; t++){
+			Thread worker = new Thread("jdbwc-throughput-" + t){
+				@Override
+				public void run() {
+					Connection connection = connect();
+					ready.countDown();
+					try {
+						start.await();
+						if(connection!=null){
+							Statement statement = connection.createStatement();
+							for(int q = 0; q < queries; q++){
+								ResultSet res = statement.executeQuery("SELECT 1;");
+								while(res.next()){
+									res.getString(1);
+								}
+								res.close();
+								completed.incrementAndGet();
+							}
+							statement.close();
+						}else{
+							failed.incrementAndGet();
+						}
+					} catch (SQLException e) {
+						failed.incrementAndGet();
+						e.printStackTrace();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						try {
+							if(connection!=null) connection.close();
+						} catch (SQLException e1) {
+//							e1.printStackTrace();
+						}
+						done.countDown();
+					}
+				}
+			};
+			worker.start();
+		}
+
+		try {
+			ready.await();
+			long startTime = System.nanoTime();
+			start.countDown();
+			done.await();
+			long finishTime = System.nanoTime();
+
+			if(report){
+				double seconds = (double)(finishTime - startTime) / 1000000000;
+				System.err.println("THREADS: " + threads
+						+ "\tQUERIES: " + completed.get()
+						+ "\tFAILED: " + failed.get()
+						+ "\tTIME: " + seconds + " seconds"
+						+ "\tQUERIES/SEC: " + (completed.get() / seconds));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Opens a new connection for a worker thread.
+	 * See <code>CoreTest.connect()</code> for details about each property.
+	 *
+	 * @return new java.sql.Connection or null if the connection failed
+	 */
+	private Connection connect() {
+		Connection connection = null;
+		try {
+			/* register the JDBWC Driver with the Java DriverManager */
+			Class.forName("com.jdbwc.core.Driver");
+
+			final String databaseName = database;
+			final String databaseUser = "xxxxxxxxxxxxxxx";
+			final String databasePass = "xxxxxxxxxxxxxxx";
+
+			final String hostURL = "http://localhost:8080/";
+			final String hostUser = "xxxxxxxxxxxxxxx";
+			final String hostPass = "xxxxxxxxxxxxxxx";
+
+			final String jdbwcUrlStr = "jdbc:jdbwc:mysql//";
+
+			Properties props = new Properties();
+			props.put("url", hostURL);
+			props.put("user", hostUser);
+			props.put("password", hostPass);
+
+			props.put("databaseName", databaseName);
+			props.put("databaseUser", databaseUser);
+			props.put("databasePassword", databasePass);
+
+			props.put("timeout", String.valueOf(60000));
+
+			connection = DriverManager.getConnection(jdbwcUrlStr, props);
+
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return connection;
+	}
+
+	/**
+	 * Run from the command line.
+	 *
+	 * @param args args[0] (optional) maximum thread count, defaults to 16.<br />
+	 * args[1] (optional) queries per thread for each step, defaults to 100.
+	 */
+	public static void main(String[] args) {
+		int maxThreads = 16;
+		int queries = 100;
+
+		try {
+			if(args!=null && args.length > 0) maxThreads = Integer.parseInt(args[0]);
+			if(args!=null && args.length > 1) queries = Integer.parseInt(args[1]);
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid argument, using defaults. " + e.getMessage());
+		}
+
+		new ThroughputTest(maxThreads, queries).runAll();
+	}
+}